@@ -2565,6 +2565,10 @@ private static void doSaveCampaign(File file, String campaignVersion, Runnable o
       MapTool.showError("msg.error.failedSaveCampaignLock");
       return;
     }
+    if (MapTool.getZoneFetcher().isFetching()) {
+      MapTool.showError("msg.error.failedSaveCampaignFetching");
+      return;
+    }
     new CampaignSaver(file, campaignVersion, onSuccess).execute();
   }
 
@@ -188,6 +188,9 @@ public class AppPreferences {
   private static final String KEY_TOPOLOGY_DRAWING_MODE = "topologyDrawingMode";
   private static final String DEFAULT_TOPOLOGY_DRAWING_MODE = "VBL";
 
+  private static final String KEY_VISIBILITY_ENGINE = "visibilityEngine";
+  private static final String DEFAULT_VISIBILITY_ENGINE = "AREA";
+
   public static void setFillSelectionBox(boolean fill) {
     prefs.putBoolean(KEY_FILL_SELECTION_BOX, fill);
   }
@@ -442,6 +445,18 @@ public static int getHaloLineWidth() {
   private static final String KEY_FRAME_RATE_CAP = "frameRateCap";
   private static final int DEFAULT_FRAME_RATE_CAP = 60;
 
+  private static final String KEY_TOKEN_MOVE_BROADCAST_RATE = "tokenMoveBroadcastRate";
+  private static final int DEFAULT_TOKEN_MOVE_BROADCAST_RATE = 30;
+
+  private static final String KEY_ASSET_BANDWIDTH_LIMIT = "assetBandwidthLimit";
+  private static final int DEFAULT_ASSET_BANDWIDTH_LIMIT = 0;
+
+  private static final String KEY_IMAGE_CACHE_SIZE = "imageCacheSize";
+  private static final int DEFAULT_IMAGE_CACHE_SIZE = 256;
+
+  private static final String KEY_LIGHT_AREA_CACHE_SIZE = "lightAreaCacheSize";
+  private static final int DEFAULT_LIGHT_AREA_CACHE_SIZE = 32;
+
   private static final String KEY_UPNP_DISCOVERY_TIMEOUT = "upnpDiscoveryTimeout";
   private static final int DEFAULT_UPNP_DISCOVERY_TIMEOUT = 5000;
 
@@ -892,6 +907,62 @@ public static int getFrameRateCap() {
     return prefs.getInt(KEY_FRAME_RATE_CAP, DEFAULT_FRAME_RATE_CAP);
   }
 
+  /**
+   * @param rate the number of times per second a hosted server sends the positions of the tokens
+   *     being dragged to the clients. 0 to send each position as it comes. Takes effect on the next
+   *     server start.
+   */
+  public static void setTokenMoveBroadcastRate(int rate) {
+    prefs.putInt(KEY_TOKEN_MOVE_BROADCAST_RATE, rate);
+  }
+
+  /**
+   * @return the number of times per second a hosted server sends the positions of the tokens being
+   *     dragged to the clients. 0 to send each position as it comes.
+   */
+  public static int getTokenMoveBroadcastRate() {
+    return prefs.getInt(KEY_TOKEN_MOVE_BROADCAST_RATE, DEFAULT_TOKEN_MOVE_BROADCAST_RATE);
+  }
+
+  /**
+   * @param limit the maximum rate, in kilobytes per second, at which a hosted server sends assets
+   *     to each client. 0 for no limit.
+   */
+  public static void setAssetBandwidthLimit(int limit) {
+    prefs.putInt(KEY_ASSET_BANDWIDTH_LIMIT, limit);
+  }
+
+  /**
+   * @return the maximum rate, in kilobytes per second, at which a hosted server sends assets to
+   *     each client. 0 for no limit.
+   */
+  public static int getAssetBandwidthLimit() {
+    return prefs.getInt(KEY_ASSET_BANDWIDTH_LIMIT, DEFAULT_ASSET_BANDWIDTH_LIMIT);
+  }
+
+  /**
+   * @param size the memory, in megabytes, the decoded images may use. Takes effect on the next
+   *     start.
+   */
+  public static void setImageCacheSize(int size) {
+    prefs.putInt(KEY_IMAGE_CACHE_SIZE, size);
+  }
+
+  /** @return the memory, in megabytes, the decoded images may use */
+  public static int getImageCacheSize() {
+    return prefs.getInt(KEY_IMAGE_CACHE_SIZE, DEFAULT_IMAGE_CACHE_SIZE);
+  }
+
+  /** @param size the memory, in megabytes, the cached light areas of each map may use */
+  public static void setLightAreaCacheSize(int size) {
+    prefs.putInt(KEY_LIGHT_AREA_CACHE_SIZE, size);
+  }
+
+  /** @return the memory, in megabytes, the cached light areas of each map may use */
+  public static int getLightAreaCacheSize() {
+    return prefs.getInt(KEY_LIGHT_AREA_CACHE_SIZE, DEFAULT_LIGHT_AREA_CACHE_SIZE);
+  }
+
   public static void setUpnpDiscoveryTimeout(int timeout) {
     prefs.putInt(KEY_UPNP_DISCOVERY_TIMEOUT, timeout);
   }
@@ -1237,4 +1308,27 @@ public static void setTopologyDrawingMode(TopologyMode mode) {
       prefs.put(KEY_TOPOLOGY_DRAWING_MODE, mode.toString());
     }
   }
+
+  /**
+   * Returns the name of the engine used to calculate the visible area of vision and lights, AREA or
+   * SWEEP.
+   *
+   * @return the name of the visibility engine.
+   */
+  public static String getVisibilityEngine() {
+    return prefs.get(KEY_VISIBILITY_ENGINE, DEFAULT_VISIBILITY_ENGINE);
+  }
+
+  /**
+   * Sets the name of the engine used to calculate the visible area of vision and lights.
+   *
+   * @param engine the name of the engine. A value of null resets to default.
+   */
+  public static void setVisibilityEngine(String engine) {
+    if (engine == null) {
+      prefs.remove(KEY_VISIBILITY_ENGINE);
+    } else {
+      prefs.put(KEY_VISIBILITY_ENGINE, engine);
+    }
+  }
 }
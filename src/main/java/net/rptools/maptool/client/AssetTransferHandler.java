@@ -38,6 +38,8 @@ public void assetComplete(Serializable id, String name, File data) {
     }
     Asset asset = new Asset(name, assetData);
     if (!asset.getId().equals(id)) {
+      // Don't resume from it later
+      data.delete();
       MapTool.showError("Received an invalid image: " + id);
       return;
     }
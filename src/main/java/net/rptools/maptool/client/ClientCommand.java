@@ -28,6 +28,7 @@ public static enum COMMAND {
     getAsset,
     removeAsset,
     putToken,
+    putTokenDelta,
     editToken,
     updateTokenProperty,
     removeToken,
@@ -50,6 +51,7 @@ public static enum COMMAND {
     stopTokenMove,
     toggleTokenMoveWaypoint,
     updateTokenMove,
+    updateTokenMoves,
     enforceZoneView,
     setZoneHasFoW,
     exposeFoW,
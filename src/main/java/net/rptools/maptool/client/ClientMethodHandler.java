@@ -19,7 +19,14 @@
 import java.awt.geom.Area;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import net.rptools.clientserver.hessian.AbstractMethodHandler;
 import net.rptools.lib.MD5Key;
@@ -46,6 +53,7 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.TopologyMode;
 import net.rptools.maptool.model.Zone.VisionType;
@@ -55,9 +63,13 @@
 import net.rptools.maptool.model.drawing.Pen;
 import net.rptools.maptool.server.ServerMethodHandler;
 import net.rptools.maptool.server.ServerPolicy;
+import net.rptools.maptool.server.TokenMove;
 import net.rptools.maptool.transfer.AssetChunk;
 import net.rptools.maptool.transfer.AssetConsumer;
 import net.rptools.maptool.transfer.AssetHeader;
+import net.rptools.maptool.util.AreaCodec;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 /**
  * This class is used by the clients to receive server commands sent through {@link
@@ -66,6 +78,77 @@
  * @author drice
  */
 public class ClientMethodHandler extends AbstractMethodHandler {
+  private static final Logger log = LogManager.getLogger(ClientMethodHandler.class);
+
+  /** The commands which change nothing a putToken of another token depends on. */
+  private static final Set<ClientCommand.COMMAND> independentCommands =
+      EnumSet.of(
+          ClientCommand.COMMAND.putToken,
+          ClientCommand.COMMAND.putLabel,
+          ClientCommand.COMMAND.removeLabel,
+          ClientCommand.COMMAND.draw,
+          ClientCommand.COMMAND.updateDrawing,
+          ClientCommand.COMMAND.startTokenMove,
+          ClientCommand.COMMAND.stopTokenMove,
+          ClientCommand.COMMAND.updateTokenMove,
+          ClientCommand.COMMAND.updateTokenMoves,
+          ClientCommand.COMMAND.toggleTokenMoveWaypoint,
+          ClientCommand.COMMAND.showPointer,
+          ClientCommand.COMMAND.hidePointer,
+          ClientCommand.COMMAND.movePointer,
+          ClientCommand.COMMAND.message,
+          ClientCommand.COMMAND.setLiveTypingLabel,
+          ClientCommand.COMMAND.playerConnected,
+          ClientCommand.COMMAND.playerDisconnected);
+
+  /**
+   * The commands which change the content of the zone given as their first parameter, held until
+   * the zone is received if only its header was received yet.
+   */
+  private static final Set<ClientCommand.COMMAND> zoneContentCommands =
+      EnumSet.of(
+          ClientCommand.COMMAND.clearAllDrawings,
+          ClientCommand.COMMAND.exposeFoW,
+          ClientCommand.COMMAND.setFoW,
+          ClientCommand.COMMAND.hideFoW,
+          ClientCommand.COMMAND.editToken,
+          ClientCommand.COMMAND.putToken,
+          ClientCommand.COMMAND.putTokenDelta,
+          ClientCommand.COMMAND.putLabel,
+          ClientCommand.COMMAND.updateTokenProperty,
+          ClientCommand.COMMAND.removeToken,
+          ClientCommand.COMMAND.removeTokens,
+          ClientCommand.COMMAND.removeLabel,
+          ClientCommand.COMMAND.draw,
+          ClientCommand.COMMAND.updateDrawing,
+          ClientCommand.COMMAND.undoDraw,
+          ClientCommand.COMMAND.stopTokenMove,
+          ClientCommand.COMMAND.updateTokenMove,
+          ClientCommand.COMMAND.setTokenLocation,
+          ClientCommand.COMMAND.toggleTokenMoveWaypoint,
+          ClientCommand.COMMAND.addTopology,
+          ClientCommand.COMMAND.removeTopology,
+          ClientCommand.COMMAND.updateTokenInitiative,
+          ClientCommand.COMMAND.clearExposedArea,
+          ClientCommand.COMMAND.updateExposedAreaMeta);
+
+  /** The model updates received, waiting to be run on the EDT. */
+  private final List<PendingCommand> pendingCommands = new ArrayList<PendingCommand>();
+
+  /** Whether a run of the pending commands is already posted to the EDT. */
+  private boolean runPosted;
+
+  /** Whether the current zone must be repainted once the batch of commands is run. */
+  private boolean refreshNeeded;
+
+  /**
+   * The commands for the zones only the headers of which were received yet, run again once the
+   * zones are received. The server may have sent a zone before these changes, while they were on
+   * the way. Only used on the EDT.
+   */
+  private final Map<GUID, List<PendingCommand>> heldCommands =
+      new HashMap<GUID, List<PendingCommand>>();
+
   public ClientMethodHandler() {}
 
   public void handleMethod(final String id, final String method, final Object... parameters) {
@@ -102,10 +185,17 @@ public void handleMethod(final String id, final String method, final Object... p
           ioe.printStackTrace();
         }
         return;
+
+      case putZone:
+        // A macro waiting for the zone may put it in the campaign before this command is run
+        MapTool.getZoneFetcher().zoneArrived((Zone) parameters[0]);
+        break;
     }
 
     // Model events need to update on the EDT
-    EventQueue.invokeLater(
+    enqueue(
+        cmd,
+        parameters,
         new Runnable() {
           @SuppressWarnings("unchecked")
           public void run() {
@@ -142,7 +232,7 @@ public void run() {
                 Zone.Layer layer = (Zone.Layer) parameters[1];
                 zone = MapTool.getCampaign().getZone(zoneGUID);
                 zone.clearDrawables(zone.getDrawnElements(layer));
-                MapTool.getFrame().refresh();
+                requestRefresh();
                 return;
 
               case setZoneHasFoW:
@@ -153,12 +243,12 @@ public void run() {
                 zone.setHasFog(hasFog);
 
                 // In case we're looking at the zone
-                MapTool.getFrame().refresh();
+                requestRefresh();
                 return;
 
               case exposeFoW:
                 zoneGUID = (GUID) parameters[0];
-                Area area = (Area) parameters[1];
+                Area area = AreaCodec.decode((byte[]) parameters[1]);
 
                 if (parameters.length > 2) {
                   if (parameters[2] != null) {
@@ -167,12 +257,12 @@ public void run() {
                 }
                 zone = MapTool.getCampaign().getZone(zoneGUID);
                 zone.exposeArea(area, selectedToks);
-                MapTool.getFrame().refresh();
+                requestRefresh();
                 return;
 
               case setFoW:
                 zoneGUID = (GUID) parameters[0];
-                area = (Area) parameters[1];
+                area = AreaCodec.decode((byte[]) parameters[1]);
 
                 if (parameters.length > 2) {
                   if (parameters[2] != null) {
@@ -181,12 +271,12 @@ public void run() {
                 }
                 zone = MapTool.getCampaign().getZone(zoneGUID);
                 zone.setFogArea(area, selectedToks);
-                MapTool.getFrame().refresh();
+                requestRefresh();
                 return;
 
               case hideFoW:
                 zoneGUID = (GUID) parameters[0];
-                area = (Area) parameters[1];
+                area = AreaCodec.decode((byte[]) parameters[1]);
 
                 if (parameters.length > 2) {
                   if (parameters[2] != null) {
@@ -195,15 +285,28 @@ public void run() {
                 }
                 zone = MapTool.getCampaign().getZone(zoneGUID);
                 zone.hideArea(area, selectedToks);
-                MapTool.getFrame().refresh();
+                requestRefresh();
                 return;
 
               case setCampaign:
                 Campaign campaign = (Campaign) parameters[0];
                 MapTool.setCampaign(campaign);
+                heldCommands.clear();
+                if (parameters.length > 1) {
+                  // Only the headers of these zones were sent, they are fetched from the server
+                  MapTool.getZoneFetcher()
+                      .fetch((List<GUID>) parameters[1], ClientMethodHandler.this::installZone);
+                }
 
                 // Hide the "Connecting" overlay
                 MapTool.getFrame().hideGlassPane();
+
+                if (!MapTool.isHostingServer() && !MapTool.isPersonalServer()) {
+                  syncAssets(
+                      parameters.length > 2
+                          ? (Set<MD5Key>) parameters[2]
+                          : campaign.getAllAssetIds());
+                }
                 return;
 
               case setCampaignName:
@@ -213,21 +316,16 @@ public void run() {
 
               case putZone:
                 zone = (Zone) parameters[0];
-                MapTool.getCampaign().putZone(zone);
-
-                // TODO: combine this with MapTool.addZone()
-                renderer = ZoneRendererFactory.newRenderer(zone);
-                MapTool.getFrame().addZoneRenderer(renderer);
-                if (MapTool.getFrame().getCurrentZoneRenderer() == null && zone.isVisible()) {
-                  MapTool.getFrame().setCurrentZoneRenderer(renderer);
+                if (MapTool.getCampaign().getZone(zone.getId()) != zone) {
+                  putZone(zone);
                 }
-                MapTool.getEventDispatcher()
-                    .fireEvent(MapTool.ZoneEvent.Added, MapTool.getCampaign(), null, zone);
                 return;
 
               case removeZone:
                 zoneGUID = (GUID) parameters[0];
                 MapTool.getCampaign().removeZone(zoneGUID);
+                heldCommands.remove(zoneGUID);
+                MapTool.getZoneFetcher().zoneReceived(zoneGUID);
                 MapTool.getFrame().removeZoneRenderer(MapTool.getFrame().getZoneRenderer(zoneGUID));
                 return;
 
@@ -236,7 +334,7 @@ public void run() {
                 zone = MapTool.getCampaign().getZone(zoneGUID);
                 token = (Token) parameters[1];
                 zone.editToken(token);
-                MapTool.getFrame().refresh();
+                requestRefresh();
                 return;
 
               case putToken:
@@ -244,7 +342,19 @@ public void run() {
                 zone = MapTool.getCampaign().getZone(zoneGUID);
                 token = (Token) parameters[1];
                 zone.putToken(token);
-                MapTool.getFrame().refresh();
+                requestRefresh();
+                return;
+
+              case putTokenDelta:
+                zoneGUID = (GUID) parameters[0];
+                zone = MapTool.getCampaign().getZone(zoneGUID);
+                TokenDelta delta = (TokenDelta) parameters[1];
+                token = zone.getToken(delta.getTokenId());
+                if (token != null) {
+                  delta.apply(token);
+                  zone.putToken(token);
+                  requestRefresh();
+                }
                 return;
 
               case putLabel:
@@ -252,7 +362,7 @@ public void run() {
                 zone = MapTool.getCampaign().getZone(zoneGUID);
                 Label label = (Label) parameters[1];
                 zone.putLabel(label);
-                MapTool.getFrame().refresh();
+                requestRefresh();
                 return;
 
               case updateTokenProperty: // get token and update its property
@@ -263,6 +373,8 @@ public void run() {
                 if (token != null) {
                   Token.Update update = (Token.Update) parameters[2];
                   token.updateProperty(zone, update, (Object[]) parameters[3]);
+                  // Not as this client last sent it any more
+                  TokenDelta.clearSent(token);
                 }
                 return;
 
@@ -271,7 +383,7 @@ public void run() {
                 zone = MapTool.getCampaign().getZone(zoneGUID);
                 tokenGUID = (GUID) parameters[1];
                 zone.removeToken(tokenGUID);
-                MapTool.getFrame().refresh();
+                requestRefresh();
                 return;
 
               case removeTokens:
@@ -279,7 +391,7 @@ public void run() {
                 zone = MapTool.getCampaign().getZone(zoneGUID);
                 tokenGUIDs = (List<GUID>) parameters[1];
                 zone.removeTokens(tokenGUIDs);
-                MapTool.getFrame().refresh();
+                requestRefresh();
                 return;
 
               case removeLabel:
@@ -287,7 +399,7 @@ public void run() {
                 zone = MapTool.getCampaign().getZone(zoneGUID);
                 GUID labelGUID = (GUID) parameters[1];
                 zone.removeLabel(labelGUID);
-                MapTool.getFrame().refresh();
+                requestRefresh();
                 return;
 
               case enforceZoneView:
@@ -321,8 +433,11 @@ public void run() {
                 Drawable drawable = (Drawable) parameters[2];
 
                 zone = MapTool.getCampaign().getZone(zoneGUID);
-                zone.addDrawable(new DrawnElement(drawable, pen));
-                MapTool.getFrame().refresh();
+                if (zone.getDrawnElement(drawable.getId()) == null) {
+                  // Already there when held for a zone which was sent with it
+                  zone.addDrawable(new DrawnElement(drawable, pen));
+                }
+                requestRefresh();
                 return;
 
               case updateDrawing:
@@ -332,7 +447,7 @@ public void run() {
 
                 zone = MapTool.getCampaign().getZone(zoneGUID);
                 zone.updateDrawable(de, p);
-                MapTool.getFrame().refresh();
+                requestRefresh();
                 return;
 
               case undoDraw:
@@ -345,7 +460,7 @@ public void run() {
                 zone.removeDrawable(drawableId);
                 if (MapTool.getFrame().getCurrentZoneRenderer().getZone().getId().equals(zoneGUID)
                     && zoneGUID != null) {
-                  MapTool.getFrame().refresh();
+                  requestRefresh();
                 }
                 return;
 
@@ -368,7 +483,7 @@ public void run() {
                   MapTool.getFrame().setCurrentZoneRenderer(currentRenderer);
                 }
                 MapTool.getFrame().getZoneMiniMapPanel().flush();
-                MapTool.getFrame().refresh();
+                requestRefresh();
                 return;
 
               case setZoneGridSize:
@@ -383,17 +498,17 @@ public void run() {
                 zone.getGrid().setOffset(xOffset, yOffset);
                 zone.setGridColor(color);
 
-                MapTool.getFrame().refresh();
+                requestRefresh();
                 return;
 
               case playerConnected:
                 MapTool.addPlayer((Player) parameters[0]);
-                MapTool.getFrame().refresh();
+                requestRefresh();
                 return;
 
               case playerDisconnected:
                 MapTool.removePlayer((Player) parameters[0]);
-                MapTool.getFrame().refresh();
+                requestRefresh();
                 return;
 
               case message:
@@ -418,12 +533,12 @@ public void run() {
                 MapTool.getFrame()
                     .getPointerOverlay()
                     .addPointer((String) parameters[0], (Pointer) parameters[1]);
-                MapTool.getFrame().refresh();
+                requestRefresh();
                 return;
 
               case hidePointer:
                 MapTool.getFrame().getPointerOverlay().removePointer((String) parameters[0]);
-                MapTool.getFrame().refresh();
+                requestRefresh();
                 return;
 
               case startTokenMove:
@@ -455,6 +570,10 @@ public void run() {
                 renderer.updateMoveSelectionSet(keyToken, new ZonePoint(x, y));
                 return;
 
+              case updateTokenMoves:
+                updateTokenMoves((List<TokenMove>) parameters[0]);
+                return;
+
               case setTokenLocation:
                 // Only the table should process this
                 if (MapTool.getPlayer().getName().equalsIgnoreCase("Table")) {
@@ -502,7 +621,7 @@ public void run() {
 
               case addTopology:
                 zoneGUID = (GUID) parameters[0];
-                area = (Area) parameters[1];
+                area = AreaCodec.decode((byte[]) parameters[1]);
                 TopologyMode topologyMode = (TopologyMode) parameters[2];
 
                 zone = MapTool.getCampaign().getZone(zoneGUID);
@@ -513,7 +632,7 @@ public void run() {
 
               case removeTopology:
                 zoneGUID = (GUID) parameters[0];
-                area = (Area) parameters[1];
+                area = AreaCodec.decode((byte[]) parameters[1]);
                 topologyMode = (TopologyMode) parameters[2];
 
                 zone = MapTool.getCampaign().getZone(zoneGUID);
@@ -562,7 +681,7 @@ public void run() {
                 pointer.setX(x);
                 pointer.setY(y);
 
-                MapTool.getFrame().refresh();
+                requestRefresh();
                 return;
 
               case updateInitiative:
@@ -608,7 +727,7 @@ public void run() {
                     MapTool.getFrame().getCurrentZoneRenderer().flushFog();
                     MapTool.getFrame().getCurrentZoneRenderer().getZoneView().flush();
                   }
-                  MapTool.getFrame().refresh();
+                  requestRefresh();
                 }
                 return;
 
@@ -673,7 +792,8 @@ public void run() {
               case updateExposedAreaMeta:
                 zoneGUID = (GUID) parameters[0];
                 tokenGUID = (GUID) parameters[1];
-                ExposedAreaMetaData meta = (ExposedAreaMetaData) parameters[2];
+                ExposedAreaMetaData meta =
+                    new ExposedAreaMetaData(AreaCodec.decode((byte[]) parameters[2]));
                 zone = MapTool.getCampaign().getZone(zoneGUID);
                 zone.setExposedAreaMetaData(tokenGUID, meta);
                 return;
@@ -681,4 +801,321 @@ public void run() {
           }
         });
   }
+
+  /**
+   * Queue a model update to be run on the EDT. The updates received while the EDT is busy are run
+   * together, in a single event, with a single repaint at the end.
+   *
+   * @param cmd the command
+   * @param parameters the parameters of the command
+   * @param update runs the command
+   */
+  private void enqueue(ClientCommand.COMMAND cmd, Object[] parameters, Runnable update) {
+    synchronized (pendingCommands) {
+      pendingCommands.add(new PendingCommand(cmd, parameters, update));
+      if (!runPosted) {
+        runPosted = true;
+        EventQueue.invokeLater(this::runPendingCommands);
+      }
+    }
+  }
+
+  /** Run the pending model updates, once the redundant ones are removed. Must be on the EDT. */
+  private void runPendingCommands() {
+    List<PendingCommand> batch;
+    synchronized (pendingCommands) {
+      batch = new ArrayList<PendingCommand>(pendingCommands);
+      pendingCommands.clear();
+      runPosted = false;
+    }
+    refreshNeeded = false;
+    for (PendingCommand command : coalesce(batch)) {
+      GUID zoneGUID = getPendingZone(command);
+      if (zoneGUID != null) {
+        heldCommands.computeIfAbsent(zoneGUID, id -> new ArrayList<PendingCommand>()).add(command);
+        continue;
+      }
+      run(command);
+    }
+    if (refreshNeeded) {
+      MapTool.getFrame().refresh();
+    }
+  }
+
+  /**
+   * Run a model update, logging its errors so that the rest of the batch still runs.
+   *
+   * @param command the command to run
+   */
+  private void run(PendingCommand command) {
+    try {
+      command.update.run();
+    } catch (RuntimeException e) {
+      log.error("Error handling " + command.cmd, e);
+    }
+  }
+
+  /**
+   * @param command the command received
+   * @return the id of the zone the content of which the command changes, if only the header of the
+   *     zone was received yet, otherwise null
+   */
+  @SuppressWarnings("unchecked")
+  private static GUID getPendingZone(PendingCommand command) {
+    GUID zoneGUID;
+    if (command.cmd == ClientCommand.COMMAND.startTokenMove) {
+      zoneGUID = (GUID) command.parameters[1];
+    } else if (command.cmd == ClientCommand.COMMAND.updateTokenMoves) {
+      // Split by zone in coalesce()
+      zoneGUID = ((List<TokenMove>) command.parameters[0]).get(0).getZoneGUID();
+    } else if (zoneContentCommands.contains(command.cmd)) {
+      zoneGUID = (GUID) command.parameters[0];
+    } else {
+      return null;
+    }
+    return MapTool.getZoneFetcher().isPending(zoneGUID) ? zoneGUID : null;
+  }
+
+  /**
+   * Put a zone received from the server in the campaign, and run again the commands held for it.
+   * Must be on the EDT.
+   *
+   * @param zone the zone
+   */
+  private void putZone(Zone zone) {
+    MapTool.getCampaign().putZone(zone);
+    MapTool.getZoneFetcher().zoneReceived(zone.getId());
+
+    // TODO: combine this with MapTool.addZone()
+    ZoneRenderer renderer = ZoneRendererFactory.newRenderer(zone);
+    ZoneRenderer oldRenderer = MapTool.getFrame().getZoneRenderer(zone.getId());
+    if (oldRenderer != null) {
+      MapTool.getFrame().replaceZoneRenderer(oldRenderer, renderer);
+    } else {
+      MapTool.getFrame().addZoneRenderer(renderer);
+      if (MapTool.getFrame().getCurrentZoneRenderer() == null && zone.isVisible()) {
+        MapTool.getFrame().setCurrentZoneRenderer(renderer);
+      }
+    }
+    MapTool.getEventDispatcher()
+        .fireEvent(MapTool.ZoneEvent.Added, MapTool.getCampaign(), null, zone);
+
+    List<PendingCommand> held = heldCommands.remove(zone.getId());
+    if (held != null) {
+      for (PendingCommand command : held) {
+        run(command);
+      }
+    }
+  }
+
+  /**
+   * Put a zone in the campaign ahead of the command carrying it, for a macro reading it on the EDT,
+   * see {@link ZoneFetcher#fetchForMacro(GUID)}.
+   *
+   * @param zone the zone received
+   */
+  private void installZone(Zone zone) {
+    boolean batchRefreshNeeded = refreshNeeded;
+    refreshNeeded = false;
+    putZone(zone);
+    if (refreshNeeded) {
+      MapTool.getFrame().refresh();
+    }
+    refreshNeeded = batchRefreshNeeded;
+  }
+
+  /** Repaint the current zone once the batch of commands is run. */
+  private void requestRefresh() {
+    refreshNeeded = true;
+  }
+
+  /**
+   * Remove the updates made redundant by later ones in the same batch, put the consecutive tokens
+   * of a zone together, and split the moves of an updateTokenMoves by zone.
+   *
+   * <p>A move of an updateTokenMove or updateTokenMoves is dropped if the same token moves again
+   * later, and a putToken if the same token is put again later, as long as nothing else in between
+   * depends on it. The moves of a token depend on its position, so they keep the puts of the token
+   * before them. Each zone gets its own updateTokenMoves, so that the moves for a zone only the
+   * header of which was received yet are held on their own.
+   *
+   * @param batch the commands in the order received
+   * @return the commands to run, in order
+   */
+  @SuppressWarnings("unchecked")
+  private List<PendingCommand> coalesce(List<PendingCommand> batch) {
+    if (batch.size() == 1 && batch.get(0).cmd != ClientCommand.COMMAND.updateTokenMoves) {
+      return batch;
+    }
+    // Going backward, so that the last update of each token is the one kept
+    Set<GUID> movedTokens = new HashSet<GUID>();
+    Set<List<GUID>> putTokens = new HashSet<List<GUID>>();
+    boolean[] dropped = new boolean[batch.size()];
+    Map<Integer, List<TokenMove>> keptMoves = new HashMap<Integer, List<TokenMove>>();
+    for (int i = batch.size() - 1; i >= 0; i--) {
+      PendingCommand command = batch.get(i);
+      Object[] parameters = command.parameters;
+      switch (command.cmd) {
+        case updateTokenMove:
+          dropped[i] = !movedTokens.add((GUID) parameters[1]);
+          putTokens.remove(Arrays.asList(parameters[0], parameters[1]));
+          break;
+        case startTokenMove:
+          movedTokens.remove(parameters[2]);
+          putTokens.remove(Arrays.asList(parameters[1], parameters[2]));
+          for (GUID tokenGUID : (Set<GUID>) parameters[3]) {
+            putTokens.remove(Arrays.asList(parameters[1], tokenGUID));
+          }
+          break;
+        case stopTokenMove:
+        case toggleTokenMoveWaypoint:
+          movedTokens.remove(parameters[1]);
+          putTokens.remove(Arrays.asList(parameters[0], parameters[1]));
+          break;
+        case updateTokenMoves:
+          List<TokenMove> moves = (List<TokenMove>) parameters[0];
+          List<TokenMove> kept = new ArrayList<TokenMove>(moves.size());
+          for (int k = moves.size() - 1; k >= 0; k--) {
+            TokenMove move = moves.get(k);
+            if (movedTokens.add(move.getTokenGUID())) {
+              kept.add(move);
+            }
+            putTokens.remove(Arrays.asList(move.getZoneGUID(), move.getTokenGUID()));
+          }
+          Collections.reverse(kept);
+          keptMoves.put(i, kept);
+          dropped[i] = kept.isEmpty();
+          break;
+        case putToken:
+          dropped[i] =
+              !putTokens.add(Arrays.asList((GUID) parameters[0], ((Token) parameters[1]).getId()));
+          break;
+        case editToken:
+          putTokens.remove(Arrays.asList(parameters[0], ((Token) parameters[1]).getId()));
+          break;
+        case putTokenDelta:
+          // The delta is applied to the token as put before it
+          putTokens.remove(Arrays.asList(parameters[0], ((TokenDelta) parameters[1]).getTokenId()));
+          break;
+        case updateTokenProperty:
+        case removeToken:
+        case setTokenLocation:
+        case updateTokenInitiative:
+        case updateExposedAreaMeta:
+          putTokens.remove(Arrays.asList(parameters[0], parameters[1]));
+          break;
+        default:
+          if (!independentCommands.contains(command.cmd)) {
+            putTokens.clear();
+          }
+      }
+    }
+
+    List<PendingCommand> commands = new ArrayList<PendingCommand>(batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      if (dropped[i]) {
+        continue;
+      }
+      PendingCommand command = batch.get(i);
+      if (command.cmd == ClientCommand.COMMAND.updateTokenMoves) {
+        Map<GUID, List<TokenMove>> zoneMoves = new LinkedHashMap<GUID, List<TokenMove>>();
+        for (TokenMove move : keptMoves.get(i)) {
+          zoneMoves.computeIfAbsent(move.getZoneGUID(), id -> new ArrayList<TokenMove>()).add(move);
+        }
+        for (List<TokenMove> moves : zoneMoves.values()) {
+          commands.add(
+              new PendingCommand(command.cmd, new Object[] {moves}, () -> updateTokenMoves(moves)));
+        }
+        continue;
+      }
+      if (command.cmd != ClientCommand.COMMAND.putToken) {
+        commands.add(command);
+        continue;
+      }
+      // Put the following tokens of the same zone at once
+      GUID zoneGUID = (GUID) command.parameters[0];
+      List<Token> tokens = new ArrayList<Token>();
+      int j = i;
+      for (; j < batch.size(); j++) {
+        PendingCommand next = batch.get(j);
+        if (dropped[j]) {
+          continue;
+        }
+        if (next.cmd != ClientCommand.COMMAND.putToken || !zoneGUID.equals(next.parameters[0])) {
+          break;
+        }
+        tokens.add((Token) next.parameters[1]);
+      }
+      if (tokens.size() == 1) {
+        commands.add(command);
+      } else {
+        commands.add(
+            new PendingCommand(
+                command.cmd,
+                command.parameters,
+                () -> {
+                  Zone zone = MapTool.getCampaign().getZone(zoneGUID);
+                  if (zone != null) {
+                    zone.putTokens(tokens);
+                  }
+                  requestRefresh();
+                }));
+      }
+      i = j - 1;
+    }
+    return commands;
+  }
+
+  /**
+   * Show where the tokens being moved by other players are.
+   *
+   * @param moves the last position of each token moved
+   */
+  private static void updateTokenMoves(List<TokenMove> moves) {
+    for (TokenMove move : moves) {
+      ZoneRenderer renderer = MapTool.getFrame().getZoneRenderer(move.getZoneGUID());
+      renderer.updateMoveSelectionSet(move.getTokenGUID(), new ZonePoint(move.getX(), move.getY()));
+    }
+  }
+
+  /** A command received from the server, waiting to be run on the EDT. */
+  private static class PendingCommand {
+    private final ClientCommand.COMMAND cmd;
+    private final Object[] parameters;
+    private final Runnable update;
+
+    PendingCommand(ClientCommand.COMMAND cmd, Object[] parameters, Runnable update) {
+      this.cmd = cmd;
+      this.parameters = parameters;
+      this.update = update;
+    }
+  }
+
+  /**
+   * Tell the server which assets of the campaign are in our cache, so that it sends all the others
+   * at once, instead of waiting for each of them to be needed. Assets left partially downloaded by
+   * an interrupted connection are resumed.
+   *
+   * @param assetIds the assets of the campaign on the server
+   */
+  private static void syncAssets(Set<MD5Key> assetIds) {
+    Set<MD5Key> cachedAssetIds = new HashSet<MD5Key>();
+    Map<MD5Key, Long> partialAssets = new HashMap<MD5Key, Long>();
+    for (MD5Key assetId : assetIds) {
+      if (assetId == null) {
+        continue;
+      }
+      if (AssetManager.hasAsset(assetId)) {
+        cachedAssetIds.add(assetId);
+      } else {
+        long partialSize = AssetConsumer.getPartialSize(AppUtil.getTmpDir(), assetId);
+        if (partialSize > 0) {
+          partialAssets.put(assetId, partialSize);
+        }
+      }
+    }
+    ZoneRenderer renderer = MapTool.getFrame().getCurrentZoneRenderer();
+    GUID zoneId = renderer != null ? renderer.getZone().getId() : null;
+    MapTool.serverCommand().syncAssets(cachedAssetIds, partialAssets, zoneId);
+  }
 }
@@ -0,0 +1,101 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client;
+
+import net.rptools.common.expression.ExpressionParser;
+import net.rptools.parser.VariableResolver;
+
+/**
+ * Pool of the {@link ExpressionParser}s of a thread, with the MapTool functions already added.
+ *
+ * <p>A parser is bound to the variable resolver it was created with, and the functions get the
+ * resolver from the parser. The pool keeps the idle parsers of the resolvers used last, as the
+ * expressions of a line or macro all share the same resolver. A parser is taken out of the pool
+ * while it evaluates, so that an expression evaluated from within a function gets its own parser.
+ */
+class ExpressionParserPool {
+
+  /** The number of idle parsers kept by each thread. */
+  private static final int MAX_IDLE = 8;
+
+  private static final ThreadLocal<ExpressionParserPool> pools =
+      ThreadLocal.withInitial(ExpressionParserPool::new);
+
+  /** The idle parsers, the most recently released first. */
+  private final ExpressionParser[] parsers = new ExpressionParser[MAX_IDLE];
+
+  /** The resolvers of the idle parsers. */
+  private final VariableResolver[] resolvers = new VariableResolver[MAX_IDLE];
+
+  private int size;
+
+  private ExpressionParserPool() {}
+
+  /** @return the pool of the current thread */
+  static ExpressionParserPool get() {
+    return pools.get();
+  }
+
+  /**
+   * Take a parser out of the pool, creating it if there is no idle one for the resolver.
+   *
+   * @param resolver the variable resolver of the parser
+   * @return the parser. Must be given back with {@link #release}.
+   */
+  ExpressionParser acquire(VariableResolver resolver) {
+    for (int i = 0; i < size; i++) {
+      if (resolvers[i] == resolver) {
+        ExpressionParser parser = parsers[i];
+        removeAt(i);
+        return parser;
+      }
+    }
+    return MapToolLineParser.createParser(resolver, false);
+  }
+
+  /**
+   * Give back a parser, dropping the least recently released one if the pool is full.
+   *
+   * @param resolver the variable resolver of the parser
+   * @param parser the parser
+   */
+  void release(VariableResolver resolver, ExpressionParser parser) {
+    if (size == MAX_IDLE) {
+      size--;
+    }
+    System.arraycopy(parsers, 0, parsers, 1, size);
+    System.arraycopy(resolvers, 0, resolvers, 1, size);
+    parsers[0] = parser;
+    resolvers[0] = resolver;
+    size++;
+  }
+
+  /** Drop all the idle parsers, and the resolvers they hold. */
+  void clear() {
+    for (int i = 0; i < size; i++) {
+      parsers[i] = null;
+      resolvers[i] = null;
+    }
+    size = 0;
+  }
+
+  private void removeAt(int i) {
+    size--;
+    System.arraycopy(parsers, i + 1, parsers, i, size - i);
+    System.arraycopy(resolvers, i + 1, resolvers, i, size - i);
+    parsers[size] = null;
+    resolvers[size] = null;
+  }
+}
@@ -175,6 +175,7 @@ public enum PreferencesEvent {
 
   private static BackupManager backupManager;
   private static AssetTransferManager assetTransferManager;
+  private static final ZoneFetcher zoneFetcher = new ZoneFetcher();
   private static ServiceAnnouncer announcer;
   private static AutoSaveManager autoSaveManager;
   private static TaskBarFlasher taskbarFlasher;
@@ -964,6 +965,7 @@ public static void setCampaign(Campaign campaign, GUID defaultRendererId) {
     // Load up the new
     MapTool.campaign = campaign;
     ZoneRenderer currRenderer = null;
+    zoneFetcher.clear();
 
     // Clean up
     clientFrame.clearZoneRendererList();
@@ -1003,6 +1005,11 @@ public static AssetTransferManager getAssetTransferManager() {
     return assetTransferManager;
   }
 
+  /** @return the fetcher of the zones of the campaign not received yet from the server */
+  public static ZoneFetcher getZoneFetcher() {
+    return zoneFetcher;
+  }
+
   /**
    * Start the server from a campaign file and various settings.
    *
@@ -1161,6 +1168,8 @@ public static void createConnection(String host, int port, LocalPlayer player)
       throws IOException {
     MapTool.player = player;
     MapTool.getFrame().getCommandPanel().clearAllIdentities();
+    // Forget the transfers of the previous connection, the server resumes them after the handshake
+    assetTransferManager.flush();
 
     ClientConnection clientConn = new MapToolConnection(host, port, player);
 
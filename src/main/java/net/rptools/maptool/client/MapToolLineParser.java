@@ -16,10 +16,12 @@
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -43,10 +45,12 @@
 import net.rptools.maptool.client.ui.macrobuttons.buttons.MacroButtonPrefs;
 import net.rptools.maptool.client.ui.zone.ZoneRenderer;
 import net.rptools.maptool.language.I18N;
+import net.rptools.maptool.model.LibTokenIndex;
 import net.rptools.maptool.model.MacroButtonProperties;
 import net.rptools.maptool.model.Player;
 import net.rptools.maptool.model.Token;
 import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.util.LruCache;
 import net.rptools.parser.ParserException;
 import net.rptools.parser.VariableResolver;
 import net.rptools.parser.function.Function;
@@ -144,6 +148,20 @@ public class MapToolLineParser {
   /** Stack that holds our contexts. */
   private final Stack<MapToolMacroContext> contextStack = new Stack<MapToolMacroContext>();
 
+  /** The lib: tokens of the open maps, by name. */
+  private final LibTokenIndex libTokenIndex = new LibTokenIndex();
+
+  /** The number of lines and of roll options kept already parsed. */
+  private static final int COMPILED_CACHE_SIZE = 512;
+
+  /** The inline rolls of the lines parsed last, by line. */
+  private final LruCache<String, List<InlineRollMatch>> compiledLines =
+      new LruCache<String, List<InlineRollMatch>>(COMPILED_CACHE_SIZE);
+
+  /** The roll options parsed last, by option string. */
+  private final LruCache<String, List<OptionInfo>> compiledOptions =
+      new LruCache<String, List<OptionInfo>>(COMPILED_CACHE_SIZE);
+
   /** Was every context we entered during the macro trusted. */
   private volatile boolean macroPathTrusted = false;
 
@@ -685,6 +703,22 @@ public RollOptionException(String msg) {
   private List<OptionInfo> getRollOptionList(String optionString) throws RollOptionException {
     if (optionString == null) return null;
 
+    List<OptionInfo> list = compiledOptions.get(optionString);
+    if (list == null) {
+      list = Collections.unmodifiableList(parseRollOptionList(optionString));
+      compiledOptions.put(optionString, list);
+    }
+    return list;
+  }
+
+  /**
+   * Parses a string of options into OptionInfo objects, without going through the cache.
+   *
+   * @param optionString A string containing a comma-delimited list of roll options.
+   * @throws RollOptionException if any of the options are unknown or don't match the template for
+   *     that option type.
+   */
+  private List<OptionInfo> parseRollOptionList(String optionString) throws RollOptionException {
     List<OptionInfo> list = new ArrayList<OptionInfo>();
     optionString = optionString.trim();
     int start = 0;
@@ -765,7 +799,11 @@ public String parseLine(
       resolverInitialized = resolver.initialize();
       StringBuilder builder = new StringBuilder();
       int start = 0;
-      List<InlineRollMatch> matches = this.locateInlineRolls(line);
+      List<InlineRollMatch> matches = compiledLines.get(line);
+      if (matches == null) {
+        matches = Collections.unmodifiableList(locateInlineRolls(line));
+        compiledLines.put(line, matches);
+      }
 
       for (InlineRollMatch match : matches) {
         builder.append(line.substring(start, match.getStart())); // add everything before the roll
@@ -1509,6 +1547,8 @@ public String parseLine(
       // updated a token.
       if (contextStackEmpty()) {
         HTMLFrameFactory.tokenChanged(tokenInContext);
+        // Don't hold on to the resolvers of the macro
+        ExpressionParserPool.get().clear();
       }
       MapTool.getFrame().refresh(); // Repaint incase macros changed anything.
     }
@@ -1529,6 +1569,8 @@ public Result parseExpression(VariableResolver resolver, Token tokenInContext, S
       macroRecurseDepth = 0;
       throw new ParserException(I18N.getText("lineParser.maxRecursion"));
     }
+    ExpressionParserPool parserPool = ExpressionParserPool.get();
+    ExpressionParser parser = parserPool.acquire(resolver);
     try {
       parserRecurseDepth++;
       if (log.isDebugEnabled()) {
@@ -1539,7 +1581,7 @@ public Result parseExpression(VariableResolver resolver, Token tokenInContext, S
         b.append(expression);
         log.debug(b.toString());
       }
-      Result res = createParser(resolver, tokenInContext != null).evaluate(expression);
+      Result res = parser.evaluate(expression);
       rolled.addAll(res.getRolled());
       newRolls.addAll(res.getRolled());
 
@@ -1581,6 +1623,7 @@ public Result parseExpression(VariableResolver resolver, Token tokenInContext, S
           I18N.getText("lineParser.errorExecutingExpression", e.toString(), expression));
     } finally {
       parserRecurseDepth--;
+      parserPool.release(resolver, parser);
     }
   }
 
@@ -1911,39 +1954,8 @@ public String getTokenLibMacro(String macro, String location) throws ParserExcep
    *     the caller doesn't have access to the token.
    */
   public Token getTokenMacroLib(String location) throws ParserException {
-    if (!location.matches("(?i)^lib:.*")) {
-      throw new ParserException(I18N.getText("lineParser.notALibToken"));
-    }
-    final String libTokenName = location;
-    Token libToken = null;
-    if (libTokenName != null && libTokenName.length() > 0) {
-      List<ZoneRenderer> zrenderers = MapTool.getFrame().getZoneRenderers();
-      for (ZoneRenderer zr : zrenderers) {
-        List<Token> tokenList =
-            zr.getZone()
-                .getTokensFiltered(
-                    new Zone.Filter() {
-                      public boolean matchToken(Token t) {
-                        return t.getName().equalsIgnoreCase(libTokenName);
-                      }
-                    });
-
-        for (Token token : tokenList) {
-          // If we are not the GM and the token is not visible to players then we don't
-          // let them get functions from it.
-          if (!MapTool.getPlayer().isGM() && !token.isVisible()) {
-            throw new ParserException(I18N.getText("lineParser.libUnableToExec", libTokenName));
-          }
-          if (libToken != null) {
-            throw new ParserException(I18N.getText("lineParser.duplicateLibTokens", libTokenName));
-          }
-
-          libToken = token;
-        }
-      }
-      return libToken;
-    }
-    return null;
+    LibTokenIndex.Entry entry = findLibToken(location);
+    return entry != null ? entry.getToken() : null;
   }
 
   /**
@@ -1955,40 +1967,40 @@ public boolean matchToken(Token t) {
    *     the caller doesn't have access to the token.
    */
   public Zone getTokenMacroLibZone(String location) throws ParserException {
-    if (!location.matches("(?i)^lib:.*")) {
+    LibTokenIndex.Entry entry = findLibToken(location);
+    return entry != null ? entry.getZone() : null;
+  }
+
+  /**
+   * Looks up a lib: token in the index of all maps.
+   *
+   * @param location the name of the lib: token.
+   * @return the token and its zone, or null if not found.
+   * @throws ParserException if the token name is illegal, the token appears multiple times, or if
+   *     the caller doesn't have access to the token.
+   */
+  private LibTokenIndex.Entry findLibToken(String location) throws ParserException {
+    if (!LibTokenIndex.isLibTokenName(location)) {
       throw new ParserException(I18N.getText("lineParser.notALibToken"));
     }
-    final String libTokenName = location;
-    Zone libTokenZone = null;
-    if (libTokenName != null && libTokenName.length() > 0) {
-      List<ZoneRenderer> zrenderers = MapTool.getFrame().getZoneRenderers();
-      for (ZoneRenderer zr : zrenderers) {
-        List<Token> tokenList =
-            zr.getZone()
-                .getTokensFiltered(
-                    new Zone.Filter() {
-                      public boolean matchToken(Token t) {
-                        return t.getName().equalsIgnoreCase(libTokenName);
-                      }
-                    });
-
-        for (Token token : tokenList) {
-          // If we are not the GM and the token is not visible to players then we don't
-          // let them get functions from it.
-          if (!MapTool.getPlayer().isGM() && !token.isVisible()) {
-            throw new ParserException(I18N.getText("lineParser.libUnableToExec", libTokenName));
-          }
-
-          if (libTokenZone != null) {
-            throw new ParserException(I18N.getText("lineParser.duplicateLibTokens", libTokenName));
-          }
-
-          libTokenZone = zr.getZone();
-        }
+    List<ZoneRenderer> zrenderers = MapTool.getFrame().getZoneRenderers();
+    List<Zone> zones = new ArrayList<Zone>(zrenderers.size());
+    for (ZoneRenderer zr : zrenderers) {
+      zones.add(zr.getZone());
+    }
+    LibTokenIndex.Entry libToken = null;
+    for (LibTokenIndex.Entry entry : libTokenIndex.getLibTokens(zones, location)) {
+      // If we are not the GM and the token is not visible to players then we don't
+      // let them get functions from it.
+      if (!MapTool.getPlayer().isGM() && !entry.getToken().isVisible()) {
+        throw new ParserException(I18N.getText("lineParser.libUnableToExec", location));
+      }
+      if (libToken != null) {
+        throw new ParserException(I18N.getText("lineParser.duplicateLibTokens", location));
       }
-      return libTokenZone;
+      libToken = entry;
     }
-    return null;
+    return libToken;
   }
 
   /**
@@ -2026,6 +2038,27 @@ String errorString(String msg, String opts, String roll) {
     return retval;
   }
 
+  /**
+   * Gets the statistics of the caches of parsed lines and roll options.
+   *
+   * @return the number of hits, misses and entries of each cache.
+   */
+  public JsonObject getCompiledCacheStatistics() {
+    JsonObject stats = new JsonObject();
+    stats.add("lines", getCacheStatistics(compiledLines));
+    stats.add("roll options", getCacheStatistics(compiledOptions));
+    return stats;
+  }
+
+  private static JsonObject getCacheStatistics(LruCache<?, ?> cache) {
+    JsonObject stats = new JsonObject();
+    stats.addProperty("hits", cache.getHitCount());
+    stats.addProperty("misses", cache.getMissCount());
+    stats.addProperty("hit rate", cache.getHitRate());
+    stats.addProperty("size", cache.size());
+    return stats;
+  }
+
   public static ExpressionParser createParser(
       VariableResolver resolver, boolean hasTokenInContext) {
     ExpressionParser parser = new ExpressionParser(resolver);
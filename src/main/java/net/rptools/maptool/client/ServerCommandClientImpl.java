@@ -16,6 +16,7 @@
 
 import java.awt.geom.Area;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.LinkedBlockingQueue;
 import net.rptools.lib.MD5Key;
@@ -33,6 +34,7 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.TopologyMode;
 import net.rptools.maptool.model.Zone.VisionType;
@@ -43,6 +45,7 @@
 import net.rptools.maptool.server.ServerCommand;
 import net.rptools.maptool.server.ServerMethodHandler;
 import net.rptools.maptool.server.ServerPolicy;
+import net.rptools.maptool.util.AreaCodec;
 
 /**
  * This class is used by a client to send commands to the server. The methods of this class are
@@ -118,6 +121,11 @@ public void getAsset(MD5Key assetID) {
     makeServerCall(COMMAND.getAsset, assetID);
   }
 
+  public void syncAssets(
+      Set<MD5Key> cachedAssetIDs, Map<MD5Key, Long> partialAssets, GUID zoneGUID) {
+    makeServerCall(COMMAND.syncAssets, cachedAssetIDs, partialAssets, zoneGUID);
+  }
+
   public void removeAsset(MD5Key assetID) {
     makeServerCall(COMMAND.removeAsset, assetID);
   }
@@ -133,14 +141,34 @@ public void restoreZoneView(GUID zoneGUID) {
   public void editToken(GUID zoneGUID, Token token) {
     MapTool.getCampaign().getZone(zoneGUID).editToken(token);
     makeServerCall(COMMAND.editToken, zoneGUID, token);
+    TokenDelta.setSent(token);
   }
 
+  /**
+   * Send a token to the server. If the others already have the token, only the fields changed since
+   * it was last sent are sent.
+   *
+   * @param zoneGUID the id of the zone of the token
+   * @param token the token
+   */
   public void putToken(GUID zoneGUID, Token token) {
+    Zone zone = MapTool.getCampaign().getZone(zoneGUID);
+    TokenDelta delta = zone.getToken(token.getId()) == token ? TokenDelta.diff(token) : null;
+
     // Hack to generate zone event. All functions that update tokens call this method
     // after changing the token. But they don't tell the zone about it so classes
     // waiting for the zone change event don't get it.
-    MapTool.getCampaign().getZone(zoneGUID).putToken(token);
-    makeServerCall(COMMAND.putToken, zoneGUID, token);
+    zone.putToken(token);
+    if (delta == null) {
+      makeServerCall(COMMAND.putToken, zoneGUID, token);
+      TokenDelta.setSent(token);
+    } else if (!delta.isEmpty()) {
+      putTokenDelta(zoneGUID, delta);
+    }
+  }
+
+  public void putTokenDelta(GUID zoneGUID, TokenDelta delta) {
+    makeServerCall(COMMAND.putTokenDelta, zoneGUID, delta);
   }
 
   @Override
@@ -168,6 +196,11 @@ public void removeTokens(GUID zoneGUID, List<GUID> tokenGUIDs) {
    */
   public void updateTokenProperty(
       GUID zoneGUID, GUID tokenGUID, Token.Update update, Object[] parameters) {
+    // The others won't have the fields as last sent any more
+    Zone zone = MapTool.getCampaign().getZone(zoneGUID);
+    if (zone != null) {
+      TokenDelta.clearSent(zone.getToken(tokenGUID));
+    }
     makeServerCall(COMMAND.updateTokenProperty, zoneGUID, tokenGUID, update, parameters);
   }
 
@@ -278,11 +311,11 @@ public void toggleTokenMoveWaypoint(GUID zoneGUID, GUID tokenGUID, ZonePoint cp)
   }
 
   public void addTopology(GUID zoneGUID, Area area, TopologyMode topologyMode) {
-    makeServerCall(COMMAND.addTopology, zoneGUID, area, topologyMode);
+    makeServerCall(COMMAND.addTopology, zoneGUID, AreaCodec.encode(area), topologyMode);
   }
 
   public void removeTopology(GUID zoneGUID, Area area, TopologyMode topologyMode) {
-    makeServerCall(COMMAND.removeTopology, zoneGUID, area, topologyMode);
+    makeServerCall(COMMAND.removeTopology, zoneGUID, AreaCodec.encode(area), topologyMode);
   }
 
   public void exposePCArea(GUID zoneGUID) {
@@ -290,15 +323,15 @@ public void exposePCArea(GUID zoneGUID) {
   }
 
   public void exposeFoW(GUID zoneGUID, Area area, Set<GUID> selectedToks) {
-    makeServerCall(COMMAND.exposeFoW, zoneGUID, area, selectedToks);
+    makeServerCall(COMMAND.exposeFoW, zoneGUID, AreaCodec.encode(area), selectedToks);
   }
 
   public void setFoW(GUID zoneGUID, Area area, Set<GUID> selectedToks) {
-    makeServerCall(COMMAND.setFoW, zoneGUID, area, selectedToks);
+    makeServerCall(COMMAND.setFoW, zoneGUID, AreaCodec.encode(area), selectedToks);
   }
 
   public void hideFoW(GUID zoneGUID, Area area, Set<GUID> selectedToks) {
-    makeServerCall(COMMAND.hideFoW, zoneGUID, area, selectedToks);
+    makeServerCall(COMMAND.hideFoW, zoneGUID, AreaCodec.encode(area), selectedToks);
   }
 
   public void setZoneHasFoW(GUID zoneGUID, boolean hasFog) {
@@ -373,7 +406,11 @@ public void setBoard(GUID zoneGUID, MD5Key mapAssetId, int x, int y) {
    */
   public void updateExposedAreaMeta(
       GUID zoneGUID, GUID tokenExposedAreaGUID, ExposedAreaMetaData meta) {
-    makeServerCall(COMMAND.updateExposedAreaMeta, zoneGUID, tokenExposedAreaGUID, meta);
+    makeServerCall(
+        COMMAND.updateExposedAreaMeta,
+        zoneGUID,
+        tokenExposedAreaGUID,
+        AreaCodec.encode(meta.getExposedAreaHistory()));
   }
 
   /**
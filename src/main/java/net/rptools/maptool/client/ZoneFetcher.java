@@ -0,0 +1,181 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+import net.rptools.maptool.client.ui.zone.ZoneRenderer;
+import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.Zone;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Fetches from the server the zones only the headers of which were sent to the client when it
+ * joined, see {@link Campaign#createHeader(Set)}. The zones are fetched one at a time in the
+ * background, in the order given by the server, and a zone is fetched right away when it is shown.
+ *
+ * <p>The commands changing the content of a zone still to be fetched are held, and run again once
+ * the zone is received, as the zone may have been sent without their changes. A zone a macro reads
+ * is fetched ahead of the others, see {@link #fetchForMacro(GUID)}.
+ */
+public class ZoneFetcher {
+  private static final Logger log = LogManager.getLogger(ZoneFetcher.class);
+
+  /** How long a macro off the EDT waits for a zone, before it goes on with the header. */
+  private static final long FETCH_TIMEOUT_MILLIS = 10_000;
+
+  /** The zones still to be received, in the order to fetch them. */
+  private final Set<GUID> pendingZoneIds = new LinkedHashSet<GUID>();
+
+  /** The zones asked to the server, not yet received. */
+  private final Set<GUID> requestedZoneIds = new HashSet<GUID>();
+
+  /** The zones which arrived from the server, not yet put in the campaign on the EDT. */
+  private final Map<GUID, Zone> arrivedZones = new LinkedHashMap<GUID, Zone>();
+
+  /** Puts a zone received in the campaign, and runs the commands held for it. */
+  private Consumer<Zone> installer;
+
+  /**
+   * Start fetching zones, the current one first.
+   *
+   * @param zoneIds the ids of the zones only the headers of which were received
+   * @param installer puts a zone received in the campaign, on the EDT
+   */
+  public synchronized void fetch(Collection<GUID> zoneIds, Consumer<Zone> installer) {
+    this.installer = installer;
+    pendingZoneIds.addAll(zoneIds);
+    ZoneRenderer renderer = MapTool.getFrame().getCurrentZoneRenderer();
+    if (renderer != null) {
+      fetchNow(renderer.getZone().getId());
+    }
+    requestNext();
+  }
+
+  /**
+   * Fetch a zone ahead of the others, as it is shown. Does nothing if the zone is already received.
+   *
+   * @param zoneId the id of the zone
+   */
+  public synchronized void fetchNow(GUID zoneId) {
+    if (pendingZoneIds.contains(zoneId) && requestedZoneIds.add(zoneId)) {
+      MapTool.serverCommand().getZone(zoneId);
+    }
+  }
+
+  /**
+   * Fetch a zone right away, as a macro reads it while only its header was received. The EDT is
+   * never blocked: there the zone is put in the campaign if it already arrived, otherwise the macro
+   * goes on with the header and the zone follows. Other threads wait for the zone a while.
+   *
+   * @param zoneId the id of the zone
+   */
+  public void fetchForMacro(GUID zoneId) {
+    Zone zone;
+    synchronized (this) {
+      if (!pendingZoneIds.contains(zoneId)) {
+        return;
+      }
+      fetchNow(zoneId);
+      if (!SwingUtilities.isEventDispatchThread()) {
+        long deadline = System.currentTimeMillis() + FETCH_TIMEOUT_MILLIS;
+        while (pendingZoneIds.contains(zoneId)) {
+          long timeout = deadline - System.currentTimeMillis();
+          if (timeout <= 0) {
+            log.warn("Gave up waiting for the zone " + zoneId);
+            return;
+          }
+          try {
+            wait(timeout);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+        }
+        return;
+      }
+      zone = arrivedZones.remove(zoneId);
+    }
+    if (zone != null) {
+      // Without the lock, as putting the zone runs the commands held for it
+      installer.accept(zone);
+    }
+  }
+
+  /**
+   * Take note of a zone arriving from the server, before the command putting it is run on the EDT.
+   * To be called from the thread receiving the commands.
+   *
+   * @param zone the zone received
+   */
+  public synchronized void zoneArrived(Zone zone) {
+    if (pendingZoneIds.contains(zone.getId())) {
+      arrivedZones.put(zone.getId(), zone);
+      notifyAll();
+    }
+  }
+
+  /**
+   * Record that a zone was received whole, or removed, and fetch the next one.
+   *
+   * @param zoneId the id of the zone
+   */
+  public synchronized void zoneReceived(GUID zoneId) {
+    arrivedZones.remove(zoneId);
+    if (pendingZoneIds.remove(zoneId)) {
+      requestedZoneIds.remove(zoneId);
+      requestNext();
+      notifyAll();
+    }
+  }
+
+  /**
+   * @param zoneId the id of the zone
+   * @return true if only the header of the zone was received yet
+   */
+  public synchronized boolean isPending(GUID zoneId) {
+    return pendingZoneIds.contains(zoneId);
+  }
+
+  /** @return true if some zones are still to be received */
+  public synchronized boolean isFetching() {
+    return !pendingZoneIds.isEmpty();
+  }
+
+  /** Stop fetching, as the campaign is replaced. */
+  public synchronized void clear() {
+    pendingZoneIds.clear();
+    requestedZoneIds.clear();
+    arrivedZones.clear();
+    notifyAll();
+  }
+
+  /** Ask for the next zone, unless one is already on the way. */
+  private void requestNext() {
+    if (requestedZoneIds.isEmpty() && !pendingZoneIds.isEmpty()) {
+      GUID zoneId = pendingZoneIds.iterator().next();
+      requestedZoneIds.add(zoneId);
+      MapTool.serverCommand().getZone(zoneId);
+    }
+  }
+}
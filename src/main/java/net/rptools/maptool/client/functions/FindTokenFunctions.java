@@ -592,6 +592,25 @@ private static Object getTokenList(
       if (range.has("metric")) {
         metric = range.get("metric").getAsString();
       }
+      if (upto >= 0 && upto != Integer.MAX_VALUE) {
+        // Use the spatial index to discard the tokens that are too far away to possibly be in
+        // range before computing any distance
+        Grid grid = zone.getGrid();
+        double cells = useDistancePerCell ? upto / zone.getUnitsPerCell() : upto;
+        double cellSize =
+            Math.max(grid.getSize(), Math.max(grid.getCellWidth(), grid.getCellHeight()));
+        Rectangle searchArea = token.getBounds(zone);
+        searchArea.add(
+            token
+                .getFootprint(grid)
+                .getBounds(grid, grid.convert(new ZonePoint(token.getX(), token.getY()))));
+        int grow =
+            (int) Math.min(Integer.MAX_VALUE / 4, Math.ceil((Math.ceil(cells) + 2) * cellSize));
+        searchArea.grow(grow, grow);
+        Set<Token> candidates = new HashSet<Token>();
+        zone.addTokensInBounds(searchArea, candidates);
+        tokenList.retainAll(candidates);
+      }
       List<Token> inrange = new LinkedList<Token>();
       for (Token targetToken : tokenList) {
         Double distance = instance.getDistance(token, targetToken, useDistancePerCell, metric);
@@ -885,6 +904,7 @@ public static Token findToken(String identifier, String zoneName) {
       for (ZoneRenderer zr : zrenderers) {
         Zone zone = zr.getZone();
         if (zone.getName().equalsIgnoreCase(zoneName)) {
+          zone = fetchZone(zone);
           Token token = zone.resolveToken(identifier);
           if (token != null) {
             return token;
@@ -914,6 +934,7 @@ public static Token findToken(GUID guid, String zoneName) {
       for (ZoneRenderer zr : zrenderers) {
         Zone zone = zr.getZone();
         if (zone.getName().equalsIgnoreCase(zoneName)) {
+          zone = fetchZone(zone);
           Token token = zone.getToken(guid);
           if (token != null) {
             return token;
@@ -924,6 +945,19 @@ public static Token findToken(GUID guid, String zoneName) {
     return null;
   }
 
+  /**
+   * Fetch a zone right away if only its header was received, see {@link
+   * net.rptools.maptool.client.ZoneFetcher#fetchForMacro(GUID)}.
+   *
+   * @param zone the zone
+   * @return the zone in the campaign, whole unless it is still on the way
+   */
+  private static Zone fetchZone(Zone zone) {
+    MapTool.getZoneFetcher().fetchForMacro(zone.getId());
+    Zone fetched = MapTool.getCampaign().getZone(zone.getId());
+    return fetched != null ? fetched : zone;
+  }
+
   /**
    * find a token on all maps (first matching is returned)
    *
@@ -936,7 +970,7 @@ public static Token findToken(final String identifier) {
     if (token == null) {
       final List<ZoneRenderer> zrenderers = MapTool.getFrame().getZoneRenderers();
       for (final ZoneRenderer zr : zrenderers) {
-        final Zone zone = zr.getZone();
+        final Zone zone = fetchZone(zr.getZone());
         token = zone.resolveToken(identifier);
         if (token != null) {
           return token;
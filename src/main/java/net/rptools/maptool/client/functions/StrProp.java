@@ -0,0 +1,280 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.functions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.rptools.maptool.util.LruCache;
+
+/**
+ * A parsed property string, of the form "key1 = value1 ; key2=value2; ...". Property strings are
+ * parsed in a single pass, and the last ones parsed are cached, as macros often look up several
+ * keys of the same string in a row.
+ *
+ * <p>The parsing gives the same result as the regular expressions used before, {@code \s*([\w
+ * .]+\s*=.*?)delim|([\w.]+\s*=.*)} to find the entries and {@code \s*([\w .]+)\s*=\s*(.*)} to split
+ * them, including in their corner cases: an entry without a delimiter after it ends the string at
+ * the next line break, keys can't contain tabs or line breaks, and so on.
+ */
+final class StrProp {
+
+  /** The number of parsed strings kept. */
+  private static final int CACHE_SIZE = 32;
+
+  private static final LruCache<CacheKey, StrProp> cache =
+      new LruCache<CacheKey, StrProp>(CACHE_SIZE);
+
+  /** The keys, as written and in their order. May contain duplicates. */
+  private final List<String> keys;
+
+  /** The keys in upper case, in their order. */
+  private final List<String> normalizedKeys;
+
+  /** The values by upper case key. */
+  private final Map<String, String> values;
+
+  private StrProp(List<String> keys, List<String> normalizedKeys, Map<String, String> values) {
+    this.keys = Collections.unmodifiableList(keys);
+    this.normalizedKeys = Collections.unmodifiableList(normalizedKeys);
+    this.values = Collections.unmodifiableMap(values);
+  }
+
+  /**
+   * Parses a property string, or gets it from the cache.
+   *
+   * @param props has the form "key1=val1 ; key2=val2 ; ..."
+   * @param delim is the setting delimiter to use. An empty one stands for ";".
+   * @return the parsed properties.
+   */
+  static StrProp parse(String props, String delim) {
+    if (delim.isEmpty()) {
+      delim = ";";
+    }
+    CacheKey key = new CacheKey(props, delim);
+    StrProp strProp = cache.get(key);
+    if (strProp == null) {
+      strProp = tokenize(props, delim);
+      cache.put(key, strProp);
+    }
+    return strProp;
+  }
+
+  /** @return the keys, as written and in their order. May contain duplicates. */
+  List<String> getKeys() {
+    return keys;
+  }
+
+  /** @return the keys in upper case, in their order. */
+  List<String> getNormalizedKeys() {
+    return normalizedKeys;
+  }
+
+  /** @return the values by upper case key. */
+  Map<String, String> getValues() {
+    return values;
+  }
+
+  /**
+   * @param normalizedKey the key in upper case
+   * @return the value of the key, or null if not set
+   */
+  String get(String normalizedKey) {
+    return values.get(normalizedKey);
+  }
+
+  /**
+   * Parses a property string, without going through the cache.
+   *
+   * @param s the property string
+   * @param delim the setting delimiter. Must not be empty.
+   * @return the parsed properties.
+   */
+  static StrProp tokenize(String s, String delim) {
+    List<String> keys = new ArrayList<String>();
+    List<String> normalizedKeys = new ArrayList<String>();
+    Map<String, String> values = new HashMap<String, String>();
+
+    int length = s.length();
+    int pos = 0;
+    // The first delimiter at or after the value being parsed, -1 if there is none. The values only
+    // move forward, so the string is searched once for the delimiters.
+    int nextDelim = 0;
+    scan:
+    while (pos < length) {
+      // An entry starts in a run of key characters and spaces followed by "="
+      int start = pos;
+      while (start < length && !isKeyOrSpace(s.charAt(start))) {
+        start++;
+      }
+      int equals = start;
+      while (equals < length && isKeyOrSpace(s.charAt(equals))) {
+        equals++;
+      }
+      if (equals == length || s.charAt(equals) != '=') {
+        pos = equals;
+        continue;
+      }
+
+      // The key characters must all be together, only spaces may be in between
+      int lastKey = -1;
+      int lastSpace = -1;
+      for (int i = start; i < equals; i++) {
+        char c = s.charAt(i);
+        if (isKey(c)) {
+          lastKey = i;
+        } else if (c == ' ') {
+          lastSpace = i;
+        }
+      }
+      int lastBlank = -1; // last whitespace other than a space before the last key character
+      int lastNonKey = -1; // last character which isn't a key character before it
+      for (int i = start; i < lastKey; i++) {
+        char c = s.charAt(i);
+        if (!isKey(c)) {
+          lastNonKey = i;
+          if (c != ' ') {
+            lastBlank = i;
+          }
+        }
+      }
+
+      // The value goes to the delimiter, if there is one before the end of the line
+      int valueStart = equals + 1;
+      if (nextDelim >= 0 && nextDelim < valueStart) {
+        nextDelim = s.indexOf(delim, valueStart);
+      }
+      int delimStart = nextDelim;
+      int lineEnd = lineEnd(s, valueStart, delimStart >= 0 ? delimStart : length);
+      if (delimStart >= 0 && lineEnd < delimStart) {
+        delimStart = -1;
+      }
+
+      int firstKey = start;
+      for (int p = start; p < equals; p++) {
+        // An entry followed by the delimiter, its leading whitespace skipped
+        if (delimStart >= 0) {
+          int keyStart = -1;
+          if (p <= lastKey) {
+            while (!isKey(s.charAt(firstKey)) || firstKey < p) {
+              firstKey++;
+            }
+            if (firstKey > lastBlank) {
+              keyStart = firstKey;
+            }
+          } else if (lastSpace >= p) {
+            keyStart = lastSpace;
+          }
+          if (keyStart >= 0) {
+            add(s, keyStart, equals, valueStart, delimStart, keys, normalizedKeys, values);
+            pos = delimStart + delim.length();
+            continue scan;
+          }
+        }
+        // The last entry, without spaces in its key, up to the end of the line
+        if (isKey(s.charAt(p)) && p > lastNonKey) {
+          lineEnd = lineEnd(s, lineEnd, length);
+          add(s, p, equals, valueStart, lineEnd, keys, normalizedKeys, values);
+          break scan;
+        }
+      }
+      pos = equals;
+    }
+    return new StrProp(keys, normalizedKeys, values);
+  }
+
+  /**
+   * @param s the string
+   * @param from where to start looking
+   * @param to where to stop looking
+   * @return the index of the first line terminator from {@code from}, or {@code to} if there is
+   *     none before it
+   */
+  private static int lineEnd(String s, int from, int to) {
+    int end = from;
+    while (end < to && !isLineTerminator(s.charAt(end))) {
+      end++;
+    }
+    return end;
+  }
+
+  private static void add(
+      String s,
+      int keyStart,
+      int equals,
+      int valueStart,
+      int valueEnd,
+      List<String> keys,
+      List<String> normalizedKeys,
+      Map<String, String> values) {
+    String key = s.substring(keyStart, equals).trim();
+    String value = s.substring(valueStart, valueEnd).trim();
+    values.put(key.toUpperCase(), value);
+    keys.add(key);
+    normalizedKeys.add(key.toUpperCase());
+  }
+
+  /** @return true if the character is matched by {@code [\w.]} */
+  private static boolean isKey(char c) {
+    return (c >= 'a' && c <= 'z')
+        || (c >= 'A' && c <= 'Z')
+        || (c >= '0' && c <= '9')
+        || c == '_'
+        || c == '.';
+  }
+
+  /** @return true if the character is matched by {@code [\w.]} or {@code \s} */
+  private static boolean isKeyOrSpace(char c) {
+    return isKey(c)
+        || c == ' '
+        || c == '\t'
+        || c == '\n'
+        || c == '\u000B'
+        || c == '\f'
+        || c == '\r';
+  }
+
+  /** @return true if the character isn't matched by {@code .} */
+  private static boolean isLineTerminator(char c) {
+    return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
+
+  /** The key of a parsed string in the cache. */
+  private static final class CacheKey {
+    private final String props;
+    private final String delim;
+
+    CacheKey(String props, String delim) {
+      this.props = props;
+      this.delim = delim;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof CacheKey)) {
+        return false;
+      }
+      CacheKey other = (CacheKey) o;
+      return props.equals(other.props) && delim.equals(other.delim);
+    }
+
+    @Override
+    public int hashCode() {
+      return props.hashCode() * 31 + delim.hashCode();
+    }
+  }
+}
@@ -19,8 +19,6 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import net.rptools.maptool.language.I18N;
 import net.rptools.parser.Parser;
 import net.rptools.parser.ParserException;
@@ -35,12 +33,6 @@
  * @author knizia.fan
  */
 public class StrPropFunctions extends AbstractFunction {
-  // Changed to allow spaces within keys, although spaces on either end of keys or
-  // values will be trimmed. http://forums.rptools.net/viewtopic.php?f=3&t=23841
-  // Added "." to allowed key names since variable names can contain dots.
-  private static final String keyValuePatt = "\\s*([\\w .]+)\\s*=\\s*(.*)";
-  private static final Pattern keyValueParser = Pattern.compile(keyValuePatt);
-
   public StrPropFunctions() {
     super(
         1,
@@ -83,45 +75,12 @@ public static void parse(
       List<String> oldKeys,
       List<String> oldKeysNormalized,
       String delim) {
-    String delimPatt;
-    if (delim.equals("")) {
-      delimPatt = ";";
-    } else {
-      delimPatt = fullyQuoteString(delim); // XXX Why are we not using \\Q...\\E instead?
-    }
-    // Changed to allow spaces within keys, although spaces on either end of keys or
+    // Spaces are allowed within keys, although spaces on either end of keys or
     // values will be trimmed. http://forums.rptools.net/viewtopic.php?f=3&t=23841
-    // Added "." to allowed key names since variable names can contain dots.
-    final String entryPatt = "\\s*([\\w .]+\\s*=.*?)" + delimPatt + "|([\\w.]+\\s*=.*)";
-    final Pattern entryParser = Pattern.compile(entryPatt);
-
-    // Extract the keys and values already in the props string.
-    // Save the old keys so we can rebuild the props string in the same order.
-    boolean lastEntry = false;
-    Matcher entryMatcher = entryParser.matcher(props);
-    while (entryMatcher.find()) {
-      if (!lastEntry) {
-        // String entry = entryMatcher.group();
-        String entry = entryMatcher.group(1);
-        if (entry == null) {
-          entry = entryMatcher.group(2);
-          // We're here because there was no trailing delimiter in this match.
-          // In this case, the next match will be empty, but we don't want to grab it.
-          // We would grab the final empty match if the string ended with the delimiter,
-          // so this flag will prevent that.
-          lastEntry = true;
-        }
-        // private static final String keyValuePatt = "([\\w .]+)=(.*)";
-        Matcher keyValueMatcher = keyValueParser.matcher(entry);
-        if (keyValueMatcher.find()) {
-          String propKey = keyValueMatcher.group(1).trim();
-          String propValue = keyValueMatcher.group(2).trim();
-          map.put(propKey.toUpperCase(), propValue);
-          oldKeys.add(propKey);
-          oldKeysNormalized.add(propKey.toUpperCase());
-        }
-      }
-    }
+    StrProp strProp = StrProp.parse(props, delim);
+    map.putAll(strProp.getValues());
+    oldKeys.addAll(strProp.getKeys());
+    oldKeysNormalized.addAll(strProp.getNormalizedKeys());
   }
 
   /**
@@ -185,9 +144,9 @@ else if ("formatStrProp".equalsIgnoreCase(functionName))
    * @param parameters the function parameters
    * @param lastParam the last parameter
    * @param props has the form "key1=val1 ; key2=val2 ; ..."
-   * @param map is populated with the settings. The keys are normalized to upper case.
-   * @param oldKeys holds the un-normalized keys, in their original order.
-   * @param oldKeysNormalized an empty array that will contain the normalized keys.
+   * @param map not used, the settings are looked up in the parsed string cache.
+   * @param oldKeys not used.
+   * @param oldKeysNormalized not used.
    * @return The matching value for <code>key</code>, or <code>""</code> if not found. The value is
    *     converted to a number if possible.
    * @throws ParserException when an error occurs.
@@ -216,10 +175,9 @@ public Object getStrProp(
       retval = parameters.get(2); // this third parameter is returned if the key is not found
     }
     if (parameters.size() == maxParams) delim = lastParam;
-    parse(props, map, oldKeys, oldKeysNormalized, delim);
 
     userKey = parameters.get(1).toString(); // the key being passed in
-    String value = map.get(userKey.toUpperCase());
+    String value = StrProp.parse(props, delim).get(userKey.toUpperCase());
     if (value != null) {
       Integer intval = strToInt(value);
       retval = (intval == null) ? value : new BigDecimal(intval);
@@ -524,9 +482,9 @@ public Object strPropFromVars(
    * @param parameters the function parameters
    * @param lastParam the last parameter
    * @param props has the form "key1=val1 ; key2=val2 ; ..."
-   * @param map is populated with the settings. The keys are normalized to upper case.
-   * @param oldKeys holds the un-normalized keys, in their original order.
-   * @param oldKeysNormalized an empty array that will contain the normalized keys.
+   * @param map not used, the settings are looked up in the parsed string cache.
+   * @param oldKeys not used.
+   * @param oldKeysNormalized not used.
    * @return The number of property entries in the string.
    * @throws ParserException when an error occurs.
    */
@@ -546,9 +504,8 @@ public Object countStrProp(
     checkVaryingParameters(
         "countStrProp()", minParams, maxParams, parameters, new Class[] {String.class});
     if (parameters.size() == maxParams) delim = lastParam;
-    parse(props, map, oldKeys, oldKeysNormalized, delim);
 
-    retval = new BigDecimal(oldKeys.size());
+    retval = new BigDecimal(StrProp.parse(props, delim).getKeys().size());
     return retval;
   }
 
@@ -559,9 +516,9 @@ public Object countStrProp(
    * @param parameters the function parameters
    * @param lastParam the last parameter
    * @param props has the form "key1=val1 ; key2=val2 ; ..."
-   * @param map is populated with the settings. The keys are normalized to upper case.
-   * @param oldKeys holds the un-normalized keys, in their original order.
-   * @param oldKeysNormalized an empty array that will contain the normalized keys.
+   * @param map not used, the settings are looked up in the parsed string cache.
+   * @param oldKeys not used.
+   * @param oldKeysNormalized not used.
    * @return The key for the setting at position <code>index</code>
    * @throws ParserException when an error occurs.
    */
@@ -585,13 +542,13 @@ public Object indexKeyStrProp(
         parameters,
         new Class[] {String.class, BigDecimal.class});
     if (parameters.size() == maxParams) delim = lastParam;
-    parse(props, map, oldKeys, oldKeysNormalized, delim);
+    List<String> keys = StrProp.parse(props, delim).getKeys();
 
     int index = ((BigDecimal) parameters.get(1)).intValue();
-    if (index < 0 || index >= oldKeys.size()) {
+    if (index < 0 || index >= keys.size()) {
       retval = "";
     } else {
-      retval = oldKeys.get(index);
+      retval = keys.get(index);
     }
     return retval;
   }
@@ -603,9 +560,9 @@ public Object indexKeyStrProp(
    * @param parameters the function parameters
    * @param lastParam the last parameter
    * @param props has the form "key1=val1 ; key2=val2 ; ..."
-   * @param map is populated with the settings. The keys are normalized to upper case.
-   * @param oldKeys holds the un-normalized keys, in their original order.
-   * @param oldKeysNormalized an empty array that will contain the normalized keys.
+   * @param map not used, the settings are looked up in the parsed string cache.
+   * @param oldKeys not used.
+   * @param oldKeysNormalized not used.
    * @return The value (converted to a number if possible) for the setting at position <code>index
    *     </code>
    * @throws ParserException when an error occurs.
@@ -631,13 +588,13 @@ public Object indexValueStrProp(
         parameters,
         new Class[] {String.class, BigDecimal.class});
     if (parameters.size() == maxParams) delim = lastParam;
-    parse(props, map, oldKeys, oldKeysNormalized, delim);
+    StrProp strProp = StrProp.parse(props, delim);
 
     int index = ((BigDecimal) parameters.get(1)).intValue();
-    if (index < 0 || index >= oldKeys.size()) {
+    if (index < 0 || index >= strProp.getKeys().size()) {
       value = "";
     } else {
-      value = map.get(oldKeys.get(index).toUpperCase());
+      value = strProp.get(strProp.getNormalizedKeys().get(index));
     }
 
     if (value != null) {
@@ -187,6 +187,7 @@ private JsonObject getClientInfo() {
       }
       cinfo.add("user defined functions", udfList);
       cinfo.addProperty("client id", MapTool.getClientId());
+      cinfo.add("macro cache", MapTool.getParser().getCompiledCacheStatistics());
     }
     return cinfo;
   }
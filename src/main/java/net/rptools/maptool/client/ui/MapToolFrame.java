@@ -37,6 +37,7 @@
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -1525,6 +1526,27 @@ public void removeZoneRenderer(ZoneRenderer renderer) {
     zoneMiniMapPanel.repaint();
   }
 
+  /**
+   * Replace the ZoneRenderer of a zone by the one of the new version of the zone, at the same place
+   * in the list. The new one becomes the current ZoneRenderer if the old one was.
+   *
+   * @param oldRenderer the ZoneRenderer to replace.
+   * @param newRenderer the ZoneRenderer replacing it.
+   */
+  public void replaceZoneRenderer(ZoneRenderer oldRenderer, ZoneRenderer newRenderer) {
+    int index = zoneRendererList.indexOf(oldRenderer);
+    if (index < 0) {
+      zoneRendererList.add(newRenderer);
+    } else {
+      zoneRendererList.set(index, newRenderer);
+    }
+    if (oldRenderer == getCurrentZoneRenderer()) {
+      setCurrentZoneRenderer(newRenderer);
+    }
+    zoneMiniMapPanel.flush();
+    zoneMiniMapPanel.repaint();
+  }
+
   public void clearZoneRendererList() {
     zoneRendererList.clear();
     zoneMiniMapPanel.flush();
@@ -1546,10 +1568,19 @@ private void stopTokenDrag() {
    * @param renderer the ZoneRenderer
    */
   public void setCurrentZoneRenderer(ZoneRenderer renderer) {
-    // Flush first so that the new zone renderer can inject the newly needed images
+    // Keep the images of the new zone, the others are evicted as the cache fills up
     if (renderer != null) {
-      ImageManager.flush(renderer.getZone().getAllAssetIds());
+      // Only the header of the zone may have been received from the server yet
+      MapTool.getZoneFetcher().fetchNow(renderer.getZone().getId());
+      ImageManager.setPinnedImages(renderer.getZone().getAllAssetIds());
+      // Decode the token images of the zone ahead of time, the visible ones are requested first
+      Set<MD5Key> tokenImages = new HashSet<MD5Key>();
+      for (Token token : renderer.getZone().getAllTokens()) {
+        tokenImages.add(token.getImageAssetId());
+      }
+      ImageManager.prefetchImages(tokenImages, ImageManager.Priority.ZONE);
     } else {
+      ImageManager.setPinnedImages(Collections.<MD5Key>emptySet());
       ImageManager.flush();
       // zoneRendererList.remove(currentRenderer);
     }
@@ -1668,7 +1699,10 @@ public ZoneRenderer getZoneRenderer(GUID zoneGUID) {
   public ZoneRenderer getZoneRenderer(final String zoneName) {
     for (ZoneRenderer renderer : zoneRendererList) {
       if (zoneName.equals(renderer.getZone().getName())) {
-        return renderer;
+        // Macros look up the maps by name, so fetch the map now if only its header was received
+        GUID zoneGUID = renderer.getZone().getId();
+        MapTool.getZoneFetcher().fetchForMacro(zoneGUID);
+        return getZoneRenderer(zoneGUID);
       }
     }
     return null;
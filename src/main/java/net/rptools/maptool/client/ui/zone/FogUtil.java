@@ -27,6 +27,7 @@
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
 import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -40,10 +41,12 @@
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import net.rptools.lib.CodeTimer;
+import net.rptools.maptool.client.AppPreferences;
 import net.rptools.maptool.client.AppUtil;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.ui.zone.vbl.AreaOcean;
 import net.rptools.maptool.client.ui.zone.vbl.AreaTree;
+import net.rptools.maptool.client.ui.zone.vbl.VisibilitySweep;
 import net.rptools.maptool.client.ui.zone.vbl.VisibleAreaSegment;
 import net.rptools.maptool.model.CellPoint;
 import net.rptools.maptool.model.ExposedAreaMetaData;
@@ -61,8 +64,26 @@
 public class FogUtil {
   private static final Logger log = LogManager.getLogger(FogUtil.class);
 
+  /** The ways of calculating the area visible from a point. */
+  public enum VisibilityEngine {
+    /** Subtract the shadow of each face of the VBL from the vision. */
+    AREA,
+    /** Clip the vision with a visibility polygon, found by sweeping the faces around the origin. */
+    SWEEP;
+
+    /** @return the engine set in the preferences, or AREA if the name set is not an engine */
+    static VisibilityEngine fromPreferences() {
+      try {
+        return valueOf(AppPreferences.getVisibilityEngine());
+      } catch (IllegalArgumentException e) {
+        return AREA;
+      }
+    }
+  }
+
   /**
-   * Return the visible area for an origin, a lightSourceArea and a VBL.
+   * Return the visible area for an origin, a lightSourceArea and a VBL, calculated with the
+   * visibility engine set in the preferences.
    *
    * @param x the x vision origin.
    * @param y the y vision origin.
@@ -71,6 +92,23 @@ public class FogUtil {
    * @return the visible area.
    */
   public static Area calculateVisibility(int x, int y, Area vision, AreaTree topology) {
+    if (VisibilityEngine.fromPreferences() == VisibilityEngine.SWEEP) {
+      return VisibilitySweep.calculateVisibility(x, y, vision, topology);
+    }
+    return calculateVisibilityByArea(x, y, vision, topology);
+  }
+
+  /**
+   * Return the visible area for an origin, a lightSourceArea and a VBL, by subtracting the shadow
+   * of each face of the VBL from the vision.
+   *
+   * @param x the x vision origin.
+   * @param y the y vision origin.
+   * @param vision the lightSourceArea.
+   * @param topology the VBL topology.
+   * @return the visible area.
+   */
+  public static Area calculateVisibilityByArea(int x, int y, Area vision, AreaTree topology) {
     CodeTimer timer = new CodeTimer("calculateVisibility");
 
     vision = new Area(vision);
@@ -89,8 +127,17 @@ public static Area calculateVisibility(int x, int y, Area vision, AreaTree topol
     // -Djava.util.Arrays.useLegacyMergeSort=true
     // http://dertompson.com/2012/11/23/sort-algorithm-changes-in-java-7/
     // http://bugs.java.com/bugdatabase/view_bug.do?bug_id=7075600
-    List<VisibleAreaSegment> segmentList =
-        new ArrayList<VisibleAreaSegment>(ocean.getVisibleAreaSegments(origin));
+    // Every line of sight lies within the bounds of the vision and its origin, so the segments out
+    // of these bounds can't block it. The topology tree cuts the rooms crossing its tiles, so the
+    // ocean may hold the segments of the whole map.
+    Rectangle2D visionBounds = vision.getBounds2D();
+    visionBounds.add(x, y);
+    List<VisibleAreaSegment> segmentList = new ArrayList<VisibleAreaSegment>();
+    for (VisibleAreaSegment segment : ocean.getVisibleAreaSegments(origin)) {
+      if (segment.getPath().getBounds2D().intersects(visionBounds)) {
+        segmentList.add(segment);
+      }
+    }
     Collections.sort(segmentList);
 
     List<Area> clearedAreaList = new LinkedList<Area>();
@@ -0,0 +1,295 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.PathIterator;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import net.rptools.maptool.model.Direction;
+import net.rptools.maptool.model.Grid;
+import net.rptools.maptool.model.LightSource;
+import net.rptools.maptool.model.SightType;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Least recently used cache of the areas lit by light sources, bounded by an estimate of the memory
+ * used by the areas.
+ *
+ * <p>Entries are keyed by everything the area of a light depends on: the light source, the sight
+ * type it is seen with, the position, size and facing of the token holding it, the grid and the
+ * version of the topology. Unlike the other caches of {@link ZoneView}, it is therefore not cleared
+ * when a token changes: the lights which didn't move are found again once the token caches are
+ * rebuilt. Entries for old positions or topology simply age out.
+ *
+ * <p>The cache is used from the vision threads, so all the methods are thread safe.
+ */
+class LightAreaCache {
+  private static final Logger log = LogManager.getLogger(LightAreaCache.class);
+
+  /** Rough number of bytes used by each segment of an area. */
+  private static final int BYTES_PER_SEGMENT = 64;
+
+  /** Rough number of bytes used by an entry, besides its areas. */
+  private static final int BYTES_PER_ENTRY = 512;
+
+  private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(64, 0.75f, true);
+  private final long maxBytes;
+  private long usedBytes;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /** @param maxBytes the estimated memory, in bytes, the cached areas may use */
+  LightAreaCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Return the cached light area, or null if the light needs to be calculated.
+   *
+   * @param key the key of the light area
+   * @return the entry, or null if not in the cache
+   */
+  synchronized Entry get(Key key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+    }
+    return entry;
+  }
+
+  /**
+   * Add a light area to the cache, evicting the least recently used ones if the cache is full.
+   *
+   * @param key the key of the light area
+   * @param entry the light area
+   */
+  synchronized void put(Key key, Entry entry) {
+    if (entry.size > maxBytes) {
+      return;
+    }
+    Entry old = entries.put(key, entry);
+    if (old != null) {
+      usedBytes -= old.size;
+    }
+    usedBytes += entry.size;
+
+    Iterator<Entry> it = entries.values().iterator();
+    while (usedBytes > maxBytes && it.hasNext()) {
+      usedBytes -= it.next().size;
+      it.remove();
+    }
+  }
+
+  /** Remove all the light areas from the cache. */
+  synchronized void clear() {
+    entries.clear();
+    usedBytes = 0;
+  }
+
+  /** @return the number of light areas in the cache */
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /** @return the estimated memory, in bytes, used by the cached light areas */
+  synchronized long getUsedBytes() {
+    return usedBytes;
+  }
+
+  /** @return the number of lookups which found their light area in the cache */
+  long getHitCount() {
+    return hits.get();
+  }
+
+  /** @return the number of lookups which didn't find their light area in the cache */
+  long getMissCount() {
+    return misses.get();
+  }
+
+  /** Log the hit and miss counts of the cache. */
+  void logStatistics() {
+    if (log.isDebugEnabled()) {
+      log.debug(
+          "Light area cache: "
+              + getHitCount()
+              + " hits, "
+              + getMissCount()
+              + " misses, "
+              + size()
+              + " entries, "
+              + getUsedBytes()
+              + " bytes");
+    }
+  }
+
+  /**
+   * Estimate the memory used by an area from the number of its segments.
+   *
+   * @param area the area, may be null
+   * @return the estimated size in bytes
+   */
+  static long estimateSize(Area area) {
+    if (area == null) {
+      return 0;
+    }
+    long segments = 0;
+    for (PathIterator it = area.getPathIterator(null); !it.isDone(); it.next()) {
+      segments++;
+    }
+    return segments * BYTES_PER_SEGMENT;
+  }
+
+  /** The key of a light area. Light sources and sight types are compared by identity. */
+  static final class Key {
+    private final LightSource lightSource;
+    private final SightType sight;
+    private final boolean isPersonalLight;
+    private final Direction direction;
+    private final int x;
+    private final int y;
+    private final Rectangle bounds;
+    private final boolean snapToGrid;
+    private final Integer facing;
+    private final Grid grid;
+    private final int gridSize;
+    private final double unitsPerCell;
+    private final int tokenVisionDistance;
+    private final long topologyVersion;
+    private final int hash;
+
+    Key(
+        LightSource lightSource,
+        SightType sight,
+        boolean isPersonalLight,
+        Direction direction,
+        Token token,
+        Zone zone,
+        long topologyVersion) {
+      this.lightSource = lightSource;
+      this.sight = sight;
+      this.isPersonalLight = isPersonalLight;
+      this.direction = direction;
+      this.x = token.getX();
+      this.y = token.getY();
+      this.bounds = token.getBounds(zone);
+      this.snapToGrid = token.isSnapToGrid();
+      this.facing = token.getFacing();
+      this.grid = zone.getGrid();
+      this.gridSize = grid.getSize();
+      this.unitsPerCell = zone.getUnitsPerCell();
+      this.tokenVisionDistance = zone.getTokenVisionDistance();
+      this.topologyVersion = topologyVersion;
+      this.hash =
+          Objects.hash(
+              System.identityHashCode(lightSource),
+              System.identityHashCode(sight),
+              isPersonalLight,
+              direction,
+              x,
+              y,
+              bounds,
+              facing,
+              unitsPerCell,
+              tokenVisionDistance,
+              topologyVersion);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return lightSource == other.lightSource
+          && sight == other.sight
+          && isPersonalLight == other.isPersonalLight
+          && direction == other.direction
+          && x == other.x
+          && y == other.y
+          && snapToGrid == other.snapToGrid
+          && grid == other.grid
+          && gridSize == other.gridSize
+          && Double.compare(unitsPerCell, other.unitsPerCell) == 0
+          && tokenVisionDistance == other.tokenVisionDistance
+          && topologyVersion == other.topologyVersion
+          && Objects.equals(facing, other.facing)
+          && bounds.equals(other.bounds);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /** A cached light area, with the drawable and bright lights it is made of. */
+  static final class Entry {
+    private final Area visibleArea;
+    private final Set<DrawableLight> lights;
+    private final Set<Area> brightLights;
+    private final long size;
+
+    /**
+     * @param visibleArea the area lit by the light source, or null if none. Not modified afterward.
+     * @param lights the colored lights. Not modified afterward.
+     * @param brightLights the bright lights. Not modified afterward.
+     */
+    Entry(Area visibleArea, Set<DrawableLight> lights, Set<Area> brightLights) {
+      this.visibleArea = visibleArea;
+      this.lights = Collections.unmodifiableSet(lights);
+      this.brightLights = Collections.unmodifiableSet(brightLights);
+
+      long bytes = BYTES_PER_ENTRY + estimateSize(visibleArea);
+      for (DrawableLight light : lights) {
+        bytes += estimateSize(light.getArea());
+      }
+      for (Area area : brightLights) {
+        bytes += estimateSize(area);
+      }
+      this.size = bytes;
+    }
+
+    /** @return a copy of the lit area, or null if none */
+    Area getVisibleArea() {
+      return visibleArea == null ? null : new Area(visibleArea);
+    }
+
+    /** @return the colored lights */
+    Set<DrawableLight> getLights() {
+      return lights;
+    }
+
+    /** @return the bright lights */
+    Set<Area> getBrightLights() {
+      return brightLights;
+    }
+  }
+}
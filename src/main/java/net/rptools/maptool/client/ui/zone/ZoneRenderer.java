@@ -179,6 +179,12 @@ public class ZoneRenderer extends JComponent
   private final List<ZoneOverlay> overlayList = new ArrayList<ZoneOverlay>();
   private final Map<Zone.Layer, List<TokenLocation>> tokenLocationMap =
       new HashMap<Zone.Layer, List<TokenLocation>>();
+  /** The locations of the tokens in tokenLocationMap, to find that of a token without a scan. */
+  private final Map<Token, TokenLocation> renderedTokenLocations =
+      new HashMap<Token, TokenLocation>();
+  /** The tokens near the viewport, refilled by each call of renderTokens. */
+  private final Set<Token> nearbyTokens = new HashSet<Token>();
+
   private Set<GUID> selectedTokenSet = new LinkedHashSet<GUID>();
   private boolean keepSelectedTokenSet = false;
   private final List<Set<GUID>> selectedTokenSetHistory = new ArrayList<Set<GUID>>();
@@ -1166,6 +1172,7 @@ public void renderZone(Graphics2D g2d, PlayerView view) {
 
     // Clear internal state
     tokenLocationMap.clear();
+    renderedTokenLocations.clear();
     markerLocationList.clear();
     itemRenderList.clear();
 
@@ -1190,7 +1197,8 @@ public void renderZone(Graphics2D g2d, PlayerView view) {
 
     if (visibleScreenArea == null && zoneView.isUsingVision()) {
       timer.start("ZoneRenderer-getVisibleArea");
-      Area a = zoneView.getVisibleArea(view);
+      // Don't hold up the frame while the vision is calculated, flushFog() once it's ready
+      Area a = zoneView.getVisibleAreaAsync(view, this::flushFog);
       timer.stop("ZoneRenderer-getVisibleArea");
 
       timer.start("createTransformedArea");
@@ -1897,7 +1905,7 @@ private Area renderFog(Graphics2D g, PlayerView view) {
       buffG.setComposite(AlphaComposite.getInstance(AlphaComposite.CLEAR));
 
       timer.start("renderFog-visibleArea");
-      Area visibleArea = zoneView.getVisibleArea(view);
+      Area visibleArea = zoneView.getVisibleAreaAsync(view, this::flushFog);
       timer.stop("renderFog-visibleArea");
 
       String msg = null;
@@ -2408,7 +2416,11 @@ protected void showBlockedMoves(Graphics2D g, PlayerView view, Set<SelectionSet>
                     (int) tokBounds.getWidth(),
                     (int) tokBounds.getHeight());
               }
-              showLabels = showLabels || zoneView.getVisibleArea(view).intersects(tokenRectangle);
+              showLabels =
+                  showLabels
+                      || zoneView
+                          .getVisibleAreaAsync(view, this::flushFog)
+                          .intersects(tokenRectangle);
             }
           } else {
             boolean hasFog = zone.hasFog();
@@ -3032,8 +3044,32 @@ protected void renderTokens(
     // state...
     // tokenLocationCache.clear();
 
+    // Ask the zone's spatial index for the tokens near the viewport, so that tokens far away
+    // are skipped before doing any work on them. Halos, labels and figure images are drawn
+    // outside the bounds of the tokens, so the viewport is grown by half its size on each side,
+    // and by at least a cell, to keep the tokens partly in view.
+    ZonePoint viewportOrigin = ScreenPoint.convertToZone(this, viewport.x, viewport.y);
+    ZonePoint viewportEnd =
+        ScreenPoint.convertToZone(this, viewport.x + viewport.width, viewport.y + viewport.height);
+    int zoneWidth = viewportEnd.x - viewportOrigin.x;
+    int zoneHeight = viewportEnd.y - viewportOrigin.y;
+    int viewportMargin = Math.max(zone.getGrid().getSize(), Math.max(zoneWidth, zoneHeight) / 2);
+    Rectangle zoneViewport =
+        new Rectangle(
+            viewportOrigin.x - viewportMargin,
+            viewportOrigin.y - viewportMargin,
+            zoneWidth + 2 * viewportMargin,
+            zoneHeight + 2 * viewportMargin);
+    timer.start("tokenlist-index");
+    nearbyTokens.clear();
+    zone.addTokensInBounds(zoneViewport, nearbyTokens);
+    timer.stop("tokenlist-index");
+
     List<Token> tokenPostProcessing = new ArrayList<Token>(tokenList.size());
     for (Token token : tokenList) {
+      if (!nearbyTokens.contains(token)) {
+        continue;
+      }
       if ((figuresOnly && token.getShape() != Token.TokenShape.FIGURE)
           && figuresOnly
           && !token.isAlwaysVisible()) {
@@ -3184,6 +3220,7 @@ protected void renderTokens(
       List<TokenLocation> locationList = getTokenLocations(layer);
       if (locationList != null) {
         locationList.add(location);
+        renderedTokenLocations.put(token, location);
       }
       timer.stop("renderTokens:Locations");
 
@@ -4055,12 +4092,22 @@ public Rectangle getLabelBounds(Label label) {
    * @return the token
    */
   public Token getTokenAt(int x, int y) {
-    List<TokenLocation> locationList = new ArrayList<TokenLocation>();
-    locationList.addAll(getTokenLocations(getActiveLayer()));
-    Collections.reverse(locationList);
-    for (TokenLocation location : locationList) {
-      if (location.bounds.contains(x, y)) {
-        return location.token;
+    // The tokens under the point come from the spatial index of the zone, topmost last
+    ZonePoint zp = ScreenPoint.convertToZone(this, x, y);
+    int margin = (int) Math.ceil(1 / getScale()) + 1; // a screen pixel, as the point is rounded
+    List<Token> tokens =
+        zone.getTokensInBounds(
+            new Rectangle(zp.x - margin, zp.y - margin, 2 * margin + 1, 2 * margin + 1));
+    Zone.Layer layer = getActiveLayer();
+    for (int i = tokens.size() - 1; i >= 0; i--) {
+      Token token = tokens.get(i);
+      if (token.getLayer() != layer) {
+        continue;
+      }
+      // Only the tokens rendered on the layer, where they were rendered
+      TokenLocation location = renderedTokenLocations.get(token);
+      if (location != null && location.bounds.contains(x, y)) {
+        return token;
       }
     }
     return null;
@@ -4294,6 +4341,16 @@ public class SelectionSet {
     private RenderPathWorker renderPathTask;
     private ExecutorService renderPathThreadPool = Executors.newSingleThreadExecutor();
 
+    /**
+     * The goal cell and settings of the last path search started. The followers of the key token
+     * all take its path, so a new search is only needed when one of these changes, not on each move
+     * of the mouse inside the same cell.
+     */
+    private CellPoint pathGoal;
+
+    private boolean pathRestrictMovement;
+    private Set<TerrainModifierOperation> pathTerrainModifiersIgnored;
+
     public SelectionSet(String playerId, GUID tokenGUID, Set<GUID> selectionList) {
       selectionSet.addAll(selectionList);
       keyToken = tokenGUID;
@@ -4365,20 +4422,31 @@ public void setOffset(int x, int y) {
         CellPoint point = zone.getGrid().convert(zp);
         // walker.replaceLastWaypoint(point, restrictMovement); // OLD WAY
 
-        // New way threaded, off the swing UI thread...
-        if (renderPathTask != null) {
-          renderPathTask.cancel(true);
-        }
-
         boolean restictMovement = MapTool.getServerPolicy().isUsingAstarPathfinding();
 
-        Set<TerrainModifierOperation> terrainModifiersIgnored = token.getTerrainModifiersIgnored();
+        Set<TerrainModifierOperation> terrainModifiersIgnored =
+            new HashSet<>(token.getTerrainModifiersIgnored());
 
         // Skip AI Pathfinding if not on the token layer...
         if (!ZoneRenderer.this.getActiveLayer().equals(Layer.TOKEN)) {
           restictMovement = false;
         }
 
+        // Still in the same cell, the path being found (or found) is the one needed
+        if (point.equals(pathGoal)
+            && restictMovement == pathRestrictMovement
+            && terrainModifiersIgnored.equals(pathTerrainModifiersIgnored)) {
+          return;
+        }
+        pathGoal = point;
+        pathRestrictMovement = restictMovement;
+        pathTerrainModifiersIgnored = terrainModifiersIgnored;
+
+        // New way threaded, off the swing UI thread...
+        if (renderPathTask != null) {
+          renderPathTask.cancel(true);
+        }
+
         renderPathTask =
             new RenderPathWorker(
                 walker,
@@ -4405,6 +4473,7 @@ public void setOffset(int x, int y) {
     public void toggleWaypoint(ZonePoint location) {
       if (walker != null && token.isSnapToGrid() && getZone().getGrid() != null) {
         walker.toggleWaypoint(getZone().getGrid().convert(location));
+        pathGoal = null;
       } else {
         gridlessPath.addWayPoint(location);
         gridlessPath.addPathCell(location);
@@ -4808,8 +4877,13 @@ public void modelChanged(ModelChangeEvent event) {
       Object evt = event.getEvent();
 
       if (evt == Zone.Event.TOPOLOGY_CHANGED) {
-        flushFog();
-        flushLight();
+        // An empty area means only the MBL changed, which neither the vision nor the fog use
+        Object arg = event.getArg();
+        if (!(arg instanceof Zone.TopologyChange)
+            || !((Zone.TopologyChange) arg).getArea().isEmpty()) {
+          flushFog();
+          flushLight();
+        }
       }
       if (evt == Zone.Event.TOKEN_CHANGED
           || evt == Zone.Event.TOKEN_REMOVED
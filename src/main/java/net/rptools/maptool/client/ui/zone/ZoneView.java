@@ -23,7 +23,6 @@
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -32,12 +31,15 @@
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import javax.swing.SwingWorker;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import javax.swing.SwingUtilities;
+import net.rptools.maptool.client.AppPreferences;
 import net.rptools.maptool.client.AppUtil;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.ui.zone.vbl.AreaTree;
@@ -63,33 +65,73 @@ public class ZoneView implements ModelChangeListener {
   /** The zone of the ZoneView. */
   private final Zone zone;
 
+  /** Pool shared by all the zone views to calculate vision and lights in parallel. */
+  private static final ForkJoinPool visionPool =
+      new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
   // VISION
+  // The caches below are filled from the threads of visionPool, hence the concurrent maps.
   /** Map each token to the area they can see by themselves. */
-  private final Map<GUID, Area> tokenVisibleAreaCache = new HashMap<GUID, Area>();
+  private final Map<GUID, Area> tokenVisibleAreaCache = new ConcurrentHashMap<GUID, Area>();
   /** Map each token to their current vision, depending on other lights. */
-  private final Map<GUID, Area> tokenVisionCache = new HashMap<GUID, Area>();
+  private final Map<GUID, Area> tokenVisionCache = new ConcurrentHashMap<GUID, Area>();
   /** Map lightSourceToken to the areaBySightMap. */
   private final Map<GUID, Map<String, TreeMap<Double, Area>>> lightSourceCache =
-      new HashMap<GUID, Map<String, TreeMap<Double, Area>>>();
+      new ConcurrentHashMap<GUID, Map<String, TreeMap<Double, Area>>>();
   /** Map light source type to all tokens with that type. */
   private final Map<LightSource.Type, Set<GUID>> lightSourceMap =
-      new HashMap<LightSource.Type, Set<GUID>>();
+      new ConcurrentHashMap<LightSource.Type, Set<GUID>>();
   /** Map each token to their map between sightType and set of lights. */
   private final Map<GUID, Map<String, Set<DrawableLight>>> drawableLightCache =
-      new HashMap<GUID, Map<String, Set<DrawableLight>>>();
+      new ConcurrentHashMap<GUID, Map<String, Set<DrawableLight>>>();
   /** Map each token to their map between sightType and set of bright lights. */
   private final Map<GUID, Map<String, Set<Area>>> brightLightCache =
-      new Hashtable<GUID, Map<String, Set<Area>>>();
-  /** Map the PlayerView to its visible area. */
+      new ConcurrentHashMap<GUID, Map<String, Set<Area>>>();
+  /** Map the PlayerView to its visible area. Only accessed from the EDT. */
   private final Map<PlayerView, VisibleAreaMeta> visibleAreaMap =
       new HashMap<PlayerView, VisibleAreaMeta>();
-  /** Hold all of our lights combined by lumens. */
-  private final SortedMap<Double, Area> allLightAreaMap = new ConcurrentSkipListMap<Double, Area>();
+
+  /**
+   * Incremented by every flush. A background calculation started before the last flush is stale: it
+   * stops as soon as possible and its results are not cached.
+   */
+  private final AtomicLong visionGeneration = new AtomicLong();
+  /** The background calculation of the visible area of each view, if one is running. */
+  private final Map<PlayerView, CompletableFuture<Area>> pendingVisibleAreaMap =
+      new HashMap<PlayerView, CompletableFuture<Area>>();
+  /** The last visible area calculated for each view, shown while a newer one is calculated. */
+  private final Map<PlayerView, VisibleAreaMeta> publishedVisibleAreaMap =
+      new HashMap<PlayerView, VisibleAreaMeta>();
+
+  /** The lit areas of the light sources, kept across flushes. */
+  private final LightAreaCache lightAreaCache =
+      new LightAreaCache(AppPreferences.getLightAreaCacheSize() * 1024L * 1024L);
+  /** Incremented each time the topologyTree changes, to key the lightAreaCache. */
+  private long topologyVersion;
 
   /** The digested topology of the map VBL, and possibly tokens VBL. */
   private AreaTree topologyTree;
-  /** The VBL area of the zone VBL and the tokens VBL. */
-  private Area tokenTopology;
+  /**
+   * The zone VBL split into the tiles of the topologyTree, kept up to date with the edits of the
+   * zone VBL. Null when the topologyTree doesn't include the tokens VBL.
+   */
+  private Map<Point, Area> zoneTopologyTiles;
+  /** The transformed VBL of each token included in the topologyTree. */
+  private final Map<GUID, Area> tokenVBLMap = new HashMap<GUID, Area>();
+  /** The version of the zone VBL included in zoneTopologyTiles. */
+  private long zoneTopologyVersion;
+  /** The tiles of the topologyTree to digest again. */
+  private final Set<Point> changedTopologyTiles = new HashSet<Point>();
+  /** The tokens whose VBL may have changed since the topologyTree was updated. */
+  private final Set<GUID> changedVBLTokens = new HashSet<GUID>();
+  /** Whether the VBL of any token may have changed since the topologyTree was updated. */
+  private boolean tokenVBLChanged;
+
+  /**
+   * Copies of the tokens handed to the vision threads, so that they never read a token while it
+   * changes. The copy of a token is dropped when the token is flushed.
+   */
+  private final Map<GUID, Token> visionTokenCopies = new ConcurrentHashMap<GUID, Token>();
 
   /**
    * Construct ZoneView from zone. Build lightSourceMap, and add ZoneView to Zone as listener.
@@ -118,6 +160,65 @@ public Area getVisibleArea(PlayerView view) {
     return visible != null ? visible.visibleArea : new Area();
   }
 
+  /**
+   * Same as {@link #getVisibleArea(PlayerView)}, but doesn't wait for the visible area to be
+   * calculated if an older one is available. The calculation is then started in the background and
+   * the older visible area is returned; <code>whenReady</code> is run on the EDT once the new one
+   * is available. Must be called from the EDT.
+   *
+   * @param view the PlayerView
+   * @param whenReady called when a newer visible area is available
+   * @return the visible area, which may be out of date
+   */
+  public Area getVisibleAreaAsync(PlayerView view, Runnable whenReady) {
+    if (isVisibleAreaCalculated(view)) {
+      return visibleAreaMap.get(view).visibleArea;
+    }
+    VisibleAreaMeta published = publishedVisibleAreaMap.get(view);
+    if (published == null) {
+      // Nothing to show meanwhile
+      return getVisibleArea(view);
+    }
+    final long generation = visionGeneration.get();
+    if (published.generation != generation && !pendingVisibleAreaMap.containsKey(view)) {
+      // The vision threads only get to see copies, the zone may change while they run
+      final List<Token> tokenList = copyVisionTokens(getVisionTokens(view));
+      final VisionSnapshot snapshot = takeVisionSnapshot(true);
+
+      CompletableFuture<Area> pending =
+          CompletableFuture.supplyAsync(
+              () ->
+                  combineVisibleAreas(
+                      tokenList, snapshot, () -> visionGeneration.get() != generation),
+              visionPool);
+      pendingVisibleAreaMap.put(view, pending);
+      pending.whenComplete(
+          (area, throwable) ->
+              SwingUtilities.invokeLater(
+                  () -> {
+                    pendingVisibleAreaMap.remove(view);
+                    if (throwable != null) {
+                      log.error("Error calculating the visible area", throwable);
+                      return;
+                    }
+                    if (area == null) {
+                      // Cancelled by a flush
+                      whenReady.run();
+                      return;
+                    }
+                    VisibleAreaMeta meta = new VisibleAreaMeta();
+                    meta.visibleArea = area;
+                    meta.generation = generation;
+                    publishedVisibleAreaMap.put(view, meta);
+                    if (visionGeneration.get() == generation) {
+                      visibleAreaMap.put(view, meta);
+                    }
+                    whenReady.run();
+                  }));
+    }
+    return published.visibleArea;
+  }
+
   /**
    * Get the vision status of the zone.
    *
@@ -134,31 +235,191 @@ public synchronized AreaTree getTopologyTree() {
 
   /**
    * Get the topologyTree. The topologyTree is "cached" and should only regenerate when topologyTree
-   * is null which should happen on flush calls.
+   * is null which should happen on flush calls. When only parts of the VBL changed, only the tiles
+   * of the tree touching the changes are digested again.
    *
    * @param useTokenVBL using token VBL? If so and topology null, create one from VBL tokens.
    * @return the AreaTree (topologyTree).
    */
   public synchronized AreaTree getTopologyTree(boolean useTokenVBL) {
-    if (tokenTopology == null && useTokenVBL) {
+    if (zoneTopologyTiles == null && useTokenVBL) {
       log.debug("ZoneView topologyTree is null, generating...");
 
-      tokenTopology = new Area(zone.getTopology());
-      List<Token> vblTokens =
-          MapTool.getFrame().getCurrentZoneRenderer().getZone().getTokensWithVBL();
-
-      for (Token vblToken : vblTokens) {
-        tokenTopology.add(vblToken.getTransformedVBL());
+      zoneTopologyVersion = zone.getTopologyVersion();
+      zoneTopologyTiles = AreaTree.splitIntoTiles(zone.getTopology());
+      changedTopologyTiles.clear();
+      changedVBLTokens.clear();
+      tokenVBLChanged = false;
+      tokenVBLMap.clear();
+      Set<Point> tiles = new HashSet<Point>(zoneTopologyTiles.keySet());
+      for (Token vblToken : zone.getTokensWithVBL()) {
+        Area vbl = vblToken.getTransformedVBL();
+        tokenVBLMap.put(vblToken.getId(), vbl);
+        tiles.addAll(AreaTree.getTiles(vbl.getBounds2D()));
       }
 
-      topologyTree = new AreaTree(tokenTopology);
+      topologyTree = new AreaTree(combineTopologyTiles(tiles));
+      topologyVersion++;
+    } else if (zoneTopologyTiles != null
+        && (!changedTopologyTiles.isEmpty() || !changedVBLTokens.isEmpty() || tokenVBLChanged)) {
+      updateTopologyTree();
     } else if (topologyTree == null) {
-      topologyTree = new AreaTree(zone.getTopology());
+      // The tree keeps its area, and the zone VBL is modified in place
+      topologyTree = new AreaTree(new Area(zone.getTopology()));
+      topologyVersion++;
     }
 
     return topologyTree;
   }
 
+  /**
+   * Bring the topologyTree up to date with the edits of the zone VBL and the changes of the VBL
+   * tokens. Only the tiles touching the changes are digested again.
+   */
+  private synchronized void updateTopologyTree() {
+    if (tokenVBLChanged) {
+      // Not told which tokens changed, so check all of them
+      Set<GUID> tokenIds = new HashSet<GUID>(tokenVBLMap.keySet());
+      for (Token vblToken : zone.getTokensWithVBL()) {
+        tokenIds.add(vblToken.getId());
+      }
+      updateTokenVBL(tokenIds);
+      tokenVBLChanged = false;
+    } else {
+      updateTokenVBL(changedVBLTokens);
+    }
+    changedVBLTokens.clear();
+    if (changedTopologyTiles.isEmpty()) {
+      return;
+    }
+
+    topologyTree = topologyTree.update(combineTopologyTiles(changedTopologyTiles));
+    changedTopologyTiles.clear();
+    topologyVersion++;
+  }
+
+  /**
+   * Update tokenVBLMap with the current VBL of the tokens, and mark the tiles of the VBL which
+   * changed.
+   *
+   * @param tokenIds the ids of the tokens
+   */
+  private void updateTokenVBL(Collection<GUID> tokenIds) {
+    for (GUID tokenId : tokenIds) {
+      Token token = zone.getToken(tokenId);
+      Area vbl = token != null && token.hasVBL() ? token.getTransformedVBL() : null;
+      Area previousVBL = vbl != null ? tokenVBLMap.put(tokenId, vbl) : tokenVBLMap.remove(tokenId);
+      if (vbl != null && previousVBL != null && vbl.equals(previousVBL)) {
+        continue;
+      }
+      if (vbl != null) {
+        changedTopologyTiles.addAll(AreaTree.getTiles(vbl.getBounds2D()));
+      }
+      if (previousVBL != null) {
+        changedTopologyTiles.addAll(AreaTree.getTiles(previousVBL.getBounds2D()));
+      }
+    }
+  }
+
+  /**
+   * @param tiles the tiles.
+   * @return the zone VBL and the tokens VBL inside each of the tiles.
+   */
+  private Map<Point, Area> combineTopologyTiles(Collection<Point> tiles) {
+    Map<Point, Area> result = new HashMap<Point, Area>();
+    for (Point tile : tiles) {
+      Area zoneVBL = zoneTopologyTiles.get(tile);
+      result.put(tile, zoneVBL != null ? new Area(zoneVBL) : new Area());
+    }
+    for (Area vbl : tokenVBLMap.values()) {
+      for (Point tile : AreaTree.getTiles(vbl.getBounds2D())) {
+        Area area = result.get(tile);
+        if (area != null) {
+          area.add(AreaTree.clipToTile(vbl, tile));
+        }
+      }
+    }
+    return result;
+  }
+
+  /** Discard the topologyTree, so it is regenerated with the current VBL. */
+  private synchronized void flushTopologyTree() {
+    topologyTree = null;
+    zoneTopologyTiles = null;
+  }
+
+  /**
+   * Take note of a change of the zone VBL. The tiles of zoneTopologyTiles touching the change are
+   * edited right away, and the topologyTree is updated on its next use.
+   *
+   * @param change the area added to or removed from the zone VBL, or null if not known
+   * @return false if the VBL didn't change
+   */
+  private synchronized boolean zoneTopologyChanged(Zone.TopologyChange change) {
+    if (change != null && change.getArea().isEmpty()) {
+      return false;
+    }
+    if (zoneTopologyTiles == null) {
+      topologyTree = null;
+    } else if (change != null && zone.getTopologyVersion() == zoneTopologyVersion + 1) {
+      zoneTopologyVersion++;
+      Area changedVBL = change.getArea();
+      for (Point tile : AreaTree.getTiles(changedVBL.getBounds2D())) {
+        Area changedTile = AreaTree.clipToTile(changedVBL, tile);
+        if (changedTile.isEmpty()) {
+          continue;
+        }
+        Area zoneVBL = zoneTopologyTiles.computeIfAbsent(tile, t -> new Area());
+        if (change.isAdded()) {
+          zoneVBL.add(changedTile);
+        } else {
+          zoneVBL.subtract(changedTile);
+        }
+        if (zoneVBL.isEmpty()) {
+          zoneTopologyTiles.remove(tile);
+        }
+        changedTopologyTiles.add(tile);
+      }
+    } else if (zone.getTopologyVersion() != zoneTopologyVersion) {
+      // The zone VBL changed without telling us how, or we missed an edit
+      flushTopologyTree();
+    } else {
+      // Only the tokens VBL may have changed
+      tokenVBLChanged = true;
+    }
+    return true;
+  }
+
+  /**
+   * Take note of a change of VBL tokens. The topologyTree is updated on its next use.
+   *
+   * @param tokens the tokens which changed
+   */
+  private synchronized void tokenTopologyChanged(List<Token> tokens) {
+    if (zoneTopologyTiles == null) {
+      topologyTree = null;
+      return;
+    }
+    for (Token token : tokens) {
+      if (isVBLToken(token)) {
+        changedVBLTokens.add(token.getId());
+      }
+    }
+  }
+
+  /**
+   * @param token the token
+   * @return true if the token has VBL, or had VBL included in the topologyTree
+   */
+  private synchronized boolean isVBLToken(Token token) {
+    return token.hasVBL() || tokenVBLMap.containsKey(token.getId());
+  }
+
+  /** @return the cache of the areas lit by the light sources of the zone */
+  LightAreaCache getLightAreaCache() {
+    return lightAreaCache;
+  }
+
   // Jamz: This function and such "AreaData" never seems to get used...either old or future code?
   // public AreaData getTopologyAreaData() {
   // if (topologyAreaData == null) {
@@ -174,19 +435,18 @@ public synchronized AreaTree getTopologyTree(boolean useTokenVBL) {
    *
    * @param baseToken the base token. Used to get the appropriate sight type.
    * @param lightSourceToken the token holding the light sources.
+   * @param snapshot the state of the zone to calculate the area in.
+   * @param cancelled tells if the calculation was cancelled.
    * @return the lightSourceArea.
    */
-  private TreeMap<Double, Area> getLightSourceArea(Token baseToken, Token lightSourceToken) {
+  private TreeMap<Double, Area> getLightSourceArea(
+      Token baseToken, Token lightSourceToken, VisionSnapshot snapshot, BooleanSupplier cancelled) {
     Map<String, TreeMap<Double, Area>> areaBySightMap =
-        lightSourceCache.get(lightSourceToken.getId());
-    if (areaBySightMap != null) {
-      TreeMap<Double, Area> lightSourceArea = areaBySightMap.get(baseToken.getSightType());
-      if (lightSourceArea != null) {
-        return lightSourceArea;
-      }
-    } else {
-      areaBySightMap = new HashMap<String, TreeMap<Double, Area>>();
-      lightSourceCache.put(lightSourceToken.getId(), areaBySightMap);
+        lightSourceCache.computeIfAbsent(
+            lightSourceToken.getId(), id -> new ConcurrentHashMap<String, TreeMap<Double, Area>>());
+    TreeMap<Double, Area> cachedLightSourceArea = areaBySightMap.get(baseToken.getSightType());
+    if (cachedLightSourceArea != null) {
+      return cachedLightSourceArea;
     }
 
     // Calculate
@@ -201,7 +461,12 @@ private TreeMap<Double, Area> getLightSourceArea(Token baseToken, Token lightSou
       SightType sight = MapTool.getCampaign().getSightType(baseToken.getSightType());
       Area visibleArea =
           calculateLightSourceArea(
-              lightSource, lightSourceToken, sight, attachedLightSource.getDirection());
+              lightSource,
+              lightSourceToken,
+              sight,
+              attachedLightSource.getDirection(),
+              snapshot,
+              cancelled);
 
       if (visibleArea != null && lightSource.getType() == LightSource.Type.NORMAL) {
         double lumens = lightSource.getLumens();
@@ -216,7 +481,7 @@ private TreeMap<Double, Area> getLightSourceArea(Token baseToken, Token lightSou
     }
 
     // Cache
-    areaBySightMap.put(baseToken.getSightType(), lightSourceAreaMap);
+    cacheIfCurrent(areaBySightMap, baseToken.getSightType(), lightSourceAreaMap, cancelled);
     return lightSourceAreaMap;
   }
 
@@ -228,11 +493,19 @@ private TreeMap<Double, Area> getLightSourceArea(Token baseToken, Token lightSou
    * @param lightSourceToken the token holding the light source.
    * @param sight the sight type.
    * @param direction the direction of the light source.
+   * @param snapshot the state of the zone to calculate the area in.
+   * @param cancelled tells if the calculation was cancelled.
    * @return the area visible.
    */
   private Area calculatePersonalLightSourceArea(
-      LightSource lightSource, Token lightSourceToken, SightType sight, Direction direction) {
-    return calculateLightSourceArea(lightSource, lightSourceToken, sight, direction, true);
+      LightSource lightSource,
+      Token lightSourceToken,
+      SightType sight,
+      Direction direction,
+      VisionSnapshot snapshot,
+      BooleanSupplier cancelled) {
+    return calculateLightSourceArea(
+        lightSource, lightSourceToken, sight, direction, true, snapshot, cancelled);
   }
 
   /**
@@ -243,22 +516,33 @@ private Area calculatePersonalLightSourceArea(
    * @param lightSourceToken the token holding the light source.
    * @param sight the sight type.
    * @param direction the direction of the light source.
+   * @param snapshot the state of the zone to calculate the area in.
+   * @param cancelled tells if the calculation was cancelled.
    * @return the area visible.
    */
   private Area calculateLightSourceArea(
-      LightSource lightSource, Token lightSourceToken, SightType sight, Direction direction) {
-    return calculateLightSourceArea(lightSource, lightSourceToken, sight, direction, false);
+      LightSource lightSource,
+      Token lightSourceToken,
+      SightType sight,
+      Direction direction,
+      VisionSnapshot snapshot,
+      BooleanSupplier cancelled) {
+    return calculateLightSourceArea(
+        lightSource, lightSourceToken, sight, direction, false, snapshot, cancelled);
   }
 
   /**
    * Calculate the area visible by a sight type for a given lightSource, and put the lights in
-   * drawableLightCache and brightLightCache.
+   * drawableLightCache and brightLightCache. The result is taken from the lightAreaCache if the
+   * light, its token and the topology haven't changed since it was last calculated.
    *
    * @param lightSource the light source. Not a personal light.
    * @param lightSourceToken the token holding the light source.
    * @param sight the sight type.
    * @param direction the direction of the light source.
    * @param isPersonalLight is the light a personal light?
+   * @param snapshot the state of the zone to calculate the area in.
+   * @param cancelled tells if the calculation was cancelled. The lights are then not cached.
    * @return the area visible.
    */
   private Area calculateLightSourceArea(
@@ -266,10 +550,71 @@ private Area calculateLightSourceArea(
       Token lightSourceToken,
       SightType sight,
       Direction direction,
-      boolean isPersonalLight) {
+      boolean isPersonalLight,
+      VisionSnapshot snapshot,
+      BooleanSupplier cancelled) {
     if (sight == null) {
       return null;
     }
+    LightAreaCache.Key key =
+        new LightAreaCache.Key(
+            lightSource,
+            sight,
+            isPersonalLight,
+            direction,
+            lightSourceToken,
+            zone,
+            snapshot.topologyVersion);
+    LightAreaCache.Entry entry = lightAreaCache.get(key);
+    if (entry == null) {
+      entry =
+          calculateLightAreaEntry(
+              lightSource,
+              lightSourceToken,
+              sight,
+              direction,
+              isPersonalLight,
+              snapshot.topologyTree);
+      lightAreaCache.put(key, entry);
+    }
+    if (lightSource.getType() == LightSource.Type.NORMAL) {
+      addIfCurrent(
+          drawableLightCache,
+          lightSourceToken.getId(),
+          sight.getName(),
+          entry.getLights(),
+          cancelled);
+      addIfCurrent(
+          brightLightCache,
+          lightSourceToken.getId(),
+          sight.getName(),
+          entry.getBrightLights(),
+          cancelled);
+    }
+    return entry.getVisibleArea();
+  }
+
+  /**
+   * Calculate the area visible by a sight type for a given lightSource, along with its colored and
+   * bright lights.
+   *
+   * @param lightSource the light source.
+   * @param lightSourceToken the token holding the light source.
+   * @param sight the sight type.
+   * @param direction the direction of the light source.
+   * @param isPersonalLight is the light a personal light?
+   * @param topology the topology blocking the light.
+   * @return the lightAreaCache entry for the light.
+   */
+  private LightAreaCache.Entry calculateLightAreaEntry(
+      LightSource lightSource,
+      Token lightSourceToken,
+      SightType sight,
+      Direction direction,
+      boolean isPersonalLight,
+      AreaTree topology) {
+    Set<DrawableLight> lightSet = new HashSet<DrawableLight>();
+    Set<Area> brightLightSet = new HashSet<Area>();
     Point p = FogUtil.calculateVisionCenter(lightSourceToken, zone);
     Area lightSourceArea = lightSource.getArea(lightSourceToken, zone, direction);
 
@@ -279,18 +624,12 @@ private Area calculateLightSourceArea(
       lightSourceArea.transform(
           AffineTransform.getScaleInstance(sight.getMultiplier(), sight.getMultiplier()));
     }
-    Area visibleArea = FogUtil.calculateVisibility(p.x, p.y, lightSourceArea, getTopologyTree());
-
-    if (visibleArea == null) {
-      return null;
-    }
+    Area visibleArea = FogUtil.calculateVisibility(p.x, p.y, lightSourceArea, topology);
 
-    if (lightSource.getType() != LightSource.Type.NORMAL) {
-      return visibleArea;
+    if (visibleArea == null || lightSource.getType() != LightSource.Type.NORMAL) {
+      return new LightAreaCache.Entry(visibleArea, lightSet, brightLightSet);
     }
     // Keep track of colored light
-    Set<DrawableLight> lightSet = new HashSet<DrawableLight>();
-    Set<Area> brightLightSet = new HashSet<Area>();
     for (Light light : lightSource.getLightList()) {
       Area lightArea = lightSource.getArea(lightSourceToken, zone, direction, light);
       if (sight.getMultiplier() != 1) {
@@ -306,35 +645,7 @@ private Area calculateLightSourceArea(
         brightLightSet.add(lightArea);
       }
     }
-    // FIXME There was a bug report of a ConcurrentModificationException regarding
-    // drawableLightCache.
-    // I don't see how, but perhaps this code -- and the ones in flush() and flush(Token) -- should
-    // be
-    // wrapped in a synchronization block? This method is probably called only on the same thread as
-    // getDrawableLights() but the two flush() methods may be called from different threads. How to
-    // verify this with Eclipse? Maybe the flush() methods should defer modifications to the
-    // EventDispatchingThread?
-    Map<String, Set<DrawableLight>> lightMap = drawableLightCache.get(lightSourceToken.getId());
-    if (lightMap == null) {
-      lightMap = new HashMap<String, Set<DrawableLight>>();
-      drawableLightCache.put(lightSourceToken.getId(), lightMap);
-    }
-    if (lightMap.get(sight.getName()) != null) {
-      lightMap.get(sight.getName()).addAll(lightSet);
-    } else {
-      lightMap.put(sight.getName(), lightSet);
-    }
-    Map<String, Set<Area>> brightLightMap = brightLightCache.get(lightSourceToken.getId());
-    if (brightLightMap == null) {
-      brightLightMap = new HashMap<String, Set<Area>>();
-      brightLightCache.put(lightSourceToken.getId(), brightLightMap);
-    }
-    if (brightLightMap.get(sight.getName()) != null) {
-      brightLightMap.get(sight.getName()).addAll(brightLightSet);
-    } else {
-      brightLightMap.put(sight.getName(), brightLightSet);
-    }
-    return visibleArea;
+    return new LightAreaCache.Entry(visibleArea, lightSet, brightLightSet);
   }
 
   /**
@@ -344,6 +655,19 @@ private Area calculateLightSourceArea(
    * @return the visible area of a token, including the effect of other lights.
    */
   public Area getVisibleArea(Token token) {
+    return getVisibleArea(token, takeVisionSnapshot(false), () -> false);
+  }
+
+  /**
+   * Return the token visible area from tokenVisionCache. If null, create it, unless the calculation
+   * is cancelled.
+   *
+   * @param token the token to get the visible area of.
+   * @param snapshot the state of the zone to calculate the visible area in.
+   * @param cancelled tells if the calculation was cancelled.
+   * @return the visible area of a token, or null if cancelled.
+   */
+  private Area getVisibleArea(Token token, VisionSnapshot snapshot, BooleanSupplier cancelled) {
     // Sanity
     if (token == null || !token.getHasSight()) {
       return null;
@@ -365,61 +689,53 @@ public Area getVisibleArea(Token token) {
     // Combine the player visible area with the available light sources
     tokenVisibleArea = tokenVisibleAreaCache.get(token.getId());
     if (tokenVisibleArea == null) {
+      if (cancelled.getAsBoolean()) {
+        return null;
+      }
       Point p = FogUtil.calculateVisionCenter(token, zone);
       Area visibleArea = sight.getVisionShape(token, zone);
-      tokenVisibleArea = FogUtil.calculateVisibility(p.x, p.y, visibleArea, getTopologyTree());
+      tokenVisibleArea = FogUtil.calculateVisibility(p.x, p.y, visibleArea, snapshot.topologyTree);
 
-      tokenVisibleAreaCache.put(token.getId(), tokenVisibleArea);
+      cacheIfCurrent(tokenVisibleAreaCache, token.getId(), tokenVisibleArea, cancelled);
     }
 
     // Stopwatch stopwatch = Stopwatch.createStarted();
 
     // Combine in the visible light areas
     // Jamz TODO: add condition for daylight and darkness! Currently no darkness in daylight
-    if (tokenVisibleArea != null && zone.getVisionType() == Zone.VisionType.NIGHT) {
+    if (tokenVisibleArea != null && snapshot.visionType == Zone.VisionType.NIGHT) {
       Rectangle2D origBounds = tokenVisibleArea.getBounds();
       Area peronalLightArea = new Area();
-      List<Token> lightSourceTokens = new ArrayList<Token>();
-
-      if (lightSourceMap.get(LightSource.Type.NORMAL) != null) {
-        for (GUID lightSourceTokenId : lightSourceMap.get(LightSource.Type.NORMAL)) {
-          Token lightSourceToken = zone.getToken(lightSourceTokenId);
-          if (lightSourceToken != null) {
-            lightSourceTokens.add(lightSourceToken);
-          }
-        }
-      }
+      List<Token> lightSourceTokens = new ArrayList<Token>(snapshot.lightSourceTokens);
 
       if (token.hasLightSources() && !lightSourceTokens.contains(token)) {
         // This accounts for temporary tokens (such as during an Expose Last Path)
         lightSourceTokens.add(token);
       }
 
-      // stopwatch.reset();
-      // stopwatch.start();
       // Jamz: Iterate through all tokens and combine light areas by lumens
-      CombineLightsSwingWorker workerThread =
-          new CombineLightsSwingWorker(token, lightSourceTokens);
-      workerThread.execute();
-      try {
-        workerThread
-            .get(); // Jamz: We need to wait for this thread (which spawns more threads) to finish
-        // before we go on
-      } catch (InterruptedException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      } catch (ExecutionException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      }
-
-      // log.info("CombineLightsSwingWorker: \t" + stopwatch);
+      SortedMap<Double, Area> allLightAreaMap = new ConcurrentSkipListMap<Double, Area>();
+      List<Callable<TreeMap<Double, Area>>> tasks =
+          new ArrayList<Callable<TreeMap<Double, Area>>>(lightSourceTokens.size());
+      for (Token lightSourceToken : lightSourceTokens) {
+        tasks.add(
+            new CombineLightsTask(token, lightSourceToken, allLightAreaMap, snapshot, cancelled));
+      }
+      invokeAllInVisionPool(tasks);
+      if (cancelled.getAsBoolean()) {
+        return null;
+      }
 
       // Check for personal vision and add to overall light map
       if (sight.hasPersonalLightSource()) {
         Area lightArea =
             calculatePersonalLightSourceArea(
-                sight.getPersonalLightSource(), token, sight, Direction.CENTER);
+                sight.getPersonalLightSource(),
+                token,
+                sight,
+                Direction.CENTER,
+                snapshot,
+                cancelled);
         if (lightArea != null) {
           peronalLightArea = new Area(tokenVisibleArea);
           peronalLightArea.intersect(lightArea);
@@ -452,82 +768,54 @@ public Area getVisibleArea(Token token) {
       tokenVisibleArea = allLightArea;
     }
 
-    allLightAreaMap.clear(); // Dispose of object, only needed for the scope of this method
-    tokenVisionCache.put(token.getId(), tokenVisibleArea);
+    cacheIfCurrent(tokenVisionCache, token.getId(), tokenVisibleArea, cancelled);
 
     // log.info("getVisibleArea: \t\t" + stopwatch);
 
     return tokenVisibleArea;
   }
 
-  private class CombineLightsSwingWorker extends SwingWorker<Void, List<Token>> {
-    private final Token baseToken;
-    private final List<Token> lightSourceTokens;
-    private final ExecutorService lightsThreadPool;
-    private final long startTime = System.currentTimeMillis();
-
-    private CombineLightsSwingWorker(Token baseToken, List<Token> lightSourceTokens) {
-      this.baseToken = baseToken;
-      this.lightSourceTokens = lightSourceTokens;
-      lightsThreadPool = Executors.newCachedThreadPool();
-    }
-
-    @Override
-    protected Void doInBackground() throws Exception {
-      for (Token lightSourceToken : lightSourceTokens) {
-        CombineLightsTask task = new CombineLightsTask(baseToken, lightSourceToken);
-        lightsThreadPool.submit(task);
-      }
-
-      lightsThreadPool.shutdown();
-      lightsThreadPool.awaitTermination(3, TimeUnit.MINUTES);
-
-      return null;
-    }
-
-    @Override
-    public void done() {
-      lightsThreadPool.shutdown(); // always reclaim resources just in case?
-      // System.out.println("Time to calculated lights for token: " + baseToken.getName() + ", " +
-      // (System.currentTimeMillis() - startTime) + "ms");
-
-      return;
-    }
-  }
-
   /**
    * @author Jamz
-   *     <p>A Callable task add to the ExecutorCompletionService to combine lights as a threaded
-   *     task
+   *     <p>A Callable task to combine the lights of a token as a threaded task
    */
   private final class CombineLightsTask implements Callable<TreeMap<Double, Area>> {
     private final Token baseToken;
     private final Token lightSourceToken;
-
-    private CombineLightsTask(Token baseToken, Token lightSourceToken) {
+    private final SortedMap<Double, Area> allLightAreaMap;
+    private final VisionSnapshot snapshot;
+    private final BooleanSupplier cancelled;
+
+    private CombineLightsTask(
+        Token baseToken,
+        Token lightSourceToken,
+        SortedMap<Double, Area> allLightAreaMap,
+        VisionSnapshot snapshot,
+        BooleanSupplier cancelled) {
       this.baseToken = baseToken;
       this.lightSourceToken = lightSourceToken;
+      this.allLightAreaMap = allLightAreaMap;
+      this.snapshot = snapshot;
+      this.cancelled = cancelled;
     }
 
     @Override
     public TreeMap<Double, Area> call() throws Exception {
-      TreeMap<Double, Area> lightArea = getLightSourceArea(baseToken, lightSourceToken);
+      if (cancelled.getAsBoolean()) {
+        return null;
+      }
+      TreeMap<Double, Area> lightArea =
+          getLightSourceArea(baseToken, lightSourceToken, snapshot, cancelled);
 
       for (Entry<Double, Area> light : lightArea.entrySet()) {
-        // Area tempArea = light.getValue();
         Path2D path = new Path2D.Double();
         path.append(light.getValue().getPathIterator(null, 1), false);
 
         synchronized (allLightAreaMap) {
           if (allLightAreaMap.containsKey(light.getKey())) {
-            // Area allLight = allLightAreaMap.get(light.getKey());
-            // tempArea.add(allLight);
-
             // Path2D is faster than Area it looks like
             path.append(allLightAreaMap.get(light.getKey()).getPathIterator(null, 1), false);
           }
-
-          // allLightAreaMap.put(light.getKey(), tempArea);
           allLightAreaMap.put(light.getKey(), new Area(path));
         }
       }
@@ -536,6 +824,75 @@ public TreeMap<Double, Area> call() throws Exception {
     }
   }
 
+  /**
+   * Run the tasks in the vision pool and wait for them to complete. When called from a thread of
+   * the vision pool, the calling thread takes part in running the tasks.
+   *
+   * @param tasks the tasks to run.
+   * @param <T> the type of the results.
+   * @return the results of the tasks, in order.
+   */
+  private static <T> List<T> invokeAllInVisionPool(List<Callable<T>> tasks) {
+    List<ForkJoinTask<T>> forkJoinTasks = new ArrayList<ForkJoinTask<T>>(tasks.size());
+    for (Callable<T> task : tasks) {
+      forkJoinTasks.add(ForkJoinTask.adapt(task));
+    }
+    if (ForkJoinTask.getPool() == visionPool) {
+      ForkJoinTask.invokeAll(forkJoinTasks);
+    } else {
+      visionPool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(forkJoinTasks)));
+    }
+    List<T> results = new ArrayList<T>(forkJoinTasks.size());
+    for (ForkJoinTask<T> task : forkJoinTasks) {
+      results.add(task.join());
+    }
+    return results;
+  }
+
+  /**
+   * Put the value in the cache, unless the calculation that produced it was cancelled. The check is
+   * done again after the put, in case the cache was flushed in between.
+   */
+  private static <K, V> void cacheIfCurrent(
+      Map<K, V> cache, K key, V value, BooleanSupplier cancelled) {
+    if (value == null || cancelled.getAsBoolean()) {
+      return;
+    }
+    cache.put(key, value);
+    if (cancelled.getAsBoolean()) {
+      cache.remove(key, value);
+    }
+  }
+
+  /**
+   * Add the values to the set of the token and sight type, unless the calculation that produced
+   * them was cancelled. As in {@link #cacheIfCurrent}, the check is done again after the values are
+   * added, and those this call added are taken back out if the cache was flushed in between.
+   */
+  private static <T> void addIfCurrent(
+      Map<GUID, Map<String, Set<T>>> cache,
+      GUID tokenId,
+      String sightName,
+      Set<T> values,
+      BooleanSupplier cancelled) {
+    if (cancelled.getAsBoolean()) {
+      return;
+    }
+    Set<T> set =
+        cache
+            .computeIfAbsent(tokenId, id -> new ConcurrentHashMap<String, Set<T>>())
+            .computeIfAbsent(sightName, name -> ConcurrentHashMap.newKeySet());
+    List<T> added = new ArrayList<T>(values.size());
+    for (T value : values) {
+      if (set.add(value)) {
+        added.add(value);
+      }
+    }
+    if (cancelled.getAsBoolean()) {
+      set.removeAll(added);
+    }
+  }
+
   /**
    * Get the lists of drawable light from lightSourceMap.
    *
@@ -605,7 +962,7 @@ private void findLightSources() {
             }
             Set<GUID> lightSet = lightSourceMap.get(lightSource.getType());
             if (lightSet == null) {
-              lightSet = new HashSet<GUID>();
+              lightSet = ConcurrentHashMap.newKeySet();
               lightSourceMap.put(lightSource.getType(), lightSet);
             }
             lightSet.add(token.getId());
@@ -654,12 +1011,15 @@ public Set<Area> getBrightLights() {
    * drawableLightCache, and brightLightCache.
    */
   public void flush() {
+    visionGeneration.incrementAndGet();
     tokenVisibleAreaCache.clear();
     tokenVisionCache.clear();
     lightSourceCache.clear();
     visibleAreaMap.clear();
     drawableLightCache.clear();
     brightLightCache.clear();
+    visionTokenCopies.clear();
+    lightAreaCache.logStatistics();
   }
 
   /**
@@ -670,6 +1030,7 @@ public void flush() {
    * @param token the token to flush.
    */
   public void flush(Token token) {
+    visionGeneration.incrementAndGet();
     boolean hadLightSource = lightSourceCache.get(token.getId()) != null;
 
     tokenVisionCache.remove(token.getId());
@@ -677,6 +1038,7 @@ public void flush(Token token) {
     lightSourceCache.remove(token.getId());
     drawableLightCache.remove(token.getId());
     brightLightCache.remove(token.getId());
+    visionTokenCopies.remove(token.getId());
     visibleAreaMap.clear();
 
     if (hadLightSource || token.hasLightSources()) {
@@ -700,17 +1062,113 @@ public void flush(Token token) {
    * @param view the player view.
    */
   private void calculateVisibleArea(PlayerView view) {
-    if (visibleAreaMap.get(view) != null
-        && visibleAreaMap.get(view).visibleArea.getBounds().getCenterX() != 0.0d) {
+    if (isVisibleAreaCalculated(view)) {
       return;
     }
+    long generation = visionGeneration.get();
+    List<Token> tokenList = getVisionTokens(view);
+    // The zone can't change while we wait for the vision threads, no need for copies
+    VisionSnapshot snapshot = takeVisionSnapshot(false);
+
     // Cache it
     VisibleAreaMeta meta = new VisibleAreaMeta();
-    meta.visibleArea = new Area();
-
+    meta.visibleArea = combineVisibleAreas(tokenList, snapshot, () -> false);
+    meta.generation = generation;
     visibleAreaMap.put(view, meta);
+    publishedVisibleAreaMap.put(view, meta);
+
+    // System.out.println("calculateVisibleArea: " + (System.currentTimeMillis() - startTime) +
+    // "ms");
+  }
+
+  /**
+   * @param view the player view.
+   * @return true if the visibleAreaMap entry for the view is up to date.
+   */
+  private boolean isVisibleAreaCalculated(PlayerView view) {
+    return visibleAreaMap.get(view) != null
+        && visibleAreaMap.get(view).visibleArea.getBounds().getCenterX() != 0.0d;
+  }
+
+  /**
+   * Calculate the vision of the tokens in parallel, and combine them.
+   *
+   * @param tokenList the tokens contributing to the vision.
+   * @param snapshot the state of the zone to calculate the vision in.
+   * @param cancelled tells if the calculation was cancelled.
+   * @return the combined vision of the tokens, or null if cancelled.
+   */
+  private Area combineVisibleAreas(
+      List<Token> tokenList, VisionSnapshot snapshot, BooleanSupplier cancelled) {
+    List<Callable<Area>> tasks = new ArrayList<Callable<Area>>(tokenList.size());
+    for (Token token : tokenList) {
+      tasks.add(() -> getVisibleArea(token, snapshot, cancelled));
+    }
+    List<Area> tokenVisions = invokeAllInVisionPool(tasks);
+    if (cancelled.getAsBoolean()) {
+      return null;
+    }
+    Area visibleArea = new Area();
+    for (Area tokenVision : tokenVisions) {
+      if (tokenVision != null) {
+        visibleArea.add(tokenVision);
+      }
+    }
+    return visibleArea;
+  }
+
+  /**
+   * Take what the vision threads need from the zone. Must be called from the EDT.
+   *
+   * @param copyTokens whether to copy the light source tokens, for threads running while the zone
+   *     may change.
+   * @return the snapshot.
+   */
+  private VisionSnapshot takeVisionSnapshot(boolean copyTokens) {
+    List<Token> lightSourceTokens = new ArrayList<Token>();
+    Set<GUID> lightSourceTokenIds = lightSourceMap.get(LightSource.Type.NORMAL);
+    if (lightSourceTokenIds != null) {
+      for (GUID lightSourceTokenId : lightSourceTokenIds) {
+        Token lightSourceToken = zone.getToken(lightSourceTokenId);
+        if (lightSourceToken != null) {
+          lightSourceTokens.add(lightSourceToken);
+        }
+      }
+    }
+    if (copyTokens) {
+      lightSourceTokens = copyVisionTokens(lightSourceTokens);
+    }
+    // The tree is built here, rather than from all the vision threads at once
+    AreaTree tree;
+    long version;
+    synchronized (this) {
+      tree = getTopologyTree();
+      version = topologyVersion;
+    }
+    return new VisionSnapshot(tree, version, zone.getVisionType(), lightSourceTokens);
+  }
 
-    // Calculate it
+  /**
+   * Get copies of tokens, which are kept until the tokens are flushed.
+   *
+   * @param tokens the tokens to copy.
+   * @return the copies, in the same order.
+   */
+  private List<Token> copyVisionTokens(List<Token> tokens) {
+    List<Token> copies = new ArrayList<Token>(tokens.size());
+    for (Token token : tokens) {
+      copies.add(visionTokenCopies.computeIfAbsent(token.getId(), id -> new Token(token, true)));
+    }
+    return copies;
+  }
+
+  /**
+   * Get the tokens whose vision makes up the visible area of a player view.
+   *
+   * @param view the player view.
+   * @return the list of tokens.
+   */
+  private List<Token> getVisionTokens(PlayerView view) {
     final boolean isGMview = view.isGMView();
     final boolean checkOwnership =
         MapTool.getServerPolicy().isUseIndividualViews() || MapTool.isPersonalServer();
@@ -724,6 +1182,7 @@ public boolean matchToken(Token t) {
                   }
                 });
 
+    List<Token> visionTokens = new ArrayList<Token>(tokenList.size());
     for (Token token : tokenList) {
       boolean weOwnIt = AppUtil.playerOwns(token);
       // Permission
@@ -741,14 +1200,9 @@ public boolean matchToken(Token t) {
       if (token.isVisibleOnlyToOwner() && !weOwnIt) {
         continue;
       }
-      Area tokenVision = getVisibleArea(token);
-      if (tokenVision != null) {
-        meta.visibleArea.add(tokenVision);
-      }
+      visionTokens.add(token);
     }
-
-    // System.out.println("calculateVisibleArea: " + (System.currentTimeMillis() - startTime) +
-    // "ms");
+    return visionTokens;
   }
 
   /**
@@ -767,12 +1221,12 @@ public void modelChanged(ModelChangeEvent event) {
           @SuppressWarnings("unchecked")
           List<Token> list = (List<Token>) (event.getArg());
           for (Token token : list) {
-            if (token.hasVBL()) tokenChangedVBL = true;
+            if (isVBLToken(token)) tokenChangedVBL = true;
             flush(token);
           }
         } else {
           final Token token = (Token) event.getArg();
-          if (token.hasVBL()) tokenChangedVBL = true;
+          if (isVBLToken(token)) tokenChangedVBL = true;
           flush(token);
         }
         // Ug, stupid hack here, can't find a bug where if a NPC token is moved before lights are
@@ -790,7 +1244,7 @@ public void modelChanged(ModelChangeEvent event) {
           tokens = (List<Token>) o;
         }
 
-        tokenChangedVBL = processTokenAddChangeEvent(tokens);
+        tokenChangedVBL |= processTokenAddChangeEvent(tokens);
       }
 
       if (evt == Zone.Event.TOKEN_REMOVED) {
@@ -804,7 +1258,7 @@ public void modelChanged(ModelChangeEvent event) {
         }
 
         for (Token token : tokens) {
-          if (token.hasVBL()) tokenChangedVBL = true;
+          if (isVBLToken(token)) tokenChangedVBL = true;
           for (AttachedLightSource als : token.getLightSources()) {
             LightSource lightSource = MapTool.getCampaign().getLightSource(als.getLightSourceId());
             if (lightSource == null) {
@@ -821,12 +1275,21 @@ public void modelChanged(ModelChangeEvent event) {
       // Moved this event to the bottom so we can check the other events
       // since if a token that has VBL is added/removed/edited (rotated/moved/etc)
       // it should also trip a Topology change
-      if (evt == Zone.Event.TOPOLOGY_CHANGED || tokenChangedVBL) {
+      boolean topologyChanged = false;
+      if (evt == Zone.Event.TOPOLOGY_CHANGED) {
+        Object arg = event.getArg();
+        topologyChanged =
+            zoneTopologyChanged(
+                arg instanceof Zone.TopologyChange ? (Zone.TopologyChange) arg : null);
+      } else if (tokenChangedVBL) {
+        Object arg = event.getArg();
+        tokenTopologyChanged(arg instanceof Token ? List.of((Token) arg) : (List<Token>) arg);
+        topologyChanged = true;
+      }
+      if (topologyChanged) {
         tokenVisionCache.clear();
         lightSourceCache.clear();
         visibleAreaMap.clear();
-        topologyTree = null;
-        tokenTopology = null;
         tokenVisibleAreaCache.clear();
 
         // topologyAreaData = null; // Jamz: This isn't used, probably never completed code.
@@ -856,7 +1319,7 @@ private boolean processTokenAddChangeEvent(List<Token> tokens) {
           Set<GUID> lightSet = lightSourceMap.get(lightSource.getType());
           if (hasLightSource) {
             if (lightSet == null) {
-              lightSet = new HashSet<GUID>();
+              lightSet = ConcurrentHashMap.newKeySet();
               lightSourceMap.put(lightSource.getType(), lightSet);
             }
             lightSet.add(token.getId());
@@ -871,8 +1334,31 @@ private boolean processTokenAddChangeEvent(List<Token> tokens) {
     return hasVBL;
   }
 
-  /** Has a single field: the visibleArea area */
+  /**
+   * What the vision calculation reads from the zone. The topology tree is never modified, and the
+   * tokens are copies when the calculation runs while the zone may change.
+   */
+  private static final class VisionSnapshot {
+    private final AreaTree topologyTree;
+    private final long topologyVersion;
+    private final Zone.VisionType visionType;
+    private final List<Token> lightSourceTokens;
+
+    private VisionSnapshot(
+        AreaTree topologyTree,
+        long topologyVersion,
+        Zone.VisionType visionType,
+        List<Token> lightSourceTokens) {
+      this.topologyTree = topologyTree;
+      this.topologyVersion = topologyVersion;
+      this.visionType = visionType;
+      this.lightSourceTokens = lightSourceTokens;
+    }
+  }
+
+  /** Holds the visibleArea area, and the vision generation it was calculated for */
   private static class VisibleAreaMeta {
     Area visibleArea;
+    long generation;
   }
 }
@@ -59,6 +59,10 @@ public void addOcean(AreaOcean ocean) {
     oceanSet.add(ocean);
   }
 
+  AreaMeta getMeta() {
+    return meta;
+  }
+
   ////
   // AREA CONTAINER
   public Area getBounds() {
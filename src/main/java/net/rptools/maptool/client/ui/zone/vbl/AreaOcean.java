@@ -24,6 +24,9 @@ public class AreaOcean implements AreaContainer {
   private AreaMeta meta;
   private Set<AreaIsland> islandSet = new HashSet<AreaIsland>();
 
+  /** The faces bounding this ocean, extracted once for {@link VisibilitySweep}. */
+  private volatile double[] edges;
+
   public AreaOcean(AreaMeta meta) {
     this.meta = meta;
   }
@@ -75,6 +78,43 @@ public Set<AreaIsland> getIslands() {
 
   public void addIsland(AreaIsland island) {
     islandSet.add(island);
+    edges = null;
+  }
+
+  /**
+   * Get the faces which can block the sight from inside this ocean: the boundary of the ocean and
+   * the outer boundaries of its islands.
+   *
+   * @return the faces, as consecutive x1, y1, x2, y2 coordinates
+   */
+  double[] getEdges() {
+    double[] result = edges;
+    if (result == null) {
+      int count = meta != null ? meta.faceList.size() : 0;
+      for (AreaIsland island : islandSet) {
+        count += island.getMeta().faceList.size();
+      }
+      result = new double[count * 4];
+      int i = 0;
+      if (meta != null) {
+        i = addEdges(meta, result, i);
+      }
+      for (AreaIsland island : islandSet) {
+        i = addEdges(island.getMeta(), result, i);
+      }
+      edges = result;
+    }
+    return result;
+  }
+
+  private static int addEdges(AreaMeta meta, double[] edges, int i) {
+    for (AreaFace face : meta.faceList) {
+      edges[i++] = face.getP1().getX();
+      edges[i++] = face.getP1().getY();
+      edges[i++] = face.getP2().getX();
+      edges[i++] = face.getP2().getY();
+    }
+    return i;
   }
 
   ////
@@ -14,22 +14,37 @@
  */
 package net.rptools.maptool.client.ui.zone.vbl;
 
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.geom.Area;
 import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import net.rptools.maptool.util.GraphicsUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-/** Class digesting a VBL area into an AreaOcean. */
+/**
+ * Class digesting a VBL area into an AreaOcean.
+ *
+ * <p>The tree can also be built from the area split into square tiles, each tile digested on its
+ * own. The islands crossing the bounds of the tiles are then cut into pieces, which block the sight
+ * in the same way. A change of the area then only digests again the tiles it touches.
+ */
 public class AreaTree {
   private static final Logger log = LogManager.getLogger(AreaTree.class);
+  /** The width and height of the tiles. */
+  public static final int TILE_SIZE = 1024;
   /** The original area digested. */
   private AreaOcean theOcean;
   /** The original area, in case we want to return the original area undigested */
   private Area theArea;
+  /** The top level islands of each tile, when the tree is built from tiles. */
+  private Map<Point, List<AreaIsland>> tileIslands;
 
   /**
    * Digest the area and store it in theOcean.
@@ -40,6 +55,133 @@ public AreaTree(Area area) {
     digest(area);
   }
 
+  /**
+   * Digest each tile of an area, and join their islands in theOcean.
+   *
+   * @param tiles the part of the area inside each tile, as returned by {@link #splitIntoTiles}.
+   */
+  public AreaTree(Map<Point, Area> tiles) {
+    tileIslands = new HashMap<Point, List<AreaIsland>>();
+    for (Map.Entry<Point, Area> entry : tiles.entrySet()) {
+      digestTile(entry.getKey(), entry.getValue());
+    }
+    theOcean = joinTiles();
+  }
+
+  private AreaTree() {}
+
+  /**
+   * Create the tree of an area which only differs from the area of this tree inside the given
+   * tiles. Only these tiles are digested, the islands of the other tiles are shared with the new
+   * tree. This tree is not modified.
+   *
+   * @param changedTiles the new part of the area inside each changed tile, empty if none.
+   * @return the tree of the new area.
+   * @throws IllegalStateException if this tree wasn't built from tiles.
+   */
+  public AreaTree update(Map<Point, Area> changedTiles) {
+    if (tileIslands == null) {
+      throw new IllegalStateException("The tree wasn't built from tiles");
+    }
+    AreaTree tree = new AreaTree();
+    tree.tileIslands = new HashMap<Point, List<AreaIsland>>(tileIslands);
+    for (Map.Entry<Point, Area> entry : changedTiles.entrySet()) {
+      tree.digestTile(entry.getKey(), entry.getValue());
+    }
+    tree.theOcean = tree.joinTiles();
+    return tree;
+  }
+
+  /**
+   * Split an area into the tiles it covers.
+   *
+   * @param area the area to split. It is not modified.
+   * @return the non empty part of the area inside each tile.
+   */
+  public static Map<Point, Area> splitIntoTiles(Area area) {
+    Map<Point, Area> tiles = new HashMap<Point, Area>();
+    if (!area.isEmpty()) {
+      Rectangle range = getTileRange(area.getBounds2D());
+      split(clip(area, range), range, tiles);
+    }
+    return tiles;
+  }
+
+  /**
+   * Split an area in halves until each part is inside a single tile. Each level of the recursion
+   * clips the whole area once, rather than once for every tile.
+   */
+  private static void split(Area area, Rectangle range, Map<Point, Area> tiles) {
+    if (area.isEmpty()) {
+      return;
+    }
+    if (range.width == 1 && range.height == 1) {
+      tiles.put(range.getLocation(), area);
+      return;
+    }
+    Rectangle first = new Rectangle(range);
+    Rectangle second = new Rectangle(range);
+    if (range.width >= range.height) {
+      first.width = range.width / 2;
+      second.x += first.width;
+      second.width -= first.width;
+    } else {
+      first.height = range.height / 2;
+      second.y += first.height;
+      second.height -= first.height;
+    }
+    split(clip(area, first), first, tiles);
+    split(clip(area, second), second, tiles);
+  }
+
+  /**
+   * @param bounds the bounds.
+   * @return the tiles touching the bounds, or none if the bounds are empty.
+   */
+  public static List<Point> getTiles(Rectangle2D bounds) {
+    List<Point> tiles = new ArrayList<Point>();
+    if (bounds.isEmpty()) {
+      return tiles;
+    }
+    Rectangle range = getTileRange(bounds);
+    for (int x = range.x; x < range.x + range.width; x++) {
+      for (int y = range.y; y < range.y + range.height; y++) {
+        tiles.add(new Point(x, y));
+      }
+    }
+    return tiles;
+  }
+
+  /**
+   * @param area the area. It is not modified.
+   * @param tile the tile.
+   * @return the part of the area inside the tile.
+   */
+  public static Area clipToTile(Area area, Point tile) {
+    return clip(area, new Rectangle(tile.x, tile.y, 1, 1));
+  }
+
+  private static Area clip(Area area, Rectangle range) {
+    Area clipped =
+        new Area(
+            new Rectangle(
+                range.x * TILE_SIZE,
+                range.y * TILE_SIZE,
+                range.width * TILE_SIZE,
+                range.height * TILE_SIZE));
+    clipped.intersect(area);
+    return clipped;
+  }
+
+  /** @return the range of tiles touching the bounds. */
+  private static Rectangle getTileRange(Rectangle2D bounds) {
+    int minX = (int) Math.floor(bounds.getMinX() / TILE_SIZE);
+    int minY = (int) Math.floor(bounds.getMinY() / TILE_SIZE);
+    int maxX = (int) Math.floor(bounds.getMaxX() / TILE_SIZE);
+    int maxY = (int) Math.floor(bounds.getMaxY() / TILE_SIZE);
+    return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+  }
+
   public AreaOcean getOceanAt(Point2D point) {
     return theOcean.getDeepestOceanAt(point);
   }
@@ -49,6 +191,7 @@ AreaOcean getOcean() {
     return theOcean;
   }
 
+  /** @return the area digested, or null if the tree was built from tiles. */
   public Area getArea() {
     return theArea;
   }
@@ -59,17 +202,53 @@ private void digest(Area area) {
     }
 
     theArea = area;
+    theOcean = buildOcean(area);
+  }
+
+  /** Digest the part of the area inside a tile, or drop the tile if the part is empty. */
+  private void digestTile(Point tile, Area area) {
+    if (area == null || area.isEmpty()) {
+      tileIslands.remove(tile);
+    } else {
+      tileIslands.put(tile, new ArrayList<AreaIsland>(buildOcean(area).getIslands()));
+    }
+  }
 
+  /**
+   * Put the top level islands of all the tiles in the global ocean. An ocean of a tile is inside
+   * that tile, so it can't hold islands of other tiles.
+   */
+  private AreaOcean joinTiles() {
+    AreaOcean globalOcean = new AreaOcean(null);
+    for (List<AreaIsland> islands : tileIslands.values()) {
+      for (AreaIsland island : islands) {
+        globalOcean.addIsland(island);
+      }
+    }
+    return globalOcean;
+  }
+
+  /**
+   * Digest the parts of an area into an ocean holding their hierarchy.
+   *
+   * @param area the area to digest.
+   * @return the global ocean.
+   */
+  private AreaOcean buildOcean(Area area) {
     List<AreaOcean> oceanList = new ArrayList<AreaOcean>();
     List<AreaIsland> islandList = new ArrayList<AreaIsland>();
 
     // Break the big area into independent areas
     float[] coords = new float[6];
-    AreaMeta areaMeta = new AreaMeta();
+    List<float[]> points = new ArrayList<float[]>();
     for (PathIterator iter = area.getPathIterator(null); !iter.isDone(); iter.next()) {
       int type = iter.currentSegment(coords);
       switch (type) {
         case PathIterator.SEG_CLOSE:
+          AreaMeta areaMeta = new AreaMeta();
+          for (float[] point : points) {
+            areaMeta.addPoint(point[0], point[1]);
+          }
           areaMeta.close();
 
           // Holes are oceans, solids are islands
@@ -80,11 +259,11 @@ private void digest(Area area) {
           }
           break;
         case PathIterator.SEG_LINETO:
-          areaMeta.addPoint(coords[0], coords[1]);
+          points.add(new float[] {coords[0], coords[1]});
           break;
         case PathIterator.SEG_MOVETO:
-          areaMeta = new AreaMeta();
-          areaMeta.addPoint(coords[0], coords[1]);
+          points.clear();
+          points.add(new float[] {coords[0], coords[1]});
           break;
       }
     }
@@ -112,10 +291,11 @@ private void digest(Area area) {
     }
 
     // Now we have our hierarchy, just hook up the global space
-    theOcean = new AreaOcean(null);
+    AreaOcean globalOcean = new AreaOcean(null);
     for (AreaIsland island : globalIslandList) {
-      theOcean.addIsland(island);
+      globalOcean.addIsland(island);
     }
+    return globalOcean;
   }
 
   private <T extends AreaContainer> T findSmallestContainer(AreaContainer item, List<T> list) {
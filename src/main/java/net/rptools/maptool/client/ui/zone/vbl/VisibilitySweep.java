@@ -0,0 +1,307 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import java.awt.Point;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+/**
+ * Calculates the visibility from a point with an angular sweep over the faces of the ocean the
+ * point is in. The faces are swept in order of their angle around the origin, keeping track of the
+ * faces crossed by the current ray, which gives a single visibility polygon. The vision is then
+ * clipped by that polygon, instead of subtracting the shadow of each face from it.
+ */
+public class VisibilitySweep {
+
+  private VisibilitySweep() {}
+
+  /**
+   * Return the visible area for an origin, a lightSourceArea and a VBL.
+   *
+   * @param x the x vision origin.
+   * @param y the y vision origin.
+   * @param vision the lightSourceArea.
+   * @param topology the VBL topology.
+   * @return the visible area, or null if the origin is inside VBL.
+   */
+  public static Area calculateVisibility(int x, int y, Area vision, AreaTree topology) {
+    Area visibleArea = new Area(vision);
+    visibleArea.transform(AffineTransform.getTranslateInstance(x, y));
+
+    AreaOcean ocean = topology.getOceanAt(new Point(x, y));
+    if (ocean == null) {
+      return null;
+    }
+
+    // Only the faces between the origin and the vision can block it
+    Rectangle2D bounds = visibleArea.getBounds2D();
+    bounds.add(x, y);
+    bounds.setRect(
+        bounds.getX() - 1, bounds.getY() - 1, bounds.getWidth() + 2, bounds.getHeight() + 2);
+
+    visibleArea.intersect(new Area(getVisibilityPolygon(x, y, ocean.getEdges(), bounds)));
+    return visibleArea;
+  }
+
+  /**
+   * Calculate the polygon visible from the origin, limited to the bounds.
+   *
+   * @param ox the x of the origin.
+   * @param oy the y of the origin.
+   * @param edges the faces blocking the sight, as consecutive x1, y1, x2, y2 coordinates.
+   * @param bounds the bounds of the polygon. Must contain the origin.
+   * @return the visibility polygon.
+   */
+  static Path2D getVisibilityPolygon(double ox, double oy, double[] edges, Rectangle2D bounds) {
+    Segments segments = new Segments(ox, oy, edges.length / 4 + 4);
+    double[] clipped = new double[4];
+    for (int i = 0; i < edges.length; i += 4) {
+      if (clip(edges, i, bounds, clipped)) {
+        segments.add(clipped[0], clipped[1], clipped[2], clipped[3]);
+      }
+    }
+    // The bounds stop every ray which doesn't meet a face
+    double minX = bounds.getMinX();
+    double minY = bounds.getMinY();
+    double maxX = bounds.getMaxX();
+    double maxY = bounds.getMaxY();
+    segments.add(minX, minY, maxX, minY);
+    segments.add(maxX, minY, maxX, maxY);
+    segments.add(maxX, maxY, minX, maxY);
+    segments.add(minX, maxY, minX, minY);
+
+    return segments.sweep();
+  }
+
+  /**
+   * Clip a face to the bounds, with the Liang-Barsky algorithm.
+   *
+   * @param edges the faces.
+   * @param i the index of the face in edges.
+   * @param bounds the bounds.
+   * @param result receives the clipped face.
+   * @return false if the face is entirely out of the bounds.
+   */
+  private static boolean clip(double[] edges, int i, Rectangle2D bounds, double[] result) {
+    double x1 = edges[i];
+    double y1 = edges[i + 1];
+    double x2 = edges[i + 2];
+    double y2 = edges[i + 3];
+    if (Math.max(x1, x2) < bounds.getMinX()
+        || Math.min(x1, x2) > bounds.getMaxX()
+        || Math.max(y1, y2) < bounds.getMinY()
+        || Math.min(y1, y2) > bounds.getMaxY()) {
+      return false;
+    }
+    double dx = x2 - x1;
+    double dy = y2 - y1;
+    double[] p = {-dx, dx, -dy, dy};
+    double[] q = {
+      x1 - bounds.getMinX(), bounds.getMaxX() - x1, y1 - bounds.getMinY(), bounds.getMaxY() - y1
+    };
+    double t0 = 0;
+    double t1 = 1;
+    for (int k = 0; k < 4; k++) {
+      if (p[k] == 0) {
+        if (q[k] < 0) {
+          return false;
+        }
+      } else {
+        double t = q[k] / p[k];
+        if (p[k] < 0) {
+          t0 = Math.max(t0, t);
+        } else {
+          t1 = Math.min(t1, t);
+        }
+      }
+    }
+    if (t0 > t1) {
+      return false;
+    }
+    result[0] = t0 == 0 ? x1 : x1 + t0 * dx;
+    result[1] = t0 == 0 ? y1 : y1 + t0 * dy;
+    result[2] = t1 == 1 ? x2 : x1 + t1 * dx;
+    result[3] = t1 == 1 ? y2 : y1 + t1 * dy;
+    return true;
+  }
+
+  /**
+   * The faces around the origin, oriented so that the sweep meets their first point first, with the
+   * angles of their points.
+   */
+  private static class Segments {
+    private final double ox;
+    private final double oy;
+    private int size;
+    private double[] coords;
+    private double[] beginAngles;
+    private double[] endAngles;
+
+    Segments(double ox, double oy, int capacity) {
+      this.ox = ox;
+      this.oy = oy;
+      coords = new double[capacity * 4];
+      beginAngles = new double[capacity];
+      endAngles = new double[capacity];
+    }
+
+    void add(double x1, double y1, double x2, double y2) {
+      double cross = (x1 - ox) * (y2 - oy) - (y1 - oy) * (x2 - ox);
+      if (cross == 0) {
+        // Seen edge-on, doesn't hide anything
+        return;
+      }
+      if (cross < 0) {
+        // Counter clockwise around the origin
+        double tx = x1;
+        double ty = y1;
+        x1 = x2;
+        y1 = y2;
+        x2 = tx;
+        y2 = ty;
+      }
+      double beginAngle = Math.atan2(y1 - oy, x1 - ox);
+      double endAngle = Math.atan2(y2 - oy, x2 - ox);
+      if (beginAngle == endAngle) {
+        return;
+      }
+      if (size == beginAngles.length) {
+        coords = Arrays.copyOf(coords, size * 8);
+        beginAngles = Arrays.copyOf(beginAngles, size * 2);
+        endAngles = Arrays.copyOf(endAngles, size * 2);
+      }
+      coords[size * 4] = x1;
+      coords[size * 4 + 1] = y1;
+      coords[size * 4 + 2] = x2;
+      coords[size * 4 + 3] = y2;
+      beginAngles[size] = beginAngle;
+      endAngles[size] = endAngle;
+      size++;
+    }
+
+    /** @return the visibility polygon */
+    Path2D sweep() {
+      // Each event is a segment entering (even) or leaving (odd) the ray
+      Integer[] events = new Integer[size * 2];
+      for (int i = 0; i < events.length; i++) {
+        events[i] = i;
+      }
+      Arrays.sort(events, (a, b) -> Double.compare(eventAngle(a), eventAngle(b)));
+
+      // Segments crossed by the ray, starting at the angle of -PI
+      int[] active = new int[size];
+      int[] activeIndex = new int[size];
+      Arrays.fill(activeIndex, -1);
+      int activeCount = 0;
+      for (int s = 0; s < size; s++) {
+        if (endAngles[s] < beginAngles[s]) {
+          activeIndex[s] = activeCount;
+          active[activeCount++] = s;
+        }
+      }
+
+      Path2D polygon = new Path2D.Double();
+      boolean first = true;
+      int e = 0;
+      while (e < events.length) {
+        double angle = eventAngle(events[e]);
+        for (; e < events.length && eventAngle(events[e]) == angle; e++) {
+          int s = events[e] / 2;
+          if (events[e] % 2 == 0) {
+            if (activeIndex[s] < 0) {
+              activeIndex[s] = activeCount;
+              active[activeCount++] = s;
+            }
+          } else if (activeIndex[s] >= 0) {
+            int last = active[--activeCount];
+            active[activeIndex[s]] = last;
+            activeIndex[last] = activeIndex[s];
+            activeIndex[s] = -1;
+          }
+        }
+        double nextAngle =
+            e < events.length ? eventAngle(events[e]) : eventAngle(events[0]) + 2 * Math.PI;
+
+        // The closest segment stays the same until the next event
+        double midAngle = (angle + nextAngle) / 2;
+        double midCos = Math.cos(midAngle);
+        double midSin = Math.sin(midAngle);
+        int closest = -1;
+        double closestDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < activeCount; i++) {
+          double distance = distanceTo(active[i], midCos, midSin);
+          if (distance < closestDistance) {
+            closestDistance = distance;
+            closest = active[i];
+          }
+        }
+        if (closest < 0) {
+          continue;
+        }
+        double[] p = pointOn(closest, angle);
+        if (first) {
+          polygon.moveTo(p[0], p[1]);
+          first = false;
+        } else {
+          polygon.lineTo(p[0], p[1]);
+        }
+        p = pointOn(closest, nextAngle);
+        polygon.lineTo(p[0], p[1]);
+      }
+      polygon.closePath();
+      return polygon;
+    }
+
+    private double eventAngle(int event) {
+      return event % 2 == 0 ? beginAngles[event / 2] : endAngles[event / 2];
+    }
+
+    /** @return the distance from the origin to the line of the segment, along the ray */
+    private double distanceTo(int s, double cos, double sin) {
+      double x1 = coords[s * 4];
+      double y1 = coords[s * 4 + 1];
+      double dx = coords[s * 4 + 2] - x1;
+      double dy = coords[s * 4 + 3] - y1;
+      double denominator = cos * dy - sin * dx;
+      if (denominator == 0) {
+        return Double.POSITIVE_INFINITY;
+      }
+      double distance = ((x1 - ox) * dy - (y1 - oy) * dx) / denominator;
+      return distance < 0 ? Double.POSITIVE_INFINITY : distance;
+    }
+
+    /** @return the point where the ray at the angle meets the line of the segment */
+    private double[] pointOn(int s, double angle) {
+      double cos = Math.cos(angle);
+      double sin = Math.sin(angle);
+      double distance = distanceTo(s, cos, sin);
+      if (Double.isInfinite(distance)) {
+        // Parallel to the ray, use the closest end of the segment
+        double x1 = coords[s * 4];
+        double y1 = coords[s * 4 + 1];
+        double x2 = coords[s * 4 + 2];
+        double y2 = coords[s * 4 + 3];
+        return Math.hypot(x1 - ox, y1 - oy) < Math.hypot(x2 - ox, y2 - oy)
+            ? new double[] {x1, y1}
+            : new double[] {x2, y2};
+      }
+      return new double[] {ox + distance * cos, oy + distance * sin};
+    }
+  }
+}
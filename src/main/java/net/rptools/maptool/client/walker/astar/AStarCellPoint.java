@@ -33,8 +33,17 @@ public class AStarCellPoint extends CellPoint implements Comparable<AStarCellPoi
   double terrainModifier;
   TerrainModifierOperation terrainModifierOperation;
 
-  // Store if it's valid to move from Point2D to this cell.
-  HashMap<Point2D, Boolean> validMoves = new HashMap<Point2D, Boolean>();
+  /** The place of the node in the open set, -1 if not in it. See {@link AStarOpenSet}. */
+  int heapIndex = -1;
+
+  /** When the node was added to the open set, to order the nodes of the same cost. */
+  long order;
+
+  /** Whether the node can't be entered anymore, as it was visited or is blocked. */
+  boolean closed;
+
+  // Store if it's valid to move from Point2D to this cell. Created when the first move is stored.
+  HashMap<Point2D, Boolean> validMoves;
 
   public AStarCellPoint() {
     super(0, 0);
@@ -70,23 +79,29 @@ public Point2D toCenterPoint(Zone zone) {
   // To store as a map of valid moves, true if you can move into this cellpoint from another
   // cellpoint
   public void setValidMove(Point2D key, boolean value) {
+    if (validMoves == null) {
+      validMoves = new HashMap<Point2D, Boolean>();
+    }
     validMoves.put(key, value);
   }
 
   public Boolean isValidMove(Point2D key) {
-    return validMoves.get(key);
+    return validMoves == null ? null : validMoves.get(key);
   }
 
   public void setValidMove(AStarCellPoint key, boolean value) {
-    validMoves.put(key.toPoint(), value);
+    setValidMove(key.toPoint(), value);
   }
 
   public Boolean isValidMove(AStarCellPoint key) {
-    return validMoves.get(key.toPoint());
+    return isValidMove(key.toPoint());
   }
 
   public Set<Point2D> getValidMoves() {
     Set<Point2D> validMovePoints = new HashSet<Point2D>();
+    if (validMoves == null) {
+      return validMovePoints;
+    }
 
     for (Entry<Point2D, Boolean> entry : validMoves.entrySet()) {
       if (entry.getValue()) {
@@ -105,6 +120,9 @@ public Shape getValidMoveShape(Zone zone) {
     Rectangle cellBounds = zone.getGrid().getBounds(this);
     double x1 = cellBounds.getCenterX();
     double y1 = cellBounds.getCenterY();
+    if (validMoves == null) {
+      return validMoveShape;
+    }
 
     for (Entry<Point2D, Boolean> entry : validMoves.entrySet()) {
       validMoveShape.moveTo(x1, y1);
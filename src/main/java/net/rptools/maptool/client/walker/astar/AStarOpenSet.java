@@ -0,0 +1,153 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import java.util.Arrays;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * The open set of an A* search: a binary min-heap of the nodes by F cost. Each node knows its place
+ * in the heap, so that its cost can be lowered without searching for it.
+ *
+ * <p>Of the nodes with the same F cost, the last one added comes out first.
+ */
+final class AStarOpenSet {
+
+  private AStarCellPoint[] heap = new AStarCellPoint[64];
+  private int size;
+
+  /** The number of nodes added so far, to order the nodes with the same cost. */
+  private long added;
+
+  /** @return true if there are no more nodes to visit */
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** @return the number of nodes to visit */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @param node the node
+   * @return true if the node is waiting to be visited
+   */
+  boolean contains(AStarCellPoint node) {
+    return node.heapIndex >= 0;
+  }
+
+  /** @param node the node to visit, not in the set yet */
+  void add(AStarCellPoint node) {
+    if (size == heap.length) {
+      heap = Arrays.copyOf(heap, size * 2);
+    }
+    node.order = added++;
+    heap[size] = node;
+    node.heapIndex = size;
+    size++;
+    siftUp(node.heapIndex);
+  }
+
+  /** @return the node with the lowest F cost, removed from the set */
+  AStarCellPoint poll() {
+    AStarCellPoint first = heap[0];
+    first.heapIndex = -1;
+    size--;
+    AStarCellPoint last = heap[size];
+    heap[size] = null;
+    if (size > 0) {
+      heap[0] = last;
+      last.heapIndex = 0;
+      siftDown(0);
+    }
+    return first;
+  }
+
+  /**
+   * Put a node back in its place once its cost was lowered.
+   *
+   * @param node the node, in the set
+   */
+  void decreaseKey(AStarCellPoint node) {
+    siftUp(node.heapIndex);
+  }
+
+  /**
+   * Give new H costs to all the nodes, as when the goal of the search moved, and put the nodes back
+   * in order.
+   *
+   * @param hScore the new H cost of a node
+   */
+  void rescore(ToDoubleFunction<AStarCellPoint> hScore) {
+    for (int i = 0; i < size; i++) {
+      heap[i].h = hScore.applyAsDouble(heap[i]);
+    }
+    for (int i = (size >>> 1) - 1; i >= 0; i--) {
+      siftDown(i);
+    }
+  }
+
+  /** Remove all the nodes. */
+  void clear() {
+    for (int i = 0; i < size; i++) {
+      heap[i].heapIndex = -1;
+      heap[i] = null;
+    }
+    size = 0;
+  }
+
+  private void siftUp(int index) {
+    AStarCellPoint node = heap[index];
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      if (!before(node, heap[parent])) {
+        break;
+      }
+      place(heap[parent], index);
+      index = parent;
+    }
+    place(node, index);
+  }
+
+  private void siftDown(int index) {
+    AStarCellPoint node = heap[index];
+    int half = size >>> 1;
+    while (index < half) {
+      int child = 2 * index + 1;
+      int right = child + 1;
+      if (right < size && before(heap[right], heap[child])) {
+        child = right;
+      }
+      if (!before(heap[child], node)) {
+        break;
+      }
+      place(heap[child], index);
+      index = child;
+    }
+    place(node, index);
+  }
+
+  private void place(AStarCellPoint node, int index) {
+    heap[index] = node;
+    node.heapIndex = index;
+  }
+
+  /** @return true if the first node is to be visited before the second */
+  private static boolean before(AStarCellPoint a, AStarCellPoint b) {
+    int compare = Double.compare(a.fCost(), b.fCost());
+    return compare < 0 || (compare == 0 && a.order > b.order);
+  }
+}
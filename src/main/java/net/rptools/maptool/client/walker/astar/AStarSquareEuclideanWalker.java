@@ -79,6 +79,13 @@ protected double getDiagonalMultiplier(int[] neighborArray) {
     else return 1;
   }
 
+  @Override
+  protected boolean canCarryOnSearch() {
+    // The cost of a 1-2-1 diagonal depends on the diagonals before it, which isn't told apart by
+    // the cell of a node, so the costs found depend on the order the nodes are visited in
+    return metric != WalkerMetric.ONE_TWO_ONE;
+  }
+
   private double metricDistance(CellPoint current, CellPoint goal) {
     int xDist = current.x - goal.x;
     int yDist = current.y - goal.y;
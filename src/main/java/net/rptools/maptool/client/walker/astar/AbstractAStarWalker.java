@@ -21,21 +21,25 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.walker.AbstractZoneWalker;
 import net.rptools.maptool.model.CellPoint;
 import net.rptools.maptool.model.Label;
+import net.rptools.maptool.model.PassabilityGrid;
+import net.rptools.maptool.model.TerrainCostField;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Token.TerrainModifierOperation;
 import net.rptools.maptool.model.TokenFootprint;
 import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.util.LongMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.locationtech.jts.awt.ShapeReader;
@@ -47,6 +51,10 @@
 public abstract class AbstractAStarWalker extends AbstractZoneWalker {
 
   private static final Logger log = LogManager.getLogger(AbstractAStarWalker.class);
+
+  /** The goals farther than this, in cells, from the last one start a new search. */
+  private static final int MAX_REPLAN_DISTANCE = 2;
+
   private final GeometryFactory geometryFactory = new GeometryFactory();
   // private List<GUID> debugLabels;
   protected int crossX = 0;
@@ -57,27 +65,27 @@ public abstract class AbstractAStarWalker extends AbstractZoneWalker {
   private double distance = -1;
   private ShapeReader shapeReader = new ShapeReader(geometryFactory);
   private Geometry vblGeometry = null;
+  private PassabilityGrid vblPassability;
+  private PassabilityGrid mblPassability;
   // private long avgRetrieveTime;
   // private long avgTestTime;
   // private long retrievalCount;
   // private long testCount;
   private TokenFootprint footprint = new TokenFootprint();
   private Map<AStarCellPoint, AStarCellPoint> checkedList = new ConcurrentHashMap<>();
-  private List<AStarCellPoint> terrainCells = new ArrayList<>();
+  private final TerrainCostField terrainCosts;
+
+  /**
+   * The last search, if it can be carried on. See {@link Search}. Paths are calculated both on the
+   * EDT and on the RenderPathWorker, so a search is taken out before being carried on.
+   */
+  private final AtomicReference<Search> lastSearch = new AtomicReference<>();
 
   public AbstractAStarWalker(Zone zone) {
     super(zone);
 
-    // Get tokens on map that may affect movement
-    for (Token token : zone.getTokensWithTerrainModifiers()) {
-      // log.info("Token: " + token.getName() + ", " + token.getTerrainModifier());
-      Set<CellPoint> cells = token.getOccupiedCells(zone.getGrid());
-      for (CellPoint cell : cells) {
-        terrainCells.add(
-            new AStarCellPoint(
-                cell, token.getTerrainModifier(), token.getTerrainModifierOperation()));
-      }
-    }
+    // Get the modifiers of the tokens on map that may affect movement
+    terrainCosts = zone.getTerrainCostField();
   }
 
   /**
@@ -122,58 +130,54 @@ protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
     crossX = start.x - goal.x;
     crossY = start.y - goal.y;
 
-    List<AStarCellPoint> openList = new ArrayList<>();
-    Map<AStarCellPoint, AStarCellPoint> openSet = new HashMap<>(); // For faster lookups
-    Set<AStarCellPoint> closedSet = new HashSet<>();
-
     // Current fail safe... bail out after 10 seconds of searching just in case, shouldn't hang UI
     // as this is off the AWT thread
     long timeOut = System.currentTimeMillis();
-    double estimatedTimeoutNeeded = 10000;
+    double estimatedTimeoutNeeded = getSearchTimeout();
 
     // if (start.equals(end))
     // log.info("NO WORK!");
 
-    openList.add(new AStarCellPoint(start));
-    openSet.put(openList.get(0), openList.get(0));
-
-    AStarCellPoint currentNode = null;
-
-    // Get current VBL for map...
+    // The VBL and MBL of the zone are checked against the passability grids of the zone, shared by
+    // all the walkers. Only the VBL of the tokens, which moves with them, is read for each path.
     // Using JTS because AWT Area can only intersect with Area and we want to use simple lines here.
-    // Render VBL to Geometry class once and store.
-    // Note: zoneRenderer will be null if map is not visible to players.
-    if (MapTool.getFrame().getCurrentZoneRenderer() != null) {
+    // Render VBL to Geometry class once and store, until the VBL of the tokens changes.
+    vblPassability = null;
+    mblPassability = null;
+    Area tokensVbl = new Area();
+    if (restrictMovement) {
+      mblPassability = zone.getMblPassability();
       if (MapTool.getServerPolicy().getVblBlocksMove()) {
-        vbl = MapTool.getFrame().getCurrentZoneRenderer().getZoneView().getTopologyTree().getArea();
-
+        vblPassability = zone.getVblPassability();
+        for (Token token : zone.getTokensWithVBL()) {
+          tokensVbl.add(token.getTransformedVBL());
+        }
         if (tokenVBL != null) {
-          vbl.subtract(tokenVBL);
+          tokensVbl.subtract(tokenVBL);
         }
-
-        // Finally, add the Move Blocking Layer!
-        vbl.add((zone.getTopologyTerrain()));
-      } else {
-        vbl = zone.getTopologyTerrain();
       }
     }
 
-    if (!vbl.isEmpty()) {
-      try {
-        vblGeometry =
-            shapeReader
-                .read(vbl.getPathIterator(null))
-                .buffer(1); // .buffer helps creating valid geometry and prevent self-intersecting
-        // polygons
-        if (!vblGeometry.isValid()) {
-          log.info(
-              "vblGeometry is invalid! May cause issues. Check for self-intersecting polygons.");
+    if (!tokensVbl.equals(vbl)) {
+      vbl = tokensVbl;
+      vblGeometry = null;
+      if (!vbl.isEmpty()) {
+        try {
+          vblGeometry =
+              shapeReader
+                  .read(vbl.getPathIterator(null))
+                  .buffer(1); // .buffer helps creating valid geometry and prevent self-intersecting
+          // polygons
+          if (!vblGeometry.isValid()) {
+            log.info(
+                "vblGeometry is invalid! May cause issues. Check for self-intersecting polygons.");
+          }
+        } catch (Exception e) {
+          log.info("vblGeometry oh oh: ", e);
         }
-      } catch (Exception e) {
-        log.info("vblGeometry oh oh: ", e);
-      }
 
-      // log.info("vblGeometry bounds: " + vblGeometry.toString());
+        // log.info("vblGeometry bounds: " + vblGeometry.toString());
+      }
     }
 
     // Erase previous debug labels, this actually erases ALL labels! Use only when debugging!
@@ -183,45 +187,62 @@ protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
       }
     }
 
-    // Timeout quicker for GM cause reasons
-    if (MapTool.getPlayer().isGM()) {
-      estimatedTimeoutNeeded = estimatedTimeoutNeeded / 2;
-    }
-
     // log.info("A* Path timeout estimate: " + estimatedTimeoutNeeded);
 
-    while (!openList.isEmpty()) {
+    // While a token is dragged the goal moves a cell at a time, so carry on with the last search
+    // when it is still valid instead of starting over.
+    Search search = lastSearch.getAndSet(null);
+    if (search != null && search.canContinue(start, goal)) {
+      search.retarget(goal);
+    } else {
+      search = new Search(start, goal);
+    }
+    AStarOpenSet openSet = search.openSet;
+    LongMap<AStarCellPoint> nodes = search.nodes;
+    boolean complete = true;
+    AStarCellPoint currentNode = null;
+
+    while (!openSet.isEmpty()) {
       if (System.currentTimeMillis() > timeOut + estimatedTimeoutNeeded) {
         log.info("Timing out after " + estimatedTimeoutNeeded);
+        complete = false;
         break;
       }
 
-      currentNode = openList.remove(0);
-      openSet.remove(currentNode);
-      if (currentNode.equals(goal)) {
+      currentNode = openSet.poll();
+      if (currentNode.x == goal.x && currentNode.y == goal.y) {
+        search.unexpanded = currentNode;
         break;
       }
 
-      for (AStarCellPoint currentNeighbor : getNeighbors(currentNode, closedSet)) {
+      for (AStarCellPoint currentNeighbor : getNeighbors(currentNode, nodes)) {
         currentNeighbor.h = hScore(currentNeighbor, goal);
         showDebugInfo(currentNeighbor);
 
-        if (openSet.containsKey(currentNeighbor)) {
+        long key = LongMap.key(currentNeighbor.x, currentNeighbor.y);
+        AStarCellPoint oldNode = nodes.get(key);
+        if (oldNode != null) {
           // check if it is cheaper to get here the way that we just came, versus the previous path
-          AStarCellPoint oldNode = openSet.get(currentNeighbor);
           if (currentNeighbor.gCost() < oldNode.gCost()) {
             oldNode.replaceG(currentNeighbor);
-            currentNeighbor = oldNode;
-            currentNeighbor.parent = currentNode;
+            oldNode.parent = currentNode;
+            if (openSet.contains(oldNode)) {
+              openSet.decreaseKey(oldNode);
+            } else {
+              // Visited too early, as the H cost isn't consistent: visit it again
+              oldNode.closed = false;
+              oldNode.h = currentNeighbor.h;
+              openSet.add(oldNode);
+            }
           }
           continue;
         }
 
-        pushNode(openList, currentNeighbor);
-        openSet.put(currentNeighbor, currentNeighbor);
+        nodes.put(key, currentNeighbor);
+        openSet.add(currentNeighbor);
       }
 
-      closedSet.add(currentNode);
+      currentNode.closed = true;
       currentNode = null;
 
       /*
@@ -231,10 +252,16 @@ protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
       */
       if (Thread.interrupted()) {
         // log.info("Thread interrupted!");
-        openList.clear();
+        openSet.clear();
+        complete = false;
       }
     }
 
+    // Only a search which wasn't cut short can be carried on
+    if (complete) {
+      lastSearch.set(search);
+    }
+
     List<CellPoint> returnedCellPointList = new LinkedList<>();
     while (currentNode != null) {
       returnedCellPointList.add(currentNode);
@@ -269,32 +296,34 @@ protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
     return returnedCellPointList;
   }
 
-  void pushNode(List<AStarCellPoint> list, AStarCellPoint node) {
-    if (list.isEmpty()) {
-      list.add(node);
-      return;
-    }
-    if (node.fCost() < list.get(0).fCost()) {
-      list.add(0, node);
-      return;
-    }
-    if (node.fCost() > list.get(list.size() - 1).fCost()) {
-      list.add(node);
-      return;
-    }
-    for (ListIterator<AStarCellPoint> iter = list.listIterator(); iter.hasNext(); ) {
-      AStarCellPoint listNode = iter.next();
-      if (listNode.fCost() >= node.fCost()) {
-        iter.previous();
-        iter.add(node);
-        return;
-      }
-    }
+  /**
+   * @return true if the cost of a move only depends on the cells, so that a search can be carried
+   *     on to another goal. See {@link Search}.
+   */
+  protected boolean canCarryOnSearch() {
+    return true;
   }
 
-  protected List<AStarCellPoint> getNeighbors(AStarCellPoint node, Set<AStarCellPoint> closedSet) {
-    List<AStarCellPoint> neighbors = new ArrayList<>();
+  /** @return how long a search may go on before giving up, in milliseconds */
+  protected double getSearchTimeout() {
+    // Timeout quicker for GM cause reasons
+    return MapTool.getPlayer().isGM() ? 5000 : 10000;
+  }
+
+  /**
+   * Find the neighbors of a node which can be moved to, with the cost of getting there through the
+   * node. The neighbors are new nodes, even if already seen. The nodes already visited are only
+   * given if the node is a cheaper way to them.
+   *
+   * @param node the node to move from
+   * @param nodes the nodes seen by the search, by {@link LongMap#key(int, int) cell key}. The cells
+   *     found blocked are added as closed nodes.
+   * @return the neighbors
+   */
+  protected List<AStarCellPoint> getNeighbors(AStarCellPoint node, LongMap<AStarCellPoint> nodes) {
     int[][] neighborMap = getNeighborMap(node.x, node.y);
+    List<AStarCellPoint> neighbors = new ArrayList<>(neighborMap.length);
+    Set<CellPoint> occupiedCells = restrictMovement ? footprint.getOccupiedCells(node) : null;
 
     // Find all the neighbors.
     for (int[] neighborArray : neighborMap) {
@@ -303,64 +332,40 @@ protected List<AStarCellPoint> getNeighbors(AStarCellPoint node, Set<AStarCellPo
       boolean terrainIsFree = false;
       boolean blockNode = false;
 
-      AStarCellPoint neighbor =
-          new AStarCellPoint(node.x + neighborArray[0], node.y + neighborArray[1]);
-      Set<CellPoint> occupiedCells = footprint.getOccupiedCells(node);
-
-      if (closedSet.contains(neighbor)) {
+      int x = node.x + neighborArray[0];
+      int y = node.y + neighborArray[1];
+      AStarCellPoint seen = nodes.get(LongMap.key(x, y));
+      if (seen != null && seen.closed && seen.parent == null) {
+        // Blocked, or the start
         continue;
       }
+      AStarCellPoint neighbor = new AStarCellPoint(x, y);
 
       // Add the cell we're coming from
       neighbor.parent = node;
 
       // Don't count VBL or Terrain Modifiers
       if (restrictMovement) {
-        for (CellPoint cellPoint : occupiedCells) {
-          AStarCellPoint occupiedNode = new AStarCellPoint(cellPoint);
-
-          // VBL Check
-          if (vblBlocksMovement(occupiedNode, neighbor)) {
-            closedSet.add(occupiedNode);
-            blockNode = true;
-            break;
-          }
-        }
-
-        if (blockNode) {
-          continue;
-        }
-
         // Check for terrain modifiers
-        for (AStarCellPoint cell : terrainCells) {
-          if (cell.equals(neighbor)
-              && !terrainModifiersIgnored.contains(cell.terrainModifierOperation)) {
-            switch (cell.terrainModifierOperation) {
-              case MULTIPLY:
-                terrainMultiplier += cell.terrainModifier;
-                break;
-              case ADD:
-                terrainAdder += cell.terrainModifier;
-                break;
-              case BLOCK:
-                closedSet.add(cell);
-                blockNode = true;
-                continue;
-              case FREE:
-                terrainIsFree = true;
-                break;
-              case NONE:
-                break;
-            }
+        TerrainCostField.Cell terrain = terrainCosts.get(x, y);
+        if (terrain != null) {
+          if (terrain.isBlocked()
+              && !terrainModifiersIgnored.contains(TerrainModifierOperation.BLOCK)) {
+            close(nodes, neighbor);
+            continue;
+          }
+          if (!terrainModifiersIgnored.contains(TerrainModifierOperation.MULTIPLY)) {
+            terrainMultiplier = terrain.getMultiplier();
           }
+          if (!terrainModifiersIgnored.contains(TerrainModifierOperation.ADD)) {
+            terrainAdder = terrain.getAdder();
+          }
+          terrainIsFree =
+              terrain.isFree() && !terrainModifiersIgnored.contains(TerrainModifierOperation.FREE);
         }
       }
       terrainAdder = terrainAdder / cell_cost;
 
-      if (blockNode) {
-        continue;
-      }
-
       // If the total terrainMultiplier equals out to zero, or there were no multipliers,
       // set to 1 so we do math right...
       if (terrainMultiplier == 0) {
@@ -396,13 +401,50 @@ protected List<AStarCellPoint> getNeighbors(AStarCellPoint node, Set<AStarCellPo
         }
       }
 
+      if (seen != null && seen.closed && neighbor.gCost() >= seen.gCost()) {
+        continue;
+      }
+
+      if (restrictMovement) {
+        for (CellPoint cellPoint : occupiedCells) {
+          AStarCellPoint occupiedNode = new AStarCellPoint(cellPoint);
+
+          // VBL Check
+          if (vblBlocksMovement(occupiedNode, neighbor)) {
+            close(nodes, occupiedNode);
+            blockNode = true;
+            break;
+          }
+        }
+
+        if (blockNode) {
+          continue;
+        }
+      }
+
       neighbors.add(neighbor);
     }
 
     return neighbors;
   }
 
+  /** Mark a cell as not to be entered anymore, creating its node if not seen yet. */
+  private static void close(LongMap<AStarCellPoint> nodes, CellPoint cell) {
+    long key = LongMap.key(cell.x, cell.y);
+    AStarCellPoint node = nodes.get(key);
+    if (node == null) {
+      node = new AStarCellPoint(cell.x, cell.y);
+      nodes.put(key, node);
+    }
+    node.closed = true;
+  }
+
   private boolean vblBlocksMovement(AStarCellPoint start, AStarCellPoint goal) {
+    if ((mblPassability != null && mblPassability.isBlocked(start, goal))
+        || (vblPassability != null && vblPassability.isBlocked(start, goal))) {
+      return true;
+    }
+    // The VBL of the tokens
     if (vblGeometry == null) {
       return false;
     }
@@ -507,4 +549,95 @@ protected void showDebugInfo(AStarCellPoint node) {
     // debugLabels.add(hScore.getId());
     // debugLabels.add(fScore.getId());
   }
+
+  /**
+   * The state of a search, kept so that it can be carried on to a goal close to the one it was made
+   * for. The nodes already visited keep their cost and path, as these don't depend on the goal, and
+   * the nodes still to visit are given the H costs of the new goal.
+   *
+   * <p>The H cost isn't consistent, as its tie-break changes with the goal, so a node may be
+   * visited before the cheapest path to it is found. Such a node is visited again when a cheaper
+   * path to it is found, and the goal is put back to visit, so that the carried on search finds the
+   * same cost as a new one.
+   */
+  private class Search {
+    final CellPoint start;
+    CellPoint goal;
+    final AStarOpenSet openSet = new AStarOpenSet();
+    final LongMap<AStarCellPoint> nodes = new LongMap<>(); // All the nodes seen, open or closed
+    final AStarCellPoint startNode;
+
+    /** The goal node, taken out of the open set but not visited. */
+    AStarCellPoint unexpanded;
+
+    // What the moves and their costs depend on
+    final boolean restrictMovement;
+    final Set<TerrainModifierOperation> terrainModifiersIgnored;
+    final TokenFootprint footprint;
+    final PassabilityGrid vblPassability;
+    final PassabilityGrid mblPassability;
+    final Area vbl;
+
+    Search(CellPoint start, CellPoint goal) {
+      this.start = start;
+      this.goal = goal;
+      AbstractAStarWalker walker = AbstractAStarWalker.this;
+      restrictMovement = walker.restrictMovement;
+      terrainModifiersIgnored =
+          walker.terrainModifiersIgnored == null
+              ? null
+              : new HashSet<>(walker.terrainModifiersIgnored);
+      footprint = walker.footprint;
+      vblPassability = walker.vblPassability;
+      mblPassability = walker.mblPassability;
+      vbl = walker.vbl;
+
+      startNode = new AStarCellPoint(start);
+      nodes.put(LongMap.key(startNode.x, startNode.y), startNode);
+      openSet.add(startNode);
+    }
+
+    /**
+     * @param start the start of the new path
+     * @param goal the goal of the new path
+     * @return true if the search can be carried on to the new goal, with the current settings of
+     *     the walker
+     */
+    boolean canContinue(CellPoint start, CellPoint goal) {
+      AbstractAStarWalker walker = AbstractAStarWalker.this;
+      return canCarryOnSearch()
+          && this.start.equals(start)
+          && Math.max(Math.abs(goal.x - this.goal.x), Math.abs(goal.y - this.goal.y))
+              <= MAX_REPLAN_DISTANCE
+          && restrictMovement == walker.restrictMovement
+          && Objects.equals(terrainModifiersIgnored, walker.terrainModifiersIgnored)
+          && footprint == walker.footprint
+          && vblPassability == walker.vblPassability
+          && mblPassability == walker.mblPassability
+          && vbl == walker.vbl;
+    }
+
+    /**
+     * Carry on the search to a new goal: put back the old goal if it wasn't visited, and give the
+     * nodes to visit their H cost for the new goal. The new goal is put back to visit if it was
+     * visited, it then comes out first unless a cheaper path to it may still be found.
+     *
+     * @param goal the new goal
+     */
+    void retarget(CellPoint goal) {
+      this.goal = goal;
+      if (unexpanded != null) {
+        openSet.add(unexpanded);
+        unexpanded = null;
+      }
+      AStarCellPoint goalNode = nodes.get(LongMap.key(goal.x, goal.y));
+      if (goalNode != null
+          && goalNode.closed
+          && (goalNode.parent != null || goalNode == startNode)) {
+        goalNode.closed = false;
+        openSet.add(goalNode);
+      }
+      openSet.rescore(node -> hScore(node, goal));
+    }
+  }
 }
@@ -25,12 +25,12 @@
 import java.net.URL;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import net.rptools.lib.FileUtil;
@@ -63,8 +63,8 @@ public class AssetManager {
    * A list of listeners which should be notified when the asset associated with a given MD5 sum has
    * finished downloading.
    */
-  private static Map<MD5Key, List<AssetAvailableListener>> assetListenerListMap =
-      new ConcurrentHashMap<MD5Key, List<AssetAvailableListener>>();
+  private static Map<MD5Key, CopyOnWriteArrayList<AssetAvailableListener>> assetListenerListMap =
+      new ConcurrentHashMap<MD5Key, CopyOnWriteArrayList<AssetAvailableListener>>();
 
   /** Property string associated with asset name */
   public static final String NAME = "name";
@@ -72,7 +72,9 @@ public class AssetManager {
   /** Used to load assets from storage */
   private static AssetLoader assetLoader = new AssetLoader();
 
-  private static ExecutorService assetLoaderThreadPool = Executors.newFixedThreadPool(1);
+  /** Reads the assets from the cache, one thread per core so that decoding them isn't held up. */
+  private static ExecutorService assetLoaderThreadPool =
+      Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
 
   static {
     cacheDir = AppUtil.getAppHome("assetcache");
@@ -135,16 +137,12 @@ public static void addAssetListener(MD5Key key, AssetAvailableListener... listen
       return;
     }
 
-    List<AssetAvailableListener> listenerList = assetListenerListMap.get(key);
-    if (listenerList == null) {
-      listenerList = new LinkedList<AssetAvailableListener>();
-      assetListenerListMap.put(key, listenerList);
-    }
+    CopyOnWriteArrayList<AssetAvailableListener> listenerList =
+        assetListenerListMap.computeIfAbsent(
+            key, k -> new CopyOnWriteArrayList<AssetAvailableListener>());
 
     for (AssetAvailableListener listener : listeners) {
-      if (!listenerList.contains(listener)) {
-        listenerList.add(listener);
-      }
+      listenerList.addIfAbsent(listener);
     }
   }
 
@@ -222,13 +220,20 @@ public static void putAsset(Asset asset) {
     assetLoader.completeRequest(asset.getId());
 
     // Listeners
-    List<AssetAvailableListener> listenerList = assetListenerListMap.get(asset.getId());
+    notifyAssetListeners(asset.getId());
+  }
+
+  /**
+   * Notify the listeners waiting for the asset, and forget them.
+   *
+   * @param id MD5 of the asset now available
+   */
+  private static void notifyAssetListeners(MD5Key id) {
+    List<AssetAvailableListener> listenerList = assetListenerListMap.remove(id);
     if (listenerList != null) {
       for (AssetAvailableListener listener : listenerList) {
-        listener.assetAvailable(asset.getId());
+        listener.assetAvailable(id);
       }
-
-      assetListenerListMap.remove(asset.getId());
     }
   }
 
@@ -259,8 +264,15 @@ public void run() {
 
             // Let's get it from the server
             // As a last resort we request the asset from the server
-            if (asset == null && !isAssetRequested(id)) {
+            if (!isAssetRequested(id)) {
               requestAssetFromServer(id, listeners);
+            } else {
+              // Already on its way, just wait for it
+              addAssetListener(id, listeners);
+              if (hasAssetInMemory(id)) {
+                // Arrived meanwhile, the listeners may have been missed
+                notifyAssetListeners(id);
+              }
             }
           }
         });
@@ -177,6 +177,39 @@ public Campaign(Campaign campaign) {
         new ArrayList<MacroButtonProperties>(campaign.getGmMacroButtonPropertiesArray());
   }
 
+  /**
+   * Create the copy of the campaign sent to a client joining the server. It has all the campaign
+   * properties and macros, but only the headers of the zones (see {@link Zone#createHeader()}),
+   * apart from the zones given, which are sent whole. The client fetches the other zones later.
+   *
+   * <p>The copy shares its objects with the campaign, and must only be serialized.
+   *
+   * @param fullZoneIds the ids of the zones to copy whole
+   * @return the copy of the campaign
+   */
+  public Campaign createHeader(Set<GUID> fullZoneIds) {
+    Campaign header = new Campaign();
+    header.id = id;
+    header.name = name;
+    for (Zone zone : getZones()) {
+      header.zones.put(
+          zone.getId(), fullZoneIds.contains(zone.getId()) ? zone : zone.createHeader());
+    }
+    header.exportLocation = exportLocation;
+    header.exportSettings = exportSettings;
+    header.campaignProperties = campaignProperties;
+    header.macroButtonProperties = macroButtonProperties;
+    header.macroButtonLastIndex = macroButtonLastIndex;
+    header.gmMacroButtonLastIndex = gmMacroButtonLastIndex;
+    header.gmMacroButtonProperties = gmMacroButtonProperties;
+    header.tokenTypeMap = tokenTypeMap;
+    header.remoteRepositoryList = remoteRepositoryList;
+    header.lightSourcesMap = lightSourcesMap;
+    header.lookupTableMap = lookupTableMap;
+    header.hasUsedFogToolbar = hasUsedFogToolbar;
+    return header;
+  }
+
   public GUID getId() {
     return id;
   }
@@ -49,6 +49,10 @@ public class CampaignProperties {
   public static final String DEFAULT_TOKEN_PROPERTY_TYPE = "Basic";
 
   private Map<String, List<TokenProperty>> tokenTypeMap;
+
+  /** The token properties of each token type, by lower case name. Built on demand. */
+  private transient Map<String, TokenPropertyIndex> tokenPropertyIndexMap;
+
   private List<String> remoteRepositoryList;
   private Map<String, Map<GUID, LightSource>> lightSourcesMap;
   private Map<String, LookupTable> lookupTableMap;
@@ -182,6 +186,72 @@ public List<TokenProperty> getTokenPropertyList(String tokenType) {
     return getTokenTypeMap().get(tokenType);
   }
 
+  /**
+   * Find a token property of a token type by name, without going through the property list.
+   *
+   * @param tokenType the token type
+   * @param name the name of the property, case insensitive
+   * @return the first property of the list with the name, or null if none
+   */
+  public synchronized TokenProperty getTokenProperty(String tokenType, String name) {
+    List<TokenProperty> propertyList = getTokenPropertyList(tokenType);
+    if (propertyList == null) {
+      return null;
+    }
+    if (tokenPropertyIndexMap == null) {
+      tokenPropertyIndexMap = new HashMap<String, TokenPropertyIndex>();
+    }
+    TokenPropertyIndex index = tokenPropertyIndexMap.get(tokenType);
+    if (index == null || !index.isCurrent(propertyList)) {
+      index = new TokenPropertyIndex(propertyList);
+      tokenPropertyIndexMap.put(tokenType, index);
+    }
+    return index.properties.get(name.toLowerCase());
+  }
+
+  /** The properties of a property list by lower case name, as long as the list doesn't change. */
+  private static class TokenPropertyIndex {
+    private final List<TokenProperty> propertyList;
+    /** The properties of the list when indexed, in order. */
+    private final TokenProperty[] entries;
+    /** The names of the properties when indexed, in order. */
+    private final String[] names;
+
+    private final Map<String, TokenProperty> properties;
+
+    TokenPropertyIndex(List<TokenProperty> propertyList) {
+      this.propertyList = propertyList;
+      entries = propertyList.toArray(new TokenProperty[0]);
+      names = new String[entries.length];
+      properties = new HashMap<String, TokenProperty>(entries.length * 2);
+      for (int i = 0; i < entries.length; i++) {
+        names[i] = entries[i].getName();
+        if (names[i] != null) {
+          properties.putIfAbsent(names[i].toLowerCase(), entries[i]);
+        }
+      }
+    }
+
+    /**
+     * Compares the list to its content when indexed. Only references are compared, which is much
+     * cheaper than the lookup the index replaces.
+     *
+     * @return true if the list still holds the same properties, with the same names
+     */
+    boolean isCurrent(List<TokenProperty> propertyList) {
+      if (this.propertyList != propertyList || entries.length != propertyList.size()) {
+        return false;
+      }
+      for (int i = 0; i < entries.length; i++) {
+        TokenProperty property = propertyList.get(i);
+        if (property != entries[i] || property.getName() != names[i]) {
+          return false; // replaced or renamed
+        }
+      }
+      return true;
+    }
+  }
+
   public List<String> getRemoteRepositoryList() {
     if (remoteRepositoryList == null) {
       initRemoteRepositoryList();
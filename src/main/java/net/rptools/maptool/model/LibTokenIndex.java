@@ -0,0 +1,192 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the lib: tokens of a list of zones by name, so that library macros are found without
+ * going through all the tokens of all the zones.
+ *
+ * <p>The index listens to the token events of the zones to stay current. It is rebuilt when asked
+ * for a different list of zones, or when a token it returns turns out to have been renamed or
+ * removed without an event.
+ */
+public class LibTokenIndex implements ModelChangeListener {
+
+  /** A lib: token, and the zone it is on. */
+  public static final class Entry {
+    private final Zone zone;
+    private final Token token;
+
+    private Entry(Zone zone, Token token) {
+      this.zone = zone;
+      this.token = token;
+    }
+
+    public Zone getZone() {
+      return zone;
+    }
+
+    public Token getToken() {
+      return token;
+    }
+  }
+
+  /** The zones indexed, in the order the tokens are returned in. */
+  private List<Zone> zones = Collections.emptyList();
+
+  /** The position of each zone in the zones list. */
+  private final Map<Zone, Integer> zoneOrder = new IdentityHashMap<Zone, Integer>();
+
+  /** The lib: tokens by lower case name. */
+  private final Map<String, List<Entry>> libTokens = new HashMap<String, List<Entry>>();
+
+  /** The lower case name each token is indexed with. */
+  private final Map<GUID, String> indexedNames = new HashMap<GUID, String>();
+
+  /**
+   * @param name the name of the token
+   * @return true if the name is the name of a lib: token
+   */
+  public static boolean isLibTokenName(String name) {
+    return name != null && name.regionMatches(true, 0, "lib:", 0, 4);
+  }
+
+  /**
+   * Find the lib: tokens with a name.
+   *
+   * @param zones the zones to search, in order
+   * @param name the name of the token, case insensitive
+   * @return the tokens, in the order of their zones. Empty if none.
+   */
+  public synchronized List<Entry> getLibTokens(List<Zone> zones, String name) {
+    if (!sameZones(zones)) {
+      rebuild(zones);
+    }
+    List<Entry> entries = libTokens.get(name.toLowerCase());
+    if (entries == null) {
+      return Collections.emptyList();
+    }
+    for (Entry entry : entries) {
+      if (entry.zone.getToken(entry.token.getId()) != entry.token
+          || !entry.token.getName().equalsIgnoreCase(name)) {
+        // Changed behind our back
+        rebuild(zones);
+        entries = libTokens.get(name.toLowerCase());
+        if (entries == null) {
+          return Collections.emptyList();
+        }
+        break;
+      }
+    }
+    if (entries.size() == 1) {
+      return Collections.singletonList(entries.get(0));
+    }
+    List<Entry> result = new ArrayList<Entry>(entries);
+    result.sort((a, b) -> Integer.compare(zoneOrder.get(a.zone), zoneOrder.get(b.zone)));
+    return result;
+  }
+
+  /** Stop listening to the zones and forget the tokens. */
+  public synchronized void clear() {
+    for (Zone zone : zones) {
+      zone.removeModelChangeListener(this);
+    }
+    zones = Collections.emptyList();
+    zoneOrder.clear();
+    libTokens.clear();
+    indexedNames.clear();
+  }
+
+  private boolean sameZones(List<Zone> zones) {
+    if (zones.size() != this.zones.size()) {
+      return false;
+    }
+    for (int i = 0; i < zones.size(); i++) {
+      if (zones.get(i) != this.zones.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void rebuild(List<Zone> zones) {
+    clear();
+    this.zones = new ArrayList<Zone>(zones);
+    for (int i = 0; i < this.zones.size(); i++) {
+      Zone zone = this.zones.get(i);
+      zoneOrder.put(zone, i);
+      zone.addModelChangeListener(this);
+      for (Token token : zone.getAllTokens()) {
+        add(zone, token);
+      }
+    }
+  }
+
+  private void add(Zone zone, Token token) {
+    if (!isLibTokenName(token.getName())) {
+      return;
+    }
+    String name = token.getName().toLowerCase();
+    libTokens.computeIfAbsent(name, n -> new ArrayList<Entry>(1)).add(new Entry(zone, token));
+    indexedNames.put(token.getId(), name);
+  }
+
+  private void remove(GUID id) {
+    String name = indexedNames.remove(id);
+    if (name == null) {
+      return;
+    }
+    List<Entry> entries = libTokens.get(name);
+    entries.removeIf(entry -> entry.token.getId().equals(id));
+    if (entries.isEmpty()) {
+      libTokens.remove(name);
+    }
+  }
+
+  @Override
+  public synchronized void modelChanged(ModelChangeEvent event) {
+    Object type = event.getEvent();
+    if (type != Zone.Event.TOKEN_ADDED
+        && type != Zone.Event.TOKEN_CHANGED
+        && type != Zone.Event.TOKEN_REMOVED) {
+      return;
+    }
+    Zone zone = (Zone) event.getModel();
+    if (!zoneOrder.containsKey(zone)) {
+      return;
+    }
+    List<Token> tokens;
+    if (event.getArg() instanceof List<?>) {
+      @SuppressWarnings("unchecked")
+      List<Token> list = (List<Token>) event.getArg();
+      tokens = list;
+    } else {
+      tokens = Collections.singletonList((Token) event.getArg());
+    }
+    for (Token token : tokens) {
+      remove(token.getId());
+      if (type != Zone.Event.TOKEN_REMOVED) {
+        add(zone, token);
+      }
+    }
+  }
+}
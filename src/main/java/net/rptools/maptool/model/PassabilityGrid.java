@@ -0,0 +1,220 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import net.rptools.maptool.util.LongMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.locationtech.jts.awt.ShapeReader;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+
+/**
+ * Which moves between the cells of a zone a topology blocks, for the path finding. A move is
+ * blocked if the line between the centers of the two cells crosses the topology.
+ *
+ * <p>The topology is read once, when the grid is created. The moves are checked as the walkers ask
+ * for them, and the results kept: the moves to the eight cells around a cell as two bits each in an
+ * int per cell, held in chunks of cells, and the longer moves of large tokens in a map. The grid is
+ * made for one version of the topology and of the grid of the zone, see {@link
+ * Zone#getVblPassability()} and {@link Zone#getMblPassability()}.
+ *
+ * <p>All the methods are thread safe.
+ */
+public final class PassabilityGrid {
+
+  private static final Logger log = LogManager.getLogger(PassabilityGrid.class);
+
+  /** The log2 of the width and height of a chunk, in cells. */
+  private static final int CHUNK_SHIFT = 5;
+
+  private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+  /** The cells farther apart than this are checked without keeping the result. */
+  private static final int MAX_CACHED_OFFSET = 127;
+
+  private final GeometryFactory geometryFactory = new GeometryFactory();
+
+  private final Grid grid;
+
+  /** The signature of the grid the passability is for. */
+  private final int gridSignature;
+
+  /** The version of the topology the passability is for. */
+  private final long topologyVersion;
+
+  /** The bounds of the topology, to skip the cells far from it. */
+  private final Rectangle bounds;
+
+  /** The topology, null if empty. */
+  private final PreparedGeometry topology;
+
+  /**
+   * The moves to the cells around each cell checked so far, by chunk of cells. For the direction
+   * {@code d = (dx + 1) * 3 + dy + 1}, bit {@code 2d} is set if the move was checked and bit {@code
+   * 2d + 1} if it is blocked.
+   */
+  private final LongMap<int[]> chunks = new LongMap<>();
+
+  /** The longer moves checked so far, by packed cells and offset. */
+  private final LongMap<Boolean> longMoves = new LongMap<>();
+
+  /**
+   * @param grid the grid of the zone
+   * @param gridSignature the signature of the grid, see {@link #isFor(int, long)}
+   * @param topology the topology, read now
+   * @param topologyVersion the version of the topology
+   */
+  PassabilityGrid(Grid grid, int gridSignature, Area topology, long topologyVersion) {
+    this.grid = grid;
+    this.gridSignature = gridSignature;
+    this.topologyVersion = topologyVersion;
+    this.bounds = topology.getBounds();
+    bounds.grow(2, 2); // The geometry is buffered
+    PreparedGeometry geometry = null;
+    if (!topology.isEmpty()) {
+      try {
+        // buffer helps creating valid geometry and prevents self-intersecting polygons
+        Geometry read =
+            new ShapeReader(geometryFactory).read(topology.getPathIterator(null)).buffer(1);
+        if (!read.isValid()) {
+          log.info(
+              "Topology geometry is invalid! May cause issues. Check for self-intersecting polygons.");
+        }
+        geometry = PreparedGeometryFactory.prepare(read);
+      } catch (Exception e) {
+        log.info("Could not read the topology: ", e);
+      }
+    }
+    this.topology = geometry;
+  }
+
+  /**
+   * @param gridSignature the signature of the grid of the zone
+   * @param topologyVersion the version of the topology of the zone
+   * @return true if the passability is for this grid and this topology
+   */
+  boolean isFor(int gridSignature, long topologyVersion) {
+    return this.gridSignature == gridSignature && this.topologyVersion == topologyVersion;
+  }
+
+  /** @return true if the topology blocks no move */
+  public boolean isEmpty() {
+    return topology == null;
+  }
+
+  /**
+   * @param from the cell moved from
+   * @param to the cell moved to
+   * @return true if the topology blocks the move
+   */
+  public boolean isBlocked(CellPoint from, CellPoint to) {
+    return isBlocked(from.x, from.y, to.x, to.y);
+  }
+
+  /**
+   * @param fromX the x of the cell moved from
+   * @param fromY the y of the cell moved from
+   * @param toX the x of the cell moved to
+   * @param toY the y of the cell moved to
+   * @return true if the topology blocks the move
+   */
+  public boolean isBlocked(int fromX, int fromY, int toX, int toY) {
+    if (topology == null) {
+      return false;
+    }
+    int dx = toX - fromX;
+    int dy = toY - fromY;
+    if (Math.abs(dx) > 1 || Math.abs(dy) > 1) {
+      return isLongMoveBlocked(fromX, fromY, toX, toY);
+    }
+    int shift = 2 * ((dx + 1) * 3 + dy + 1);
+    int[] chunk;
+    int index = ((fromY & CHUNK_MASK) << CHUNK_SHIFT) | (fromX & CHUNK_MASK);
+    synchronized (this) {
+      long key = LongMap.key(fromX >> CHUNK_SHIFT, fromY >> CHUNK_SHIFT);
+      chunk = chunks.get(key);
+      if (chunk == null) {
+        chunk = new int[1 << (2 * CHUNK_SHIFT)];
+        chunks.put(key, chunk);
+      }
+      int bits = chunk[index] >>> shift;
+      if ((bits & 1) != 0) {
+        return (bits & 2) != 0;
+      }
+    }
+    boolean blocked = checkMove(fromX, fromY, toX, toY);
+    synchronized (this) {
+      chunk[index] |= (blocked ? 3 : 1) << shift;
+    }
+    return blocked;
+  }
+
+  private boolean isLongMoveBlocked(int fromX, int fromY, int toX, int toY) {
+    int dx = toX - fromX;
+    int dy = toY - fromY;
+    if (Math.abs(dx) > MAX_CACHED_OFFSET
+        || Math.abs(dy) > MAX_CACHED_OFFSET
+        || fromX != (fromX << 8 >> 8)
+        || fromY != (fromY << 8 >> 8)) {
+      return checkMove(fromX, fromY, toX, toY);
+    }
+    long key =
+        ((long) (fromX & 0xFFFFFF) << 40)
+            | ((long) (fromY & 0xFFFFFF) << 16)
+            | ((dx & 0xFF) << 8)
+            | (dy & 0xFF);
+    synchronized (this) {
+      Boolean blocked = longMoves.get(key);
+      if (blocked != null) {
+        return blocked;
+      }
+    }
+    boolean blocked = checkMove(fromX, fromY, toX, toY);
+    synchronized (this) {
+      longMoves.put(key, blocked);
+    }
+    return blocked;
+  }
+
+  /** @return true if the line between the centers of the cells crosses the topology */
+  private boolean checkMove(int fromX, int fromY, int toX, int toY) {
+    Rectangle fromBounds = grid.getBounds(new CellPoint(fromX, fromY));
+    Rectangle toBounds = grid.getBounds(new CellPoint(toX, toY));
+    if (fromBounds.isEmpty() || toBounds.isEmpty()) {
+      return false;
+    }
+    double x1 = fromBounds.getCenterX();
+    double y1 = fromBounds.getCenterY();
+    double x2 = toBounds.getCenterX();
+    double y2 = toBounds.getCenterY();
+    if (!bounds.intersectsLine(x1, y1, x2, y2)) {
+      return false;
+    }
+    try {
+      return topology.intersects(
+          geometryFactory.createLineString(
+              new Coordinate[] {new Coordinate(x1, y1), new Coordinate(x2, y2)}));
+    } catch (Exception e) {
+      log.info("Could not check the move against the topology: ", e);
+      return true;
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import net.rptools.maptool.model.Token.TerrainModifierOperation;
+import net.rptools.maptool.util.LongMap;
+
+/**
+ * The terrain modifiers of the cells of a zone, for the path finding. The modifiers of the tokens
+ * covering a cell are summed by operation, so that a walker finds those of a cell in constant time.
+ *
+ * <p>The field is made for one grid of the zone and one set of terrain modifier tokens, and never
+ * changes once made, see {@link Zone#getTerrainCostField()}. It can be shared between threads.
+ */
+public final class TerrainCostField {
+
+  /** The signature of the grid the field is for. */
+  private final int gridSignature;
+
+  /** The ids of the tokens the field was made from. */
+  private final Set<GUID> tokenIds = new HashSet<>();
+
+  /** The modifiers, by {@link LongMap#key(int, int) cell key}. */
+  private final LongMap<Cell> cells = new LongMap<>();
+
+  /**
+   * @param grid the grid of the zone
+   * @param gridSignature the signature of the grid
+   * @param tokens the tokens with a terrain modifier
+   */
+  TerrainCostField(Grid grid, int gridSignature, Collection<Token> tokens) {
+    this.gridSignature = gridSignature;
+    for (Token token : tokens) {
+      TerrainModifierOperation operation = token.getTerrainModifierOperation();
+      if (operation == TerrainModifierOperation.NONE) {
+        continue;
+      }
+      tokenIds.add(token.getId());
+      for (CellPoint cellPoint : token.getOccupiedCells(grid)) {
+        long key = LongMap.key(cellPoint.x, cellPoint.y);
+        Cell cell = cells.get(key);
+        if (cell == null) {
+          cell = new Cell();
+          cells.put(key, cell);
+        }
+        cell.add(operation, token.getTerrainModifier());
+      }
+    }
+  }
+
+  /**
+   * @param gridSignature the signature of the grid of the zone
+   * @return true if the field was made for the grid
+   */
+  boolean isFor(int gridSignature) {
+    return this.gridSignature == gridSignature;
+  }
+
+  /**
+   * @param tokenId the id of a token
+   * @return true if the token is one the field was made from
+   */
+  boolean contains(GUID tokenId) {
+    return tokenIds.contains(tokenId);
+  }
+
+  /** @return true if no cell has a terrain modifier */
+  public boolean isEmpty() {
+    return cells.isEmpty();
+  }
+
+  /**
+   * @param x the x of the cell
+   * @param y the y of the cell
+   * @return the modifiers of the cell, or null if it has none
+   */
+  public Cell get(int x, int y) {
+    return cells.get(LongMap.key(x, y));
+  }
+
+  /** The terrain modifiers of a cell, summed by operation. */
+  public static final class Cell {
+    private double multiplier;
+    private double adder;
+    private boolean blocked;
+    private boolean free;
+
+    private Cell() {}
+
+    private void add(TerrainModifierOperation operation, double modifier) {
+      switch (operation) {
+        case MULTIPLY:
+          multiplier += modifier;
+          break;
+        case ADD:
+          adder += modifier;
+          break;
+        case BLOCK:
+          blocked = true;
+          break;
+        case FREE:
+          free = true;
+          break;
+        case NONE:
+          break;
+      }
+    }
+
+    /** @return the sum of the MULTIPLY modifiers, 0 if there is none */
+    public double getMultiplier() {
+      return multiplier;
+    }
+
+    /** @return the sum of the ADD modifiers, 0 if there is none */
+    public double getAdder() {
+      return adder;
+    }
+
+    /** @return true if a BLOCK modifier covers the cell */
+    public boolean isBlocked() {
+      return blocked;
+    }
+
+    /** @return true if a FREE modifier covers the cell */
+    public boolean isFree() {
+      return free;
+    }
+  }
+}
@@ -39,6 +39,7 @@
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import net.rptools.CaseInsensitiveHashMap;
@@ -299,9 +300,24 @@ public enum TerrainModifierOperation {
 
   private CaseInsensitiveHashMap<Object> propertyMapCI;
 
+  /** The values of the properties as last evaluated, by lower case name. Built on demand. */
+  private transient Map<String, ParsedProperty> parsedPropertyMap;
+
   private Map<String, String> macroMap;
   private Map<Integer, Object> macroPropertiesMap;
 
+  /**
+   * The first macro with each label, built on demand from macroPropertiesMap. Macros are renamed in
+   * place and then saved with saveMacro(), which drops the index.
+   */
+  private transient Map<String, MacroButtonProperties> macroLabelIndex;
+
+  /** The macroPropertiesMap macroLabelIndex was built from. */
+  private transient Map<Integer, Object> macroLabelIndexMap;
+
+  /** The number of macros when macroLabelIndex was built. */
+  private transient int macroLabelIndexSize;
+
   private Map<String, String> speechMap;
 
   // Deprecated, here to allow deserialization
@@ -313,6 +329,9 @@ public enum TerrainModifierOperation {
 
   private HeroLabData heroLabData;
 
+  /** The fields as the other clients last got them, if known. See {@link TokenDelta}. */
+  private transient Object[] sentFingerprints;
+
   /**
    * Constructor from another token, with the option to keep the token id
    *
@@ -1707,10 +1726,16 @@ public void setAllStates(Object aValue) {
 
   public void resetProperty(String key) {
     getPropertyMap().remove(key);
+    if (parsedPropertyMap != null) {
+      parsedPropertyMap.remove(key.toLowerCase());
+    }
   }
 
   public void setProperty(String key, Object value) {
     getPropertyMap().put(key, value);
+    if (parsedPropertyMap != null) {
+      parsedPropertyMap.remove(key.toLowerCase());
+    }
   }
 
   public Object getProperty(String key) {
@@ -1736,26 +1761,22 @@ public Object getEvaluatedProperty(MapToolVariableResolver resolver, String key)
     Object val = getProperty(key);
     if (val == null) {
       // Global default ?
-      List<TokenProperty> propertyList =
-          MapTool.getCampaign().getCampaignProperties().getTokenPropertyList(propertyType);
-      if (propertyList != null) {
-        for (TokenProperty property : propertyList) {
-          if (key.equalsIgnoreCase(property.getName())) {
-            val = property.getDefaultValue();
-            break;
-          }
-        }
+      TokenProperty property =
+          MapTool.getCampaign().getCampaignProperties().getTokenProperty(propertyType, key);
+      if (property != null) {
+        val = property.getDefaultValue();
       }
     }
     if (val == null) {
       return "";
     }
-    // First we try convert it to a JSON object.
-    if (val.toString().trim().startsWith("[") || val.toString().trim().startsWith("{")) {
-      JsonElement json = JSONMacroFunctions.getInstance().asJsonElement(val.toString());
-      if (json.isJsonObject() || json.isJsonArray()) {
-        return json;
-      }
+    ParsedProperty parsed = getParsedProperty(key, val);
+    if (parsed.json != null) {
+      // Some of the JSON functions modify nested elements in place
+      return parsed.json.deepCopy();
+    }
+    if (parsed.literal != null) {
+      return parsed.literal;
     }
     try {
       if (log.isDebugEnabled()) {
@@ -1779,6 +1800,59 @@ public Object getEvaluatedProperty(MapToolVariableResolver resolver, String key)
     return val;
   }
 
+  /**
+   * Gets the parsed form of a property value, parsing it if it isn't the value parsed last for the
+   * property.
+   *
+   * @param key the name of the property
+   * @param val the value of the property
+   * @return the parsed value
+   */
+  private ParsedProperty getParsedProperty(String key, Object val) {
+    if (parsedPropertyMap == null) {
+      parsedPropertyMap = new ConcurrentHashMap<String, ParsedProperty>();
+    }
+    String name = key.toLowerCase();
+    ParsedProperty parsed = parsedPropertyMap.get(name);
+    if (parsed == null || parsed.value != val) {
+      parsed = new ParsedProperty(val);
+      parsedPropertyMap.put(name, parsed);
+    }
+    return parsed;
+  }
+
+  /**
+   * A property value, with its JSON object or array if it is one, or its text if it has no inline
+   * roll. Each evaluation gets its own copy of the JSON value, which is still cheaper than parsing
+   * it again.
+   */
+  private static class ParsedProperty {
+    /** The value parsed. */
+    private final Object value;
+
+    /** The JSON object or array of the value, or null if not JSON. */
+    private final JsonElement json;
+
+    /** The value, if it evaluates to itself. Null if it has to go through the parser. */
+    private final String literal;
+
+    private ParsedProperty(Object value) {
+      this.value = value;
+      String text = value.toString().trim();
+      JsonElement element = null;
+      // First we try convert it to a JSON object.
+      if (text.startsWith("[") || text.startsWith("{")) {
+        element = JSONMacroFunctions.getInstance().asJsonElement(value.toString());
+        if (!element.isJsonObject() && !element.isJsonArray()) {
+          element = null;
+        }
+      }
+      json = element;
+      // Without brackets there is no inline roll, the parser would only trim it
+      literal = json == null && text.indexOf('[') < 0 && text.indexOf('{') < 0 ? text : null;
+    }
+  }
+
   /** @return all property names, all in lowercase. */
   public Set<String> getPropertyNames() {
     return getPropertyMap().keySet();
@@ -1810,6 +1884,7 @@ private void loadOldMacros() {
       macroPropertiesMap.put(prop.getIndex(), prop);
     }
     macroMap = null;
+    macroLabelIndex = null;
     if (log.isDebugEnabled()) {
       log.debug("Token.loadOldMacros() set up " + macroPropertiesMap.size() + " new macros.");
     }
@@ -1856,14 +1931,32 @@ public MacroButtonProperties getMacro(int index, boolean secure) {
   // avoid this; it loads the first macro with this label, but there could be more than one macro
   // with that label
   public MacroButtonProperties getMacro(String label, boolean secure) {
-    Set<Integer> keys = getMacroPropertiesMap(secure).keySet();
-    for (int key : keys) {
-      MacroButtonProperties prop = (MacroButtonProperties) macroPropertiesMap.get(key);
-      if (prop.getLabel().equals(label)) {
+    Map<Integer, Object> macros = getMacroPropertiesMap(secure);
+    if (macros != macroPropertiesMap) {
+      return null; // not permitted
+    }
+    if (macroLabelIndex != null
+        && macroLabelIndexMap == macros
+        && macroLabelIndexSize == macros.size()) {
+      MacroButtonProperties prop = macroLabelIndex.get(label);
+      if (prop == null) {
+        return null; // the common case of the event macros, no need to rebuild
+      }
+      if (prop.getLabel().equals(label) && macros.get(prop.getIndex()) == prop) {
         return prop;
       }
     }
-    return null;
+    // Not indexed, or the macros were changed directly: rebuild
+    macroLabelIndex = new HashMap<String, MacroButtonProperties>(macros.size() * 2);
+    macroLabelIndexMap = macros;
+    macroLabelIndexSize = macros.size();
+    for (Object value : macros.values()) {
+      MacroButtonProperties prop = (MacroButtonProperties) value;
+      if (prop.getLabel() != null) {
+        macroLabelIndex.putIfAbsent(prop.getLabel(), prop);
+      }
+    }
+    return macroLabelIndex.get(label);
   }
 
   public List<MacroButtonProperties> getMacroList(boolean secure) {
@@ -1882,6 +1975,7 @@ public List<MacroButtonProperties> getMacroList(boolean secure) {
    * @param clearOld whether the old macros at other indexes should be removed
    */
   public void saveMacroList(List<MacroButtonProperties> newMacroList, boolean clearOld) {
+    macroLabelIndex = null;
     if (clearOld) {
       macroPropertiesMap.clear();
     }
@@ -1901,6 +1995,7 @@ public void saveMacroList(List<MacroButtonProperties> newMacroList, boolean clea
    * @param prop the properties of the macro
    */
   public void saveMacro(MacroButtonProperties prop) {
+    macroLabelIndex = null;
     getMacroPropertiesMap(false).put(prop.getIndex(), prop);
   }
 
@@ -1910,6 +2005,7 @@ public void saveMacro(MacroButtonProperties prop) {
    * @param index the index of the macro
    */
   public void deleteMacro(int index) {
+    macroLabelIndex = null;
     getMacroPropertiesMap(false).remove(index);
   }
 
@@ -2405,6 +2501,48 @@ public Token clone() {
     }
   }
 
+  /** @return the fields as the other clients last got them, or null if not known */
+  Object[] getSentFingerprints() {
+    return sentFingerprints;
+  }
+
+  /** @param fingerprints the fields as the other clients last got them, or null if not known */
+  void setSentFingerprints(Object[] fingerprints) {
+    sentFingerprints = fingerprints;
+  }
+
+  /**
+   * Forget the values derived from a field, after the field was set directly.
+   *
+   * @param fieldName the name of the field
+   */
+  void fieldChanged(String fieldName) {
+    switch (fieldName) {
+      case "x":
+      case "y":
+        // As for a token received whole, the origin of the next move is where it now is
+        tokenOrigin = null;
+        break;
+      case "layer":
+        actualLayer = null;
+        break;
+      case "haloColorValue":
+        haloColor = null;
+        break;
+      case "visionOverlayColorValue":
+        visionOverlayColor = null;
+        break;
+      case "propertyMapCI":
+        if (parsedPropertyMap != null) {
+          parsedPropertyMap.clear();
+        }
+        break;
+      case "macroPropertiesMap":
+        macroLabelIndex = null;
+        break;
+    }
+  }
+
   /** @return is token an image/lib token */
   public boolean isImgOrLib() {
     return (getName().toLowerCase().startsWith("image:")
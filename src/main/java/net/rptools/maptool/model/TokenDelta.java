@@ -0,0 +1,467 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import com.caucho.hessian.io.HessianOutput;
+import com.caucho.hessian.io.SerializerFactory;
+import java.awt.geom.Area;
+import java.awt.geom.PathIterator;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import net.rptools.lib.MD5Key;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The fields of a token which changed since the other clients last got it, so that a change to a
+ * token doesn't send the whole token, with its macros, properties and Hero Lab data.
+ *
+ * <p>A token keeps the fingerprints of its fields as sent, once it was sent whole. The fingerprint
+ * of a simple value is the value itself. Collections, maps, arrays and the objects of the model are
+ * copied down to their simple values, so that a change made in place is found, and so is the
+ * outline of the VBL area. Only other values fall back to a digest of their serialized form. A
+ * field is sent when its value no longer matches its fingerprint. Fingerprints which are not known
+ * to match the other clients must be dropped, so that the next change sends the whole token.
+ */
+public class TokenDelta implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private static final Logger log = LogManager.getLogger(TokenDelta.class);
+
+  /** The fields sent, those of the token which are not static or transient, but the id. */
+  private static final List<Field> fields = new ArrayList<Field>();
+
+  /** The position of each field in the fingerprints. */
+  private static final Map<String, Integer> fieldIndex = new HashMap<String, Integer>();
+
+  /** The classes whose values are their own fingerprints. */
+  private static final Set<Class<?>> simpleClasses =
+      Set.of(
+          String.class,
+          Boolean.class,
+          Integer.class,
+          Long.class,
+          Float.class,
+          Double.class,
+          BigDecimal.class,
+          GUID.class,
+          MD5Key.class,
+          File.class,
+          Class.class);
+
+  /** The fields of the model classes fingerprinted field by field. */
+  private static final Map<Class<?>, Field[]> beanFields =
+      new ConcurrentHashMap<Class<?>, Field[]>();
+
+  private static final SerializerFactory serializerFactory = new SerializerFactory();
+
+  static {
+    serializerFactory.setAllowNonSerializable(true);
+    for (Field field : Token.class.getDeclaredFields()) {
+      int modifiers = field.getModifiers();
+      if (Modifier.isStatic(modifiers)
+          || Modifier.isTransient(modifiers)
+          || field.getName().equals("id")) {
+        continue;
+      }
+      field.setAccessible(true);
+      fieldIndex.put(field.getName(), fields.size());
+      fields.add(field);
+    }
+  }
+
+  private final GUID tokenId;
+
+  /** The new values, by field name. */
+  private final Map<String, Object> values;
+
+  private TokenDelta(GUID tokenId, Map<String, Object> values) {
+    this.tokenId = tokenId;
+    this.values = values;
+  }
+
+  /** @return the id of the token changed */
+  public GUID getTokenId() {
+    return tokenId;
+  }
+
+  /** @return true if no field changed */
+  public boolean isEmpty() {
+    return values.isEmpty();
+  }
+
+  /**
+   * Find the fields of a token which changed since it was last sent, and take them as sent.
+   *
+   * @param token the token
+   * @return the changes, or null if the token must be sent whole
+   */
+  public static TokenDelta diff(Token token) {
+    Object[] sent = token.getSentFingerprints();
+    if (sent == null) {
+      return null;
+    }
+    Object[] fingerprints = sent.clone();
+    Map<String, Object> values = new HashMap<String, Object>();
+    for (int i = 0; i < fields.size(); i++) {
+      Object value = get(fields.get(i), token);
+      // Comparing doesn't copy anything, only the fields which changed get a new fingerprint
+      if (!matches(sent[i], value)) {
+        fingerprints[i] = fingerprint(value);
+        values.put(fields.get(i).getName(), value);
+      }
+    }
+    token.setSentFingerprints(fingerprints);
+    return new TokenDelta(token.getId(), values);
+  }
+
+  /**
+   * Take the token as sent whole, so that its next changes can be sent alone.
+   *
+   * @param token the token
+   */
+  public static void setSent(Token token) {
+    Object[] fingerprints = new Object[fields.size()];
+    for (int i = 0; i < fields.size(); i++) {
+      fingerprints[i] = fingerprint(get(fields.get(i), token));
+    }
+    token.setSentFingerprints(fingerprints);
+  }
+
+  /**
+   * Forget what the other clients got of the token, so that it is sent whole next time. To be
+   * called when the token is changed in any other way than a put.
+   *
+   * @param token the token, may be null
+   */
+  public static void clearSent(Token token) {
+    if (token != null) {
+      token.setSentFingerprints(null);
+    }
+  }
+
+  /**
+   * Set the changed fields of the token. Its zone must be told with a put.
+   *
+   * @param token the token to change
+   */
+  public void apply(Token token) {
+    Object[] sent = token.getSentFingerprints();
+    if (sent != null) {
+      sent = sent.clone();
+    }
+    for (Map.Entry<String, Object> entry : values.entrySet()) {
+      Integer index = fieldIndex.get(entry.getKey());
+      if (index == null) {
+        log.warn("Unknown token field " + entry.getKey());
+        continue;
+      }
+      try {
+        fields.get(index).set(token, entry.getValue());
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+      token.fieldChanged(entry.getKey());
+      if (sent != null) {
+        sent[index] = fingerprint(entry.getValue());
+      }
+    }
+    token.setSentFingerprints(sent);
+  }
+
+  private static Object get(Field field, Object object) {
+    try {
+      return field.get(object);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static boolean isSimple(Object value) {
+    return value == null || value instanceof Enum || simpleClasses.contains(value.getClass());
+  }
+
+  /** @return true if the fields of the objects of the class are fingerprinted one by one */
+  private static boolean isBean(Class<?> type) {
+    return type.getName().startsWith("net.rptools.maptool.model.");
+  }
+
+  /** @return the fields of a model class and of its superclasses, but static and transient ones */
+  private static Field[] getBeanFields(Class<?> type) {
+    return beanFields.computeIfAbsent(
+        type,
+        t -> {
+          List<Field> list = new ArrayList<Field>();
+          for (Class<?> c = t; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+              int modifiers = field.getModifiers();
+              if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                field.setAccessible(true);
+                list.add(field);
+              }
+            }
+          }
+          return list.toArray(new Field[0]);
+        });
+  }
+
+  /**
+   * Take a copy of a value down to its simple values, or a digest of it for the values which can't
+   * be copied.
+   *
+   * @param value the value of a field
+   * @return the fingerprint, which only equals the fingerprint of an equal value
+   */
+  private static Object fingerprint(Object value) {
+    if (isSimple(value)) {
+      return value;
+    }
+    if (value instanceof Map) {
+      Map<Object, Object> map = new HashMap<Object, Object>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        map.put(fingerprint(entry.getKey()), fingerprint(entry.getValue()));
+      }
+      return map;
+    }
+    if (value instanceof Set) {
+      Set<Object> set = new HashSet<Object>();
+      for (Object element : (Set<?>) value) {
+        set.add(fingerprint(element));
+      }
+      return set;
+    }
+    if (value instanceof Collection) {
+      List<Object> list = new ArrayList<Object>();
+      for (Object element : (Collection<?>) value) {
+        list.add(fingerprint(element));
+      }
+      return list;
+    }
+    if (value.getClass().isArray()) {
+      Object[] array = new Object[Array.getLength(value)];
+      for (int i = 0; i < array.length; i++) {
+        array[i] = fingerprint(Array.get(value, i));
+      }
+      return new BeanFingerprint(value.getClass(), array);
+    }
+    if (value instanceof Area) {
+      List<Object> segments = new ArrayList<Object>();
+      double[] coords = new double[6];
+      for (PathIterator it = ((Area) value).getPathIterator(null); !it.isDone(); it.next()) {
+        int type = it.currentSegment(coords);
+        segments.add(type);
+        segments.add(Arrays.copyOf(coords, segmentLength(type)));
+      }
+      return new BeanFingerprint(Area.class, segments.toArray());
+    }
+    if (isBean(value.getClass())) {
+      Field[] beanFields = getBeanFields(value.getClass());
+      Object[] values = new Object[beanFields.length];
+      for (int i = 0; i < beanFields.length; i++) {
+        values[i] = fingerprint(get(beanFields[i], value));
+      }
+      return new BeanFingerprint(value.getClass(), values);
+    }
+    return digest(value);
+  }
+
+  /**
+   * Tell if a value still matches a fingerprint, without copying it.
+   *
+   * @param fingerprint the fingerprint
+   * @param value the value of the field
+   * @return true if the value is equal to the one the fingerprint was taken of
+   */
+  private static boolean matches(Object fingerprint, Object value) {
+    if (isSimple(value)) {
+      return Objects.equals(fingerprint, value);
+    }
+    if (value instanceof Map) {
+      if (!(fingerprint instanceof Map)) {
+        return false;
+      }
+      Map<?, ?> sentMap = (Map<?, ?>) fingerprint;
+      Map<?, ?> map = (Map<?, ?>) value;
+      if (sentMap.size() != map.size()) {
+        return false;
+      }
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        Object key = fingerprint(entry.getKey());
+        if (!sentMap.containsKey(key) || !matches(sentMap.get(key), entry.getValue())) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (value instanceof Set) {
+      if (!(fingerprint instanceof Set)) {
+        return false;
+      }
+      Set<?> sentSet = (Set<?>) fingerprint;
+      Set<?> set = (Set<?>) value;
+      if (sentSet.size() != set.size()) {
+        return false;
+      }
+      for (Object element : set) {
+        if (!sentSet.contains(fingerprint(element))) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (value instanceof Collection) {
+      if (!(fingerprint instanceof List)) {
+        return false;
+      }
+      List<?> sentList = (List<?>) fingerprint;
+      Collection<?> collection = (Collection<?>) value;
+      if (sentList.size() != collection.size()) {
+        return false;
+      }
+      Iterator<?> sent = sentList.iterator();
+      for (Object element : collection) {
+        if (!matches(sent.next(), element)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (value.getClass().isArray()) {
+      if (!(fingerprint instanceof BeanFingerprint)) {
+        return false;
+      }
+      BeanFingerprint sent = (BeanFingerprint) fingerprint;
+      int length = Array.getLength(value);
+      if (sent.type != value.getClass() || sent.values.length != length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (!matches(sent.values[i], Array.get(value, i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+    if (value instanceof Area) {
+      return fingerprint(value).equals(fingerprint);
+    }
+    if (isBean(value.getClass())) {
+      if (!(fingerprint instanceof BeanFingerprint)) {
+        return false;
+      }
+      BeanFingerprint sent = (BeanFingerprint) fingerprint;
+      if (sent.type != value.getClass()) {
+        return false;
+      }
+      Field[] beanFields = getBeanFields(value.getClass());
+      for (int i = 0; i < beanFields.length; i++) {
+        if (!matches(sent.values[i], get(beanFields[i], value))) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return Objects.equals(fingerprint, digest(value));
+  }
+
+  /** @return the number of coordinates of a segment of a path */
+  private static int segmentLength(int type) {
+    switch (type) {
+      case PathIterator.SEG_MOVETO:
+      case PathIterator.SEG_LINETO:
+        return 2;
+      case PathIterator.SEG_QUADTO:
+        return 4;
+      case PathIterator.SEG_CUBICTO:
+        return 6;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * The fingerprint of an array, of an area or of an object of the model: its class and its parts.
+   */
+  private static final class BeanFingerprint {
+    private final Class<?> type;
+    private final Object[] values;
+
+    private BeanFingerprint(Class<?> type, Object[] values) {
+      this.type = type;
+      this.values = values;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof BeanFingerprint)) {
+        return false;
+      }
+      BeanFingerprint other = (BeanFingerprint) o;
+      return type == other.type && Arrays.deepEquals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * type.hashCode() + Arrays.deepHashCode(values);
+    }
+  }
+
+  /** @return a digest of the serialized form of a value */
+  private static Object digest(Object value) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("MD5");
+      HessianOutput hessian =
+          new HessianOutput(
+              new OutputStream() {
+                @Override
+                public void write(int b) {
+                  digest.update((byte) b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                  digest.update(b, off, len);
+                }
+              });
+      hessian.setSerializerFactory(serializerFactory);
+      hessian.writeObject(value);
+      return ByteBuffer.wrap(digest.digest());
+    } catch (IOException | NoSuchAlgorithmException | RuntimeException e) {
+      // A fingerprint matching nothing, so that the field is sent
+      log.warn("Could not fingerprint a token field", e);
+      return new Object();
+    }
+  }
+}
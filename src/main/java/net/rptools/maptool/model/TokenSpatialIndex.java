@@ -0,0 +1,177 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.Rectangle;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Uniform grid of buckets mapping regions of a {@link Zone} to the tokens whose bounds overlap
+ * them. Queries return a superset of the tokens intersecting the requested rectangle; callers are
+ * expected to perform their own exact checks on the (much smaller) candidate set.
+ *
+ * <p>The index does not observe tokens itself. {@link Zone} is responsible for calling {@link
+ * #put(Token, Rectangle)} and {@link #remove(GUID)} whenever a token is added, changed or removed.
+ *
+ * <p>All the methods are thread safe.
+ */
+class TokenSpatialIndex {
+
+  /** Length, in zone pixels, of the side of a bucket. */
+  static final int BUCKET_SIZE = 512;
+
+  /**
+   * Tokens covering more buckets than this (large background stamps, mostly) are not spread across
+   * the grid but kept in a separate set that is part of every query result.
+   */
+  private static final int MAX_BUCKETS_PER_TOKEN = 256;
+
+  /** Map each bucket key to the tokens overlapping that bucket. */
+  private final Map<Long, Set<Token>> buckets = new HashMap<>();
+
+  /** Tokens too large to be bucketed. */
+  private final Set<Token> oversized = new HashSet<>();
+
+  /** The bounds each token was indexed with, so it can be found again on removal. */
+  private final Map<GUID, Rectangle> indexedBounds = new HashMap<>();
+
+  /** The token instance indexed under each GUID. */
+  private final Map<GUID, Token> indexedTokens = new HashMap<>();
+
+  /**
+   * Adds the token to the index, or moves it if it is already indexed.
+   *
+   * @param token the token to index
+   * @param bounds the bounds of the token in zone coordinates, or null to index the token as
+   *     overlapping everything
+   */
+  synchronized void put(Token token, Rectangle bounds) {
+    remove(token.getId());
+
+    indexedTokens.put(token.getId(), token);
+    if (bounds == null || bucketCount(bounds) > MAX_BUCKETS_PER_TOKEN) {
+      oversized.add(token);
+      return;
+    }
+    Rectangle copy = new Rectangle(bounds);
+    indexedBounds.put(token.getId(), copy);
+    for (int bx = bucket(copy.x); bx <= bucket((long) copy.x + copy.width); bx++) {
+      for (int by = bucket(copy.y); by <= bucket((long) copy.y + copy.height); by++) {
+        buckets.computeIfAbsent(key(bx, by), k -> new HashSet<>()).add(token);
+      }
+    }
+  }
+
+  /**
+   * Removes the token with the given id from the index.
+   *
+   * @param id the id of the token
+   */
+  synchronized void remove(GUID id) {
+    Token token = indexedTokens.remove(id);
+    if (token == null) {
+      return;
+    }
+    Rectangle bounds = indexedBounds.remove(id);
+    if (bounds == null) {
+      oversized.remove(token);
+      return;
+    }
+    for (int bx = bucket(bounds.x); bx <= bucket((long) bounds.x + bounds.width); bx++) {
+      for (int by = bucket(bounds.y); by <= bucket((long) bounds.y + bounds.height); by++) {
+        Long key = key(bx, by);
+        Set<Token> set = buckets.get(key);
+        if (set != null) {
+          set.remove(token);
+          if (set.isEmpty()) {
+            buckets.remove(key);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the tokens whose indexed bounds may intersect the area.
+   *
+   * @param area the area to look up, in zone coordinates
+   * @return a new set of candidate tokens
+   */
+  Set<Token> query(Rectangle area) {
+    Set<Token> result = new HashSet<>();
+    query(area, result);
+    return result;
+  }
+
+  /**
+   * Adds the tokens whose indexed bounds may intersect the area to a collection. A token is added
+   * once for each bucket it is found in, so the collection should be a set.
+   *
+   * @param area the area to look up, in zone coordinates
+   * @param result the collection the candidate tokens are added to
+   */
+  synchronized void query(Rectangle area, Collection<? super Token> result) {
+    result.addAll(oversized);
+    if (bucketCount(area) > buckets.size()) {
+      // Cheaper to walk the occupied buckets than every bucket under the area
+      for (Token token : indexedTokens.values()) {
+        Rectangle bounds = indexedBounds.get(token.getId());
+        if (bounds != null && bounds.intersects(area)) {
+          result.add(token);
+        }
+      }
+      return;
+    }
+    for (int bx = bucket(area.x); bx <= bucket((long) area.x + area.width); bx++) {
+      for (int by = bucket(area.y); by <= bucket((long) area.y + area.height); by++) {
+        Set<Token> set = buckets.get(key(bx, by));
+        if (set != null) {
+          result.addAll(set);
+        }
+      }
+    }
+  }
+
+  /** @return the number of tokens in the index */
+  synchronized int size() {
+    return indexedTokens.size();
+  }
+
+  /** Removes every token from the index. */
+  synchronized void clear() {
+    buckets.clear();
+    oversized.clear();
+    indexedBounds.clear();
+    indexedTokens.clear();
+  }
+
+  private static long bucketCount(Rectangle r) {
+    long w = (long) bucket((long) r.x + r.width) - bucket(r.x) + 1;
+    long h = (long) bucket((long) r.y + r.height) - bucket(r.y) + 1;
+    return w * h;
+  }
+
+  private static int bucket(long coordinate) {
+    return (int) Math.floorDiv(coordinate, (long) BUCKET_SIZE);
+  }
+
+  private static Long key(int bx, int by) {
+    return ((long) bx << 32) | (by & 0xffffffffL);
+  }
+}
@@ -19,7 +19,6 @@
 import java.awt.Rectangle;
 import java.awt.geom.Area;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -29,6 +28,7 @@
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import net.rptools.lib.MD5Key;
 import net.rptools.maptool.client.AppPreferences;
@@ -144,6 +144,30 @@ public enum TopologyMode {
     COMBINED
   }
 
+  /**
+   * The argument of the TOPOLOGY_CHANGED events fired when the topology of the zone is edited: the
+   * area added to or removed from the VBL.
+   */
+  public static class TopologyChange {
+    private final Area area;
+    private final boolean added;
+
+    public TopologyChange(Area area, boolean added) {
+      this.area = area;
+      this.added = added;
+    }
+
+    /** @return the area added to or removed from the VBL, empty if only the MBL changed */
+    public Area getArea() {
+      return area;
+    }
+
+    /** @return true if the area was added to the VBL, false if it was removed */
+    public boolean isAdded() {
+      return added;
+    }
+  }
+
   public static final int DEFAULT_TOKEN_VISION_DISTANCE = 250; // In units
   public static final int DEFAULT_PIXELS_CELL = 50;
   public static final int DEFAULT_UNITS_PER_CELL = 5;
@@ -182,8 +206,15 @@ public enum TopologyMode {
   /** Map each token GUID to its exposed area metadata */
   private Map<GUID, ExposedAreaMetaData> exposedAreaMeta = new HashMap<GUID, ExposedAreaMetaData>();
 
-  /** Token list ordered by Z. */
-  private final List<Token> tokenOrderedList = new LinkedList<Token>();
+  /** Token list ordered by Z. Kept sorted by {@link #putInZOrder(Token)}. */
+  private List<Token> tokenOrderedList = new ArrayList<Token>();
+
+  /**
+   * The z-order each token had when it was placed in {@link #tokenOrderedList}. The z-order of a
+   * token can be changed before the token is put back in the zone, so the list is searched using
+   * these values rather than the current ones. Built lazily by {@link #getTokenOrderedZ()}.
+   */
+  private transient Map<GUID, Integer> tokenOrderedZ;
 
   private InitiativeList initiativeList = new InitiativeList(this);
 
@@ -197,9 +228,36 @@ public enum TopologyMode {
   /** The VBL topology of the zone. Does not include token VBL. */
   private Area topology = new Area();
 
+  /** Incremented each time the VBL topology of the zone changes. Does not include token VBL. */
+  private transient long topologyVersion;
+
   // New topology to hold Movement Blocking Only
   private Area topologyTerrain = new Area();
 
+  /** Incremented each time the MBL topology of the zone changes. */
+  private transient long topologyTerrainVersion;
+
+  /**
+   * Copies of the VBL and MBL the passability grids are built from, on the threads finding paths.
+   * Made by the thread changing the topology, the EDT, so that the grids never read an area being
+   * changed.
+   */
+  private transient Area passabilityTopology = new Area();
+
+  private transient Area passabilityTopologyTerrain = new Area();
+
+  /** The moves between cells the VBL blocks, built lazily. See {@link #getVblPassability()}. */
+  private transient PassabilityGrid vblPassability;
+
+  /** The moves between cells the MBL blocks, built lazily. See {@link #getMblPassability()}. */
+  private transient PassabilityGrid mblPassability;
+
+  /**
+   * The terrain modifiers of the cells, built lazily and dropped when a terrain modifier token
+   * changes. See {@link #getTerrainCostField()}.
+   */
+  private transient TerrainCostField terrainCostField;
+
   // The 'board' layer, at the very bottom of the layer stack.
   // Itself has two sub-layers:
   // The top one is an optional texture, typically a pre-drawn map.
@@ -229,6 +287,12 @@ public enum TopologyMode {
 
   private transient HashMap<String, Integer> tokenNumberCache;
 
+  /** Spatial index of the tokens, built lazily. See {@link #getSpatialIndex()}. */
+  private transient TokenSpatialIndex spatialIndex;
+
+  /** The grid settings the spatial index was built against. */
+  private transient int spatialIndexGridSignature;
+
   /**
    * Note: When adding new fields to this class, make sure to update all constructors, {@link
    * #imported()}, {@link #readResolve()}, and potentially {@link #optimize()}.
@@ -445,12 +509,62 @@ public Zone(Zone zone, boolean keepIds) {
     exposedArea = (Area) zone.exposedArea.clone();
     topology = (Area) zone.topology.clone();
     topologyTerrain = (Area) zone.topologyTerrain.clone();
+    passabilityTopology = new Area(topology);
+    passabilityTopologyTerrain = new Area(topologyTerrain);
     aStarRounding = zone.aStarRounding;
     topologyMode = zone.topologyMode;
     isVisible = zone.isVisible;
     hasFog = zone.hasFog;
   }
 
+  /**
+   * Create the header of the zone, sent to the clients joining a server in place of the zones they
+   * don't show yet. It has the same id and settings as the zone, and its lib: tokens so that the
+   * library macros are found, but none of its other tokens, drawings, labels, fog or topology.
+   *
+   * <p>The header shares its settings and tokens with the zone, and must only be serialized.
+   *
+   * @return the header of the zone
+   */
+  public Zone createHeader() {
+    Zone header = new Zone();
+    header.id = id;
+    header.creationTime = creationTime;
+    header.name = name;
+    header.isVisible = isVisible;
+    try {
+      header.grid = (Grid) grid.clone();
+      header.grid.setZone(header);
+    } catch (CloneNotSupportedException cnse) {
+      throw new IllegalStateException(cnse); // Grids are Cloneable
+    }
+    header.gridColor = gridColor;
+    header.imageScaleX = imageScaleX;
+    header.imageScaleY = imageScaleY;
+    header.tokenVisionDistance = tokenVisionDistance;
+    header.unitsPerCell = unitsPerCell;
+    header.aStarRounding = aStarRounding;
+    header.topologyMode = topologyMode;
+    header.hasFog = hasFog;
+    header.fogPaint = fogPaint;
+    header.backgroundPaint = backgroundPaint;
+    header.mapAsset = mapAsset;
+    header.boardPosition = boardPosition;
+    header.drawBoard = drawBoard;
+    header.boardChanged = boardChanged;
+    header.visionType = visionType;
+    header.tokenSelection = tokenSelection;
+    header.height = height;
+    header.width = width;
+    for (Token token : tokenOrderedList) {
+      if (LibTokenIndex.isLibTokenName(token.getName())) {
+        header.tokenMap.put(token.getId(), token);
+        header.tokenOrderedList.add(token);
+      }
+    }
+    return header;
+  }
+
   public GUID getId() {
     return id;
   }
@@ -739,11 +853,16 @@ public boolean isTokenFootprintVisible(Token token) {
 
   public void clearTopology() {
     topology = new Area();
+    synchronized (this) {
+      topologyVersion++;
+      passabilityTopology = new Area();
+    }
     fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED));
   }
 
   /**
-   * Add the area to the topology, and fire the event TOPOLOGY_CHANGED
+   * Add the area to the topology, and fire the event TOPOLOGY_CHANGED. The argument of the event is
+   * a {@link TopologyChange} holding the area added to the VBL, empty if only the MBL changed.
    *
    * @param area the area
    * @param topologyMode the mode of the topology
@@ -762,7 +881,7 @@ public void addTopology(Area area, TopologyMode topologyMode) {
         break;
     }
 
-    fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED));
+    fireTopologyChanged(area, true, topologyMode);
   }
 
   public void addTopology(Area area) {
@@ -770,7 +889,9 @@ public void addTopology(Area area) {
   }
 
   /**
-   * Subtract the area from the topology, and fire the event TOPOLOGY_CHANGED
+   * Subtract the area from the topology, and fire the event TOPOLOGY_CHANGED. The argument of the
+   * event is a {@link TopologyChange} holding the area removed from the VBL, empty if only the MBL
+   * changed.
    *
    * @param area the area
    * @param topologyMode the mode of the topology
@@ -789,14 +910,41 @@ public void removeTopology(Area area, TopologyMode topologyMode) {
         break;
     }
 
-    fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED));
+    fireTopologyChanged(area, false, topologyMode);
   }
 
   public void removeTopology(Area area) {
     removeTopology(area, getTopologyMode());
   }
 
-  /** Fire the event TOPOLOGY_CHANGED. */
+  /**
+   * Bump the topology versions of the layers changed, and fire the event TOPOLOGY_CHANGED.
+   *
+   * @param area the area added or removed
+   * @param added true if the area was added, false if it was removed
+   * @param topologyMode the mode of the topology
+   */
+  private void fireTopologyChanged(Area area, boolean added, TopologyMode topologyMode) {
+    Area changedVBL = new Area();
+    synchronized (this) {
+      if (topologyMode != TopologyMode.MBL) {
+        topologyVersion++;
+        passabilityTopology = new Area(topology);
+        changedVBL = area;
+      }
+      if (topologyMode != TopologyMode.VBL) {
+        topologyTerrainVersion++;
+        passabilityTopologyTerrain = new Area(topologyTerrain);
+      }
+    }
+    fireModelChangeEvent(
+        new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED, new TopologyChange(changedVBL, added)));
+  }
+
+  /**
+   * Fire the event TOPOLOGY_CHANGED, without argument. Listeners are expected to check which VBL
+   * tokens changed, as the VBL of the zone itself is unchanged.
+   */
   public void tokenTopologyChanged() {
     fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED));
   }
@@ -806,17 +954,87 @@ public Area getTopology() {
     return topology;
   }
 
+  /**
+   * Get the version of the VBL topology of the zone, incremented by each change made through the
+   * methods of the zone. Listeners can compare it to the version they last saw to tell whether the
+   * VBL changed without them getting the area of the change. Token VBL is not included.
+   *
+   * @return the topology version
+   */
+  public long getTopologyVersion() {
+    return topologyVersion;
+  }
+
   /** @return the terrain topology of the zone */
   public Area getTopologyTerrain() {
     return topologyTerrain;
   }
 
+  /**
+   * Returns which moves between cells the VBL of the zone blocks, (re)building it if the VBL or the
+   * grid changed since it was built. Token VBL is not included.
+   *
+   * @return the passability of the VBL
+   */
+  public synchronized PassabilityGrid getVblPassability() {
+    int signature = getGridSignature();
+    if (vblPassability == null || !vblPassability.isFor(signature, topologyVersion)) {
+      vblPassability = new PassabilityGrid(grid, signature, passabilityTopology, topologyVersion);
+    }
+    return vblPassability;
+  }
+
+  /**
+   * Returns which moves between cells the MBL of the zone blocks, (re)building it if the MBL or the
+   * grid changed since it was built.
+   *
+   * @return the passability of the MBL
+   */
+  public synchronized PassabilityGrid getMblPassability() {
+    int signature = getGridSignature();
+    if (mblPassability == null || !mblPassability.isFor(signature, topologyTerrainVersion)) {
+      mblPassability =
+          new PassabilityGrid(grid, signature, passabilityTopologyTerrain, topologyTerrainVersion);
+    }
+    return mblPassability;
+  }
+
+  /**
+   * Returns the terrain modifiers of the cells, (re)building them if a token with a terrain
+   * modifier or the grid changed since they were built.
+   *
+   * @return the terrain cost field
+   */
+  public synchronized TerrainCostField getTerrainCostField() {
+    int signature = getGridSignature();
+    if (terrainCostField == null || !terrainCostField.isFor(signature)) {
+      terrainCostField = new TerrainCostField(grid, signature, getTokensWithTerrainModifiers());
+    }
+    return terrainCostField;
+  }
+
+  /**
+   * Drops the terrain cost field if the token has, or had, a terrain modifier.
+   *
+   * @param id the id of the token
+   * @param token the token, or null if it was removed
+   */
+  private synchronized void invalidateTerrainCostField(GUID id, Token token) {
+    if (terrainCostField != null
+        && (terrainCostField.contains(id)
+            || (token != null
+                && token.getTerrainModifierOperation() != TerrainModifierOperation.NONE))) {
+      terrainCostField = null;
+    }
+  }
+
   /**
    * Fire the event TOKEN_CHANGED
    *
    * @param token the token that changed
    */
   public void tokenChanged(Token token) {
+    indexToken(token);
     fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_CHANGED, token));
   }
 
@@ -1136,9 +1354,105 @@ public int getSmallestZOrder() {
     return tokenOrderedList.size() > 0 ? tokenOrderedList.get(0).getZOrder() : 0;
   }
 
-  /** Sort the tokens by their ZOrder */
+  /**
+   * Moves the tokens whose z-order was changed without putting them back in the zone to their new
+   * position in the z-ordered list.
+   */
   public void sortZOrder() {
-    Collections.sort(tokenOrderedList, TOKEN_Z_ORDER_COMPARATOR);
+    Map<GUID, Integer> orderedZ = getTokenOrderedZ();
+    for (Token token : new ArrayList<Token>(tokenOrderedList)) {
+      if (token.getZOrder() != orderedZ.get(token.getId())) {
+        putInZOrder(token);
+      }
+    }
+  }
+
+  /**
+   * Places the token in the z-ordered list, replacing the previous version of the token if there is
+   * one. Uses a binary search, so only the shift of the list elements is linear.
+   *
+   * @param token the token to place
+   */
+  private void putInZOrder(Token token) {
+    Map<GUID, Integer> orderedZ = getTokenOrderedZ();
+    Integer oldZ = orderedZ.get(token.getId());
+    int z = token.getZOrder();
+    if (oldZ != null) {
+      int index = findInZOrder(oldZ, token.getId());
+      if (index >= 0) {
+        if (oldZ == z) {
+          tokenOrderedList.set(index, token);
+          return;
+        }
+        tokenOrderedList.remove(index);
+      }
+    }
+    int index = findInZOrder(z, token.getId());
+    tokenOrderedList.add(index < 0 ? -index - 1 : index, token);
+    orderedZ.put(token.getId(), z);
+  }
+
+  /**
+   * Removes the token from the z-ordered list.
+   *
+   * @param id the id of the token
+   */
+  private void removeFromZOrder(GUID id) {
+    Integer oldZ = getTokenOrderedZ().remove(id);
+    if (oldZ != null) {
+      int index = findInZOrder(oldZ, id);
+      if (index >= 0) {
+        tokenOrderedList.remove(index);
+      }
+    }
+  }
+
+  /**
+   * Binary search of the z-ordered list.
+   *
+   * @param z the z-order the token was placed with
+   * @param id the id of the token
+   * @return the index of the token if present, otherwise <code>(-(insertion point) - 1)</code>
+   */
+  private int findInZOrder(int z, GUID id) {
+    Map<GUID, Integer> orderedZ = getTokenOrderedZ();
+    int low = 0;
+    int high = tokenOrderedList.size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      GUID midId = tokenOrderedList.get(mid).getId();
+      int midZ = orderedZ.get(midId);
+      int cmp = midZ != z ? Integer.compare(midZ, z) : midId.compareTo(id);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Returns the z-order the tokens were placed in the z-ordered list with. If these aren't known
+   * (e.g. the zone was just deserialized), the list is sorted by the current z-order first.
+   *
+   * @return the map of token ids to z-order
+   */
+  private Map<GUID, Integer> getTokenOrderedZ() {
+    if (tokenOrderedZ == null) {
+      tokenOrderedList.sort(
+          (t1, t2) ->
+              t1.getZOrder() != t2.getZOrder()
+                  ? Integer.compare(t1.getZOrder(), t2.getZOrder())
+                  : t1.getId().compareTo(t2.getId()));
+      tokenOrderedZ = new HashMap<GUID, Integer>(tokenOrderedList.size() * 4 / 3 + 1);
+      for (Token token : tokenOrderedList) {
+        tokenOrderedZ.put(token.getId(), token.getZOrder());
+      }
+    }
+    return tokenOrderedZ;
   }
 
   ///////////////////////////////////////////////////////////////////////////
@@ -1328,11 +1642,8 @@ public void putToken(Token token) {
     boolean newToken = !tokenMap.containsKey(token.getId());
 
     tokenMap.put(token.getId(), token);
-
-    // LATER: optimize this
-    tokenOrderedList.remove(token);
-    tokenOrderedList.add(token);
-    tokenOrderedList.sort(TOKEN_Z_ORDER_COMPARATOR);
+    putInZOrder(token);
+    indexToken(token);
 
     if (newToken) {
       fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_ADDED, token));
@@ -1356,29 +1667,21 @@ public void editToken(Token token) {
    * </code> and passes the list of added tokens as a parameter. Ditto for <code>Event.TOKEN_CHANGED
    * </code>.
    *
-   * <p>Not currently invoked by other code, but event handling changes for multiple tokens has been
-   * made. Marked as deprecated to prevent use until the rest of the integration is completed.
-   *
    * @param tokens List of Tokens to be added to this zone
    */
-  @Deprecated
   public void putTokens(List<Token> tokens) {
-    // System.out.println("putToken() called with list of " + tokens.size() + " tokens.");
-
-    Collection<Token> values = tokenMap.values();
-
-    List<Token> addedTokens = new LinkedList<Token>(tokens);
-    addedTokens.removeAll(values);
-
-    List<Token> changedTokens = new LinkedList<Token>(tokens);
-    changedTokens.retainAll(values);
+    List<Token> addedTokens = new ArrayList<Token>();
+    List<Token> changedTokens = new ArrayList<Token>();
 
     for (Token t : tokens) {
-      tokenMap.put(t.getId(), t);
+      if (tokenMap.put(t.getId(), t) == null) {
+        addedTokens.add(t);
+      } else {
+        changedTokens.add(t);
+      }
+      putInZOrder(t);
+      indexToken(t);
     }
-    tokenOrderedList.removeAll(tokens);
-    tokenOrderedList.addAll(tokens);
-    tokenOrderedList.sort(TOKEN_Z_ORDER_COMPARATOR);
 
     if (!addedTokens.isEmpty()) {
       fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_ADDED, addedTokens));
@@ -1396,7 +1699,9 @@ public void putTokens(List<Token> tokens) {
   public void removeToken(GUID id) {
     Token token = tokenMap.remove(id);
     if (token != null) {
-      tokenOrderedList.remove(token);
+      removeFromZOrder(id);
+      unindexToken(id);
+      TokenDelta.clearSent(token);
       fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_REMOVED, token));
     }
   }
@@ -1412,7 +1717,9 @@ public void removeTokens(List<GUID> ids) {
       for (GUID id : ids) {
         Token token = tokenMap.remove(id);
         if (token != null) {
-          tokenOrderedList.remove(token);
+          removeFromZOrder(id);
+          unindexToken(id);
+          TokenDelta.clearSent(token);
           removedTokens.add(token);
         }
       }
@@ -1566,6 +1873,123 @@ public List<Token> getTokensFiltered(Filter filter) {
     return Collections.unmodifiableList(copy);
   }
 
+  /**
+   * Returns the tokens whose bounds may intersect the area, ordered by z-order. The result is
+   * computed from a spatial index and may contain tokens that are merely close to the area, so
+   * callers needing an exact answer must still check the bounds of each token.
+   *
+   * @param area the area to look up, in zone coordinates
+   * @return the list of candidate tokens
+   */
+  public List<Token> getTokensInBounds(Rectangle area) {
+    return getTokensInBounds(area, null);
+  }
+
+  /**
+   * Same as {@link #getTokensInBounds(Rectangle)}, but only returns the tokens accepted by the
+   * filter.
+   *
+   * @param area the area to look up, in zone coordinates
+   * @param filter the filter, or null to accept every token
+   * @return the list of candidate tokens
+   */
+  public List<Token> getTokensInBounds(Rectangle area, Filter filter) {
+    ArrayList<Token> copy = new ArrayList<Token>();
+    for (Token token : getSpatialIndex().query(area)) {
+      if (filter == null || filter.matchToken(token)) {
+        copy.add(token);
+      }
+    }
+    copy.sort(TOKEN_Z_ORDER_COMPARATOR);
+    return Collections.unmodifiableList(copy);
+  }
+
+  /**
+   * Adds the tokens whose bounds may intersect the area to a set, in no particular order. Same as
+   * {@link #getTokensInBounds(Rectangle)}, for callers which only check if a token is a candidate
+   * and reuse the set.
+   *
+   * @param area the area to look up, in zone coordinates
+   * @param result the set the candidate tokens are added to
+   */
+  public void addTokensInBounds(Rectangle area, Set<Token> result) {
+    getSpatialIndex().query(area, result);
+  }
+
+  /**
+   * Returns the spatial index of the tokens, (re)building it if it doesn't exist yet or if the grid
+   * changed since it was built, as the bounds of the tokens depend on the grid.
+   *
+   * @return the spatial index
+   */
+  private synchronized TokenSpatialIndex getSpatialIndex() {
+    int signature = getGridSignature();
+    if (spatialIndex == null || spatialIndexGridSignature != signature) {
+      spatialIndex = new TokenSpatialIndex();
+      spatialIndexGridSignature = signature;
+      for (Token token : tokenMap.values()) {
+        spatialIndex.put(token, getIndexBounds(token));
+      }
+    }
+    return spatialIndex;
+  }
+
+  /** @return a value that changes whenever the grid changes in a way that moves token bounds */
+  private int getGridSignature() {
+    if (grid == null) {
+      return 0;
+    }
+    return Objects.hash(grid.getClass(), grid.getSize(), grid.getOffsetX(), grid.getOffsetY());
+  }
+
+  /**
+   * Updates the spatial index for the token. Does nothing if the index hasn't been built yet, as it
+   * will pick up the token when it is. Drops the terrain cost field if the token is on it.
+   *
+   * @param token the token that was added or changed
+   */
+  private synchronized void indexToken(Token token) {
+    if (spatialIndex != null) {
+      spatialIndex.put(token, getIndexBounds(token));
+    }
+    invalidateTerrainCostField(token.getId(), token);
+  }
+
+  /**
+   * Removes the token from the spatial index, if the index has been built, and from the terrain
+   * cost field.
+   *
+   * @param id the id of the removed token
+   */
+  private synchronized void unindexToken(GUID id) {
+    if (spatialIndex != null) {
+      spatialIndex.remove(id);
+    }
+    invalidateTerrainCostField(id, null);
+  }
+
+  /**
+   * Returns the bounds a token is indexed with: its bounds, grown for tokens with a facing so that
+   * any rotation of the token stays inside.
+   *
+   * @param token the token
+   * @return the bounds, or null if they can't be computed yet
+   */
+  private Rectangle getIndexBounds(Token token) {
+    if (grid == null) {
+      return null;
+    }
+    Rectangle bounds = token.getBounds(this);
+    if (token.hasFacing()) {
+      int grow =
+          (bounds.width + bounds.height) / 2
+              + Math.abs(token.getAnchorX())
+              + Math.abs(token.getAnchorY());
+      bounds.grow(grow, grow);
+    }
+    return bounds;
+  }
+
   public List<Token> removeTokens(List<Token> tokensToKeep, List<Token> tokensToRemove) {
     ArrayList<Token> originalList = new ArrayList<Token>(tokensToKeep);
     originalList.removeAll(tokensToRemove);
@@ -2065,6 +2489,12 @@ public boolean matchToken(Token token) {
     if (topologyTerrain == null) {
       topologyTerrain = new Area();
     }
+    passabilityTopology = new Area(topology);
+    passabilityTopologyTerrain = new Area(topologyTerrain);
+    // Older campaigns have the z-ordered tokens in a LinkedList, which is slow to keep sorted
+    if (!(tokenOrderedList instanceof ArrayList)) {
+      tokenOrderedList = new ArrayList<Token>(tokenOrderedList);
+    }
     return this;
   }
 
@@ -15,14 +15,18 @@
 package net.rptools.maptool.server;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import javax.swing.SwingUtilities;
 import net.rptools.clientserver.simple.client.ClientConnection;
 import net.rptools.clientserver.simple.server.ServerObserver;
+import net.rptools.lib.MD5Key;
+import net.rptools.maptool.client.AppPreferences;
 import net.rptools.maptool.client.ClientCommand;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.MapToolRegistry;
@@ -51,6 +55,7 @@ public class MapToolServer {
   private final Map<String, ClientConnection> connectionMap =
       Collections.synchronizedMap(new HashMap<String, ClientConnection>());
   private final AssetProducerThread assetProducerThread;
+  private final TokenMoveAggregator tokenMoveAggregator;
 
   private Campaign campaign;
   private ServerPolicy policy;
@@ -66,6 +71,9 @@ public MapToolServer(ServerConfig config, ServerPolicy policy) throws IOExceptio
     assetProducerThread = new AssetProducerThread();
     assetProducerThread.start();
 
+    tokenMoveAggregator = new TokenMoveAggregator(this, AppPreferences.getTokenMoveBroadcastRate());
+    tokenMoveAggregator.start();
+
     this.config = config;
     this.policy = policy;
 
@@ -78,7 +86,9 @@ public MapToolServer(ServerConfig config, ServerPolicy policy) throws IOExceptio
 
   public void configureClientConnection(ClientConnection connection) {
     String id = connection.getId();
-    assetManagerMap.put(id, new AssetTransferManager());
+    AssetTransferManager manager = new AssetTransferManager();
+    manager.setBandwidthLimit(AppPreferences.getAssetBandwidthLimit() * 1024);
+    assetManagerMap.put(id, manager);
     connectionMap.put(id, connection);
   }
 
@@ -86,6 +96,13 @@ public ClientConnection getClientConnection(String id) {
     return connectionMap.get(id);
   }
 
+  /** @return the ids of the client connections */
+  List<String> getConnectionIds() {
+    synchronized (connectionMap) {
+      return new ArrayList<String>(connectionMap.keySet());
+    }
+  }
+
   public String getConnectionId(String playerId) {
     return conn.getConnectionId(playerId);
   }
@@ -104,13 +121,42 @@ public void releaseClientConnection(String id) {
         log.error("Could not release connection: " + id, e);
       }
     }
-    assetManagerMap.remove(id);
+    AssetTransferManager manager = assetManagerMap.remove(id);
+    if (manager != null) {
+      manager.flush();
+    }
     connectionMap.remove(id);
   }
 
   public void addAssetProducer(String connectionId, AssetProducer producer) {
     AssetTransferManager manager = assetManagerMap.get(connectionId);
     manager.addProducer(producer);
+    assetProducerThread.wakeUp();
+  }
+
+  /**
+   * Queue an asset to be sent to a client once the assets it is waiting for have been sent.
+   *
+   * @param connectionId the id of the client connection
+   * @param producer the producer of the asset
+   */
+  public void addBackgroundAssetProducer(String connectionId, AssetProducer producer) {
+    AssetTransferManager manager = assetManagerMap.get(connectionId);
+    manager.addBackgroundProducer(producer);
+    assetProducerThread.wakeUp();
+  }
+
+  /**
+   * Check whether an asset is already being sent to a client, and if it is queued in the
+   * background, send it along with the assets the client is waiting for.
+   *
+   * @param connectionId the id of the client connection
+   * @param assetId the id of the asset
+   * @return true if the asset is already being sent
+   */
+  public boolean prioritizeAssetProducer(String connectionId, MD5Key assetId) {
+    AssetTransferManager manager = assetManagerMap.get(connectionId);
+    return manager != null && manager.prioritizeProducer(assetId);
   }
 
   public void addObserver(ServerObserver observer) {
@@ -163,6 +209,10 @@ public ServerConfig getConfig() {
     return config;
   }
 
+  TokenMoveAggregator getTokenMoveAggregator() {
+    return tokenMoveAggregator;
+  }
+
   public void stop() {
     try {
       conn.close();
@@ -172,6 +222,7 @@ public void stop() {
       if (assetProducerThread != null) {
         assetProducerThread.shutdown();
       }
+      tokenMoveAggregator.shutdown();
     } catch (IOException e) {
       // Not too concerned about this
       log.info("Couldn't close connection", e);
@@ -265,17 +316,40 @@ public void shutdown() {
   ////
   // CLASSES
   private class AssetProducerThread extends Thread {
-    private boolean stop = false;
+    private volatile boolean stop = false;
+    /** Set when a producer is added, so that the thread doesn't go to sleep without seeing it. */
+    private boolean wokenUp = false;
 
     @Override
     public void run() {
       while (!stop) {
-        Entry<String, AssetTransferManager> entryForException = null;
+        String connectionIdForException = null;
         try {
+          synchronized (this) {
+            wokenUp = false;
+          }
+          // Take turns between the clients, one chunk each, so a client downloading a large map
+          // doesn't hold up the others
+          List<Entry<String, AssetTransferManager>> entries;
+          synchronized (assetManagerMap) {
+            entries =
+                new ArrayList<Entry<String, AssetTransferManager>>(assetManagerMap.entrySet());
+          }
           boolean lookForMore = false;
-          for (Entry<String, AssetTransferManager> entry : assetManagerMap.entrySet()) {
-            entryForException = entry;
-            AssetChunk chunk = entry.getValue().nextChunk(ASSET_CHUNK_SIZE);
+          long delay = Long.MAX_VALUE;
+          for (Entry<String, AssetTransferManager> entry : entries) {
+            connectionIdForException = entry.getKey();
+            AssetTransferManager manager = entry.getValue();
+            if (!manager.hasProducers()) {
+              continue;
+            }
+            long throttleDelay = manager.getThrottleDelay(ASSET_CHUNK_SIZE);
+            if (throttleDelay > 0) {
+              // Over its bandwidth limit, come back to it later
+              delay = Math.min(delay, throttleDelay);
+              continue;
+            }
+            AssetChunk chunk = manager.nextChunk(ASSET_CHUNK_SIZE);
             if (chunk != null) {
               lookForMore = true;
               getConnection()
@@ -289,19 +363,30 @@ public void run() {
           if (lookForMore) {
             continue;
           }
-          // Sleep for a bit
+          // Sleep until a producer is added, or a client is allowed to send again
           synchronized (this) {
-            Thread.sleep(500);
+            if (!wokenUp && !stop) {
+              wait(delay == Long.MAX_VALUE ? 0 : delay);
+            }
           }
+        } catch (InterruptedException e) {
+          // Check whether we should stop
         } catch (Exception e) {
-          log.info("Couldn't retrieve AssetChunk for " + entryForException.getKey(), e);
+          log.info("Couldn't retrieve AssetChunk for " + connectionIdForException, e);
           // keep on going
         }
       }
     }
 
-    public void shutdown() {
+    /** Wake the thread up to send the chunks of a new producer. */
+    public synchronized void wakeUp() {
+      wokenUp = true;
+      notifyAll();
+    }
+
+    public synchronized void shutdown() {
       stop = true;
+      notifyAll();
     }
   }
 
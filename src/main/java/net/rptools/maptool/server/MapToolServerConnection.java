@@ -16,12 +16,19 @@
 
 import java.io.IOException;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import net.rptools.clientserver.hessian.server.ServerConnection;
 import net.rptools.clientserver.simple.server.ServerObserver;
 import net.rptools.maptool.client.ClientCommand;
+import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.GUID;
 import net.rptools.maptool.model.Player;
+import net.rptools.maptool.model.Zone;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -92,12 +99,37 @@ public void connectionAdded(net.rptools.clientserver.simple.client.ClientConnect
     server
         .getConnection()
         .broadcastCallMethod(ClientCommand.COMMAND.playerConnected.name(), player);
-    // if (!server.isHostId(player.getName())) {
-    // Don't bother sending the campaign file if we're hosting it ourselves
+    Campaign campaign = server.getCampaign();
+    if (server.isHostId(player.getName())) {
+      server
+          .getConnection()
+          .callMethod(conn.getId(), ClientCommand.COMMAND.setCampaign.name(), campaign);
+      return;
+    }
+    // Send the zone the player starts on, and the headers of the others, fetched by the client in
+    // the background. The hidden zones are fetched last.
+    Set<GUID> fullZoneIds = new HashSet<GUID>();
+    List<GUID> visibleZoneIds = new ArrayList<GUID>();
+    List<GUID> hiddenZoneIds = new ArrayList<GUID>();
+    for (Zone zone : campaign.getZones()) {
+      if (fullZoneIds.isEmpty() && (player.isGM() || zone.isVisible())) {
+        fullZoneIds.add(zone.getId());
+      } else if (zone.isVisible()) {
+        visibleZoneIds.add(zone.getId());
+      } else {
+        hiddenZoneIds.add(zone.getId());
+      }
+    }
+    List<GUID> headerZoneIds = new ArrayList<GUID>(visibleZoneIds);
+    headerZoneIds.addAll(hiddenZoneIds);
     server
         .getConnection()
-        .callMethod(conn.getId(), ClientCommand.COMMAND.setCampaign.name(), server.getCampaign());
-    // }
+        .callMethod(
+            conn.getId(),
+            ClientCommand.COMMAND.setCampaign.name(),
+            campaign.createHeader(fullZoneIds),
+            headerZoneIds,
+            campaign.getAllAssetIds());
   }
 
   public void connectionRemoved(net.rptools.clientserver.simple.client.ClientConnection conn) {
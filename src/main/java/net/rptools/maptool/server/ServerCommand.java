@@ -16,6 +16,7 @@
 
 import java.awt.geom.Area;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import net.rptools.lib.MD5Key;
 import net.rptools.maptool.model.Asset;
@@ -29,6 +30,7 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.TopologyMode;
 import net.rptools.maptool.model.Zone.VisionType;
@@ -48,8 +50,10 @@ public static enum COMMAND {
     removeZone,
     putAsset,
     getAsset,
+    syncAssets,
     removeAsset,
     putToken,
+    putTokenDelta,
     editToken,
     removeToken,
     removeTokens,
@@ -138,12 +142,31 @@ public static enum COMMAND {
 
   public void getAsset(MD5Key assetID);
 
+  /**
+   * Ask for all the assets of the campaign which are not in the cache of the client.
+   *
+   * @param cachedAssetIDs the assets of the campaign the client already has
+   * @param partialAssets the size of the data the client already has for the assets it was
+   *     receiving when the connection was interrupted
+   * @param zoneGUID the zone the client shows, whose assets are sent first. May be null.
+   */
+  public void syncAssets(
+      Set<MD5Key> cachedAssetIDs, Map<MD5Key, Long> partialAssets, GUID zoneGUID);
+
   public void removeAsset(MD5Key assetID);
 
   public void editToken(GUID zoneGUID, Token token);
 
   public void putToken(GUID zoneGUID, Token token);
 
+  /**
+   * Changes the fields of a token the clients already have.
+   *
+   * @param zoneGUID the id of the zone of the token
+   * @param delta the changed fields of the token
+   */
+  public void putTokenDelta(GUID zoneGUID, TokenDelta delta);
+
   /**
    * Removes a token from a zone.
    *
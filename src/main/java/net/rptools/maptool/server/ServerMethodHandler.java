@@ -39,6 +39,7 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.TopologyMode;
 import net.rptools.maptool.model.Zone.VisionType;
@@ -47,6 +48,7 @@
 import net.rptools.maptool.model.drawing.DrawnElement;
 import net.rptools.maptool.model.drawing.Pen;
 import net.rptools.maptool.transfer.AssetProducer;
+import net.rptools.maptool.util.AreaCodec;
 
 /**
  * This class is used by the server host to receive client commands sent through {@link
@@ -73,6 +75,11 @@ public void handleMethod(String id, String method, Object... parameters) {
     try {
       RPCContext context = new RPCContext(id, method, parameters);
       RPCContext.setCurrent(context);
+      if (cmd != ServerCommand.COMMAND.updateTokenMove
+          && cmd != ServerCommand.COMMAND.setTokenLocation) {
+        // Keep the moves in order with the other commands
+        server.getTokenMoveAggregator().flush();
+      }
       switch (cmd) {
         case bootPlayer:
           bootPlayer(context.getString(0));
@@ -99,19 +106,23 @@ public void handleMethod(String id, String method, Object... parameters) {
           restoreZoneView(context.getGUID(0));
           break;
         case exposeFoW:
-          exposeFoW(context.getGUID(0), (Area) context.get(1), (Set<GUID>) context.get(2));
+          exposeFoW(context.getGUID(0), context.getArea(1), (Set<GUID>) context.get(2));
           break;
         case getAsset:
           getAsset((MD5Key) context.get(0));
           break;
+        case syncAssets:
+          syncAssets(
+              (Set<MD5Key>) context.get(0), (Map<MD5Key, Long>) context.get(1), context.getGUID(2));
+          break;
         case getZone:
           getZone(context.getGUID(0));
           break;
         case hideFoW:
-          hideFoW(context.getGUID(0), (Area) context.get(1), (Set<GUID>) context.get(2));
+          hideFoW(context.getGUID(0), context.getArea(1), (Set<GUID>) context.get(2));
           break;
         case setFoW:
-          setFoW(context.getGUID(0), (Area) context.get(1), (Set<GUID>) context.get(2));
+          setFoW(context.getGUID(0), context.getArea(1), (Set<GUID>) context.get(2));
           break;
         case hidePointer:
           hidePointer(context.getString(0));
@@ -152,6 +163,9 @@ public void handleMethod(String id, String method, Object... parameters) {
         case editToken:
           editToken(context.getGUID(0), (Token) context.get(1));
           break;
+        case putTokenDelta:
+          putTokenDelta(context.getGUID(0), (TokenDelta) context.get(1));
+          break;
         case putZone:
           putZone((Zone) context.get(0));
           break;
@@ -227,10 +241,10 @@ public void handleMethod(String id, String method, Object... parameters) {
           setServerPolicy((ServerPolicy) context.get(0));
           break;
         case addTopology:
-          addTopology(context.getGUID(0), (Area) context.get(1), (TopologyMode) context.get(2));
+          addTopology(context.getGUID(0), context.getArea(1), (TopologyMode) context.get(2));
           break;
         case removeTopology:
-          removeTopology(context.getGUID(0), (Area) context.get(1), (TopologyMode) context.get(2));
+          removeTopology(context.getGUID(0), context.getArea(1), (TopologyMode) context.get(2));
           break;
         case renameZone:
           renameZone(context.getGUID(0), context.getString(1));
@@ -277,7 +291,7 @@ public void handleMethod(String id, String method, Object... parameters) {
           break;
         case updateExposedAreaMeta:
           updateExposedAreaMeta(
-              context.getGUID(0), context.getGUID(1), (ExposedAreaMetaData) context.get(2));
+              context.getGUID(0), context.getGUID(1), new ExposedAreaMetaData(context.getArea(2)));
           break;
         case clearExposedArea:
           clearExposedArea(context.getGUID(0), context.getBool(1));
@@ -448,20 +462,75 @@ public void getAsset(MD5Key assetID) {
     if (assetID == null || assetID.toString().length() == 0) {
       return;
     }
+    String connectionId = RPCContext.getCurrent().id;
+    // Already on its way if queued by syncAssets
+    if (!server.prioritizeAssetProducer(connectionId, assetID)) {
+      sendAsset(connectionId, assetID, 0, false);
+    }
+  }
+
+  public void syncAssets(
+      Set<MD5Key> cachedAssetIDs, Map<MD5Key, Long> partialAssets, GUID zoneGUID) {
+    String connectionId = RPCContext.getCurrent().id;
+    Campaign campaign = server.getCampaign();
+
+    // The zone the client shows first, then the other zones, with the hidden ones last
+    Set<MD5Key> assetIds = new LinkedHashSet<MD5Key>();
+    Zone currentZone = zoneGUID != null ? campaign.getZone(zoneGUID) : null;
+    if (currentZone != null) {
+      assetIds.addAll(currentZone.getAllAssetIds());
+    }
+    for (Zone zone : campaign.getZones()) {
+      if (zone.isVisible()) {
+        assetIds.addAll(zone.getAllAssetIds());
+      }
+    }
+    for (Zone zone : campaign.getZones()) {
+      assetIds.addAll(zone.getAllAssetIds());
+    }
+    // Overlays, lookup tables...
+    assetIds.addAll(campaign.getAllAssetIds());
+
+    for (MD5Key assetId : assetIds) {
+      if (assetId == null || cachedAssetIDs.contains(assetId)) {
+        continue;
+      }
+      if (server.prioritizeAssetProducer(connectionId, assetId)) {
+        continue;
+      }
+      Long offset = partialAssets != null ? partialAssets.get(assetId) : null;
+      sendAsset(connectionId, assetId, offset != null ? offset : 0, true);
+    }
+  }
+
+  /**
+   * Start sending an asset to a client.
+   *
+   * @param connectionId the id of the client connection
+   * @param assetID the id of the asset
+   * @param offset the size of the data the client already has from an interrupted transfer
+   * @param background true to send it after the assets the client is waiting for
+   */
+  private void sendAsset(String connectionId, MD5Key assetID, long offset, boolean background) {
     try {
       AssetProducer producer =
           new AssetProducer(
               assetID,
               AssetManager.getAssetInfo(assetID).getProperty(AssetManager.NAME),
               AssetManager.getAssetCacheFile(assetID));
+      producer.resumeFrom(offset);
       server
           .getConnection()
           .callMethod(
-              RPCContext.getCurrent().id,
+              connectionId,
               MapToolConstants.Channel.IMAGE,
               ClientCommand.COMMAND.startAssetTransfer.name(),
               producer.getHeader());
-      server.addAssetProducer(RPCContext.getCurrent().id, producer);
+      if (background) {
+        server.addBackgroundAssetProducer(connectionId, producer);
+      } else {
+        server.addAssetProducer(connectionId, producer);
+      }
 
     } catch (IllegalArgumentException iae) {
       // Sending an empty asset will cause a failure of the image to load on the client side,
@@ -469,19 +538,18 @@ public void getAsset(MD5Key assetID) {
       // image instead of blowing up
       Asset asset = new Asset("broken", new byte[] {});
       asset.setId(assetID);
-      server
-          .getConnection()
-          .callMethod(RPCContext.getCurrent().id, ClientCommand.COMMAND.putAsset.name(), asset);
+      server.getConnection().callMethod(connectionId, ClientCommand.COMMAND.putAsset.name(), asset);
     }
   }
 
   public void getZone(GUID zoneGUID) {
+    Zone zone = server.getCampaign().getZone(zoneGUID);
+    if (zone == null) {
+      return; // Removed, the client is told so by the removeZone
+    }
     server
         .getConnection()
-        .callMethod(
-            RPCContext.getCurrent().id,
-            ClientCommand.COMMAND.putZone.name(),
-            server.getCampaign().getZone(zoneGUID));
+        .callMethod(RPCContext.getCurrent().id, ClientCommand.COMMAND.putZone.name(), zone);
   }
 
   public void hideFoW(GUID zoneGUID, Area area, Set<GUID> selectedToks) {
@@ -599,6 +667,20 @@ public void putToken(GUID zoneGUID, Token token) {
     forwardToClients();
   }
 
+  public void putTokenDelta(GUID zoneGUID, TokenDelta delta) {
+    Zone zone = server.getCampaign().getZone(zoneGUID);
+    Token token = zone.getToken(delta.getTokenId());
+    if (token == null) {
+      // Removed meanwhile, the clients don't have it either
+      return;
+    }
+    synchronized (MUTEX) {
+      delta.apply(token);
+      zone.putToken(token);
+    }
+    forwardToClients();
+  }
+
   public void putZone(Zone zone) {
     server.getCampaign().putZone(zone);
     forwardToClients();
@@ -777,11 +859,15 @@ public void undoDraw(GUID zoneGUID, GUID drawableGUID) {
   }
 
   public void updateTokenMove(GUID zoneGUID, GUID tokenGUID, int x, int y) {
-    forwardToClients();
+    server
+        .getTokenMoveAggregator()
+        .updateTokenMove(RPCContext.getCurrent().id, zoneGUID, tokenGUID, x, y);
   }
 
   public void setTokenLocation(GUID zoneGUID, GUID tokenGUID, int x, int y) {
-    forwardToClients();
+    server
+        .getTokenMoveAggregator()
+        .setTokenLocation(RPCContext.getCurrent().id, zoneGUID, tokenGUID, x, y);
   }
 
   public void setServerPolicy(ServerPolicy policy) {
@@ -898,6 +984,14 @@ public Object get(int index) {
       return parameters[index];
     }
 
+    /**
+     * @param index the index of the parameter
+     * @return the area sent encoded with {@link AreaCodec}
+     */
+    public Area getArea(int index) {
+      return AreaCodec.decode((byte[]) parameters[index]);
+    }
+
     public String getString(int index) {
       return (String) parameters[index];
     }
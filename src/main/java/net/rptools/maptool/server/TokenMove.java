@@ -0,0 +1,51 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.server;
+
+import java.io.Serializable;
+import net.rptools.maptool.model.GUID;
+
+/** The position of a token being dragged, as sent to the clients in a batch of moves. */
+public class TokenMove implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private GUID zoneGUID;
+  private GUID tokenGUID;
+  private int x;
+  private int y;
+
+  public TokenMove(GUID zoneGUID, GUID tokenGUID, int x, int y) {
+    this.zoneGUID = zoneGUID;
+    this.tokenGUID = tokenGUID;
+    this.x = x;
+    this.y = y;
+  }
+
+  public GUID getZoneGUID() {
+    return zoneGUID;
+  }
+
+  public GUID getTokenGUID() {
+    return tokenGUID;
+  }
+
+  public int getX() {
+    return x;
+  }
+
+  public int getY() {
+    return y;
+  }
+}
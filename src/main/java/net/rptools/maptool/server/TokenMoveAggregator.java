@@ -0,0 +1,189 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.rptools.maptool.client.ClientCommand;
+import net.rptools.maptool.model.GUID;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Holds back the token positions the clients send while dragging, and forwards them to the other
+ * clients at a fixed rate. Only the latest position of each token is sent, and all the positions of
+ * a tick go to a client in one message.
+ *
+ * <p>The positions must be flushed before any other command is forwarded, so that the clients see
+ * the commands of a client in the order it sent them.
+ */
+class TokenMoveAggregator extends Thread {
+  private static final Logger log = LogManager.getLogger(TokenMoveAggregator.class);
+
+  private final MapToolServer server;
+
+  /** The time between two flushes, in milliseconds. 0 to forward each position right away. */
+  private final long interval;
+
+  /** The pending updateTokenMove positions, by zone and token. */
+  private final Map<List<GUID>, PendingMove> moves = new LinkedHashMap<List<GUID>, PendingMove>();
+
+  /** The pending setTokenLocation positions, by zone and token. */
+  private final Map<List<GUID>, PendingMove> locations =
+      new LinkedHashMap<List<GUID>, PendingMove>();
+
+  private volatile boolean stop = false;
+
+  /**
+   * @param server the server to forward the positions through
+   * @param rate the number of flushes per second. 0 or less to forward each position right away.
+   */
+  TokenMoveAggregator(MapToolServer server, int rate) {
+    super("TokenMoveAggregator");
+    setDaemon(true);
+    this.server = server;
+    this.interval = rate > 0 ? Math.max(1, 1000 / rate) : 0;
+  }
+
+  /**
+   * Queue the position of a token being dragged, replacing the one pending for the token.
+   *
+   * @param sender the id of the connection the position comes from
+   * @param zoneGUID the zone of the token
+   * @param tokenGUID the token
+   * @param x the x coordinate of the token
+   * @param y the y coordinate of the token
+   */
+  void updateTokenMove(String sender, GUID zoneGUID, GUID tokenGUID, int x, int y) {
+    add(moves, new PendingMove(sender, new TokenMove(zoneGUID, tokenGUID, x, y)));
+  }
+
+  /**
+   * Queue a location set for a token, replacing the one pending for the token.
+   *
+   * @param sender the id of the connection the location comes from
+   * @param zoneGUID the zone of the token
+   * @param tokenGUID the token
+   * @param x the x coordinate of the location
+   * @param y the y coordinate of the location
+   */
+  void setTokenLocation(String sender, GUID zoneGUID, GUID tokenGUID, int x, int y) {
+    add(locations, new PendingMove(sender, new TokenMove(zoneGUID, tokenGUID, x, y)));
+  }
+
+  private void add(Map<List<GUID>, PendingMove> pending, PendingMove move) {
+    synchronized (this) {
+      boolean wasEmpty = moves.isEmpty() && locations.isEmpty();
+      pending.put(Arrays.asList(move.move.getZoneGUID(), move.move.getTokenGUID()), move);
+      if (interval > 0) {
+        if (wasEmpty) {
+          notify();
+        }
+        return;
+      }
+    }
+    flush();
+  }
+
+  /** Forward the pending positions to the clients. */
+  synchronized void flush() {
+    if (moves.isEmpty() && locations.isEmpty()) {
+      return;
+    }
+    MapToolServerConnection conn = server.getConnection();
+    for (PendingMove location : locations.values()) {
+      conn.broadcastCallMethod(
+          new String[] {location.sender},
+          ClientCommand.COMMAND.setTokenLocation.name(),
+          location.move.getZoneGUID(),
+          location.move.getTokenGUID(),
+          location.move.getX(),
+          location.move.getY());
+    }
+    locations.clear();
+    if (moves.isEmpty()) {
+      return;
+    }
+
+    Set<String> senders = new HashSet<String>();
+    for (PendingMove move : moves.values()) {
+      senders.add(move.sender);
+    }
+    if (senders.size() == 1) {
+      // The usual case, everyone but the sender gets all of them
+      List<TokenMove> batch = new ArrayList<TokenMove>(moves.size());
+      for (PendingMove move : moves.values()) {
+        batch.add(move.move);
+      }
+      conn.broadcastCallMethod(
+          senders.toArray(new String[1]), ClientCommand.COMMAND.updateTokenMoves.name(), batch);
+    } else {
+      for (String id : server.getConnectionIds()) {
+        List<TokenMove> batch = new ArrayList<TokenMove>(moves.size());
+        for (PendingMove move : moves.values()) {
+          if (!move.sender.equals(id)) {
+            batch.add(move.move);
+          }
+        }
+        if (!batch.isEmpty()) {
+          conn.callMethod(id, ClientCommand.COMMAND.updateTokenMoves.name(), batch);
+        }
+      }
+    }
+    moves.clear();
+  }
+
+  @Override
+  public void run() {
+    while (!stop) {
+      try {
+        synchronized (this) {
+          while (moves.isEmpty() && locations.isEmpty() && !stop) {
+            wait();
+          }
+        }
+        // Let the positions of the tick come in
+        Thread.sleep(interval);
+        flush();
+      } catch (InterruptedException e) {
+        // Check whether we should stop
+      } catch (Exception e) {
+        log.error("Could not forward the token moves", e);
+      }
+    }
+  }
+
+  /** Stop the thread. The pending positions are dropped. */
+  void shutdown() {
+    stop = true;
+    interrupt();
+  }
+
+  /** A position, and the connection it comes from. */
+  private static class PendingMove {
+    private final String sender;
+    private final TokenMove move;
+
+    private PendingMove(String sender, TokenMove move) {
+      this.sender = sender;
+      this.move = move;
+    }
+  }
+}
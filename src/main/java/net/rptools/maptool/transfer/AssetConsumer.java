@@ -17,6 +17,7 @@
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
 
 /**
@@ -33,6 +34,9 @@ public class AssetConsumer {
    * Create a new asset consumer, it will prepare a place to receive the incoming data chunks. When
    * complete the resulting file can be found at getFilename()
    *
+   * <p>If the header has an offset, the partial file left by an interrupted transfer is kept up to
+   * that offset, and the incoming chunks are appended to it.
+   *
    * @param destinationDir - location to store the incoming file
    * @param header - from the corresponding AssetProducer
    */
@@ -49,12 +53,35 @@ public AssetConsumer(File destinationDir, AssetHeader header) {
     if (!destinationDir.exists()) {
       destinationDir.mkdirs();
     }
+    File file = getFilename();
+    currentPosition = header.getOffset();
+    if (currentPosition > 0 && file.length() >= currentPosition) {
+      // Resume, dropping anything written after the offset the producer starts from
+      try (RandomAccessFile partial = new RandomAccessFile(file, "rw")) {
+        partial.setLength(currentPosition);
+        return;
+      } catch (IOException ioe) {
+        // The asset will fail its checksum once complete
+      }
+    }
     // Cleanup
-    if (getFilename().exists()) {
-      getFilename().delete();
+    if (file.exists()) {
+      file.delete();
     }
   }
 
+  /**
+   * Get the size of the data left by an interrupted transfer, which can be resumed by asking the
+   * producer to start at that offset.
+   *
+   * @param destinationDir the location the incoming files are stored in
+   * @param id the ID of the asset
+   * @return the size of the partial file, 0 if none
+   */
+  public static long getPartialSize(File destinationDir, Serializable id) {
+    return getFilename(destinationDir, id).length();
+  }
+
   /** @return the ID of the incoming asset */
   public Serializable getId() {
     return header.getId();
@@ -103,6 +130,10 @@ public long getSize() {
    * @return the file with the data
    */
   public File getFilename() {
-    return new File(destinationDir.getAbsolutePath() + "/" + header.getId() + ".part");
+    return getFilename(destinationDir, header.getId());
+  }
+
+  private static File getFilename(File destinationDir, Serializable id) {
+    return new File(destinationDir.getAbsolutePath() + "/" + id + ".part");
   }
 }
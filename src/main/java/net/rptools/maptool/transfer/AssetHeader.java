@@ -20,11 +20,23 @@ public class AssetHeader implements Serializable {
   private Serializable id;
   private String name;
   private long size;
+  private long offset;
 
   public AssetHeader(Serializable id, String name, long size) {
+    this(id, name, size, 0);
+  }
+
+  /**
+   * @param id the ID of the asset
+   * @param name the name of the asset
+   * @param size the full size of the asset
+   * @param offset where the first chunk starts, when resuming a partial transfer
+   */
+  public AssetHeader(Serializable id, String name, long size, long offset) {
     this.id = id;
     this.size = size;
     this.name = name;
+    this.offset = offset;
   }
 
   public Serializable getId() {
@@ -38,4 +50,9 @@ public long getSize() {
   public String getName() {
     return name;
   }
+
+  /** @return where the first chunk starts, 0 unless resuming a partial transfer */
+  public long getOffset() {
+    return offset;
+  }
 }
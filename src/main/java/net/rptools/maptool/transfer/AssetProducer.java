@@ -14,10 +14,13 @@
  */
 package net.rptools.maptool.transfer;
 
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Creates data chunks for transferring binary data. Assumes large datasets (otherwise it would be a
@@ -32,6 +35,11 @@ public class AssetProducer {
   private long length;
   private long currentPosition = 0;
 
+  /** Kept open from the first chunk until the last one, or until closed. */
+  private FileChannel channel;
+  /** The data of the last chunk, reused for the next chunk of the same size. */
+  private byte[] buffer;
+
   public AssetProducer(Serializable id, String name, File assetFile) {
     if (!assetFile.exists() || assetFile.isDirectory()) {
       throw new IllegalArgumentException(assetFile + " is an invalid asset path");
@@ -44,11 +52,35 @@ public AssetProducer(Serializable id, String name, File assetFile) {
 
   /** @return the header needed to create the corresponding AssetConsumer */
   public AssetHeader getHeader() {
-    return new AssetHeader(id, name, assetFile.length());
+    return new AssetHeader(id, name, length, currentPosition);
   }
 
   /**
-   * Get the next chunk of data
+   * Skip the data the consumer already has from an interrupted transfer. Must be called before
+   * getting the header and the first chunk.
+   *
+   * @param offset the size of the partial data the consumer has
+   * @return false if the offset is beyond the asset, in which case the transfer starts over
+   */
+  public boolean resumeFrom(long offset) {
+    if (offset < 0 || offset > length) {
+      return false;
+    }
+    currentPosition = offset;
+    return true;
+  }
+
+  /** @return the ID of the asset */
+  public Serializable getId() {
+    return id;
+  }
+
+  /**
+   * Get the next chunk of data. The file is kept open between chunks, and closed after the last
+   * one.
+   *
+   * <p>The data array of the chunk is reused by the next call, so the chunk must be sent or
+   * consumed before asking for the next one.
    *
    * @param size how many bytes to grab, may end up being less if there isn't enough data
    * @throws IOException if an I/O error occurs or current position in the file is wrong
@@ -58,15 +90,38 @@ public AssetChunk nextChunk(int size) throws IOException {
     if (currentPosition + size > length) {
       size = (int) (length - currentPosition);
     }
-    byte[] data = new byte[size];
-    FileInputStream in = new FileInputStream(assetFile);
-
-    in.skip(currentPosition);
-    in.read(data, 0, size);
-    in.close();
+    if (channel == null) {
+      channel = FileChannel.open(assetFile.toPath(), StandardOpenOption.READ);
+    }
+    if (buffer == null || buffer.length != size) {
+      buffer = new byte[size];
+    }
+    ByteBuffer data = ByteBuffer.wrap(buffer);
+    while (data.hasRemaining()) {
+      if (channel.read(data, currentPosition + data.position()) < 0) {
+        close();
+        throw new EOFException(assetFile + " is shorter than expected");
+      }
+    }
 
     currentPosition += size;
-    return new AssetChunk(id, data);
+    if (isComplete()) {
+      close();
+    }
+    return new AssetChunk(id, buffer);
+  }
+
+  /**
+   * Close the file, if still open. Asking for another chunk opens it again.
+   *
+   * @throws IOException if an I/O error occurs
+   */
+  public void close() throws IOException {
+    if (channel != null) {
+      FileChannel toClose = channel;
+      channel = null;
+      toClose.close();
+    }
   }
 
   /**
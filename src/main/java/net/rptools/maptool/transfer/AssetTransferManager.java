@@ -18,21 +18,82 @@
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 public class AssetTransferManager {
+  private static final Logger log = LogManager.getLogger(AssetTransferManager.class);
+
   private Map<Serializable, AssetConsumer> consumerMap = new HashMap<Serializable, AssetConsumer>();
   private List<ConsumerListener> consumerListenerList =
       new CopyOnWriteArrayList<ConsumerListener>();
   private List<AssetProducer> producerList = new LinkedList<AssetProducer>();
+  /** Producers sent one after the other, in order, when there are no other producers. */
+  private List<AssetProducer> backgroundProducerList = new LinkedList<AssetProducer>();
+
+  /** The maximum number of bytes per second sent by the producers, 0 for no limit. */
+  private int bandwidthLimit;
+  /** How many bytes may be sent right now without going over the bandwidth limit. */
+  private double bandwidthAllowance;
+  /** When the bandwidthAllowance was last updated. */
+  private long bandwidthAllowanceTime = System.currentTimeMillis();
 
   /** Clear out all existing consumers and producers */
   public synchronized void flush() {
     consumerMap.clear();
+    for (AssetProducer producer : producerList) {
+      closeProducer(producer);
+    }
     producerList.clear();
+    for (AssetProducer producer : backgroundProducerList) {
+      closeProducer(producer);
+    }
+    backgroundProducerList.clear();
+  }
+
+  /**
+   * Limit the rate at which the producers send chunks. Checked by {@link #getThrottleDelay(int)}.
+   *
+   * @param bytesPerSecond the maximum number of bytes per second, 0 for no limit
+   */
+  public synchronized void setBandwidthLimit(int bytesPerSecond) {
+    bandwidthLimit = Math.max(0, bytesPerSecond);
+    bandwidthAllowance = bandwidthLimit;
+    bandwidthAllowanceTime = System.currentTimeMillis();
+  }
+
+  /** @return true if there is a producer with chunks left to send */
+  public synchronized boolean hasProducers() {
+    return !producerList.isEmpty() || !backgroundProducerList.isEmpty();
+  }
+
+  /**
+   * Get how long to wait before the next chunk can be sent without going over the bandwidth limit.
+   *
+   * @param size the size of the next chunk
+   * @return the delay in milliseconds, 0 if the chunk can be sent now
+   */
+  public synchronized long getThrottleDelay(int size) {
+    if (bandwidthLimit == 0) {
+      return 0;
+    }
+    long now = System.currentTimeMillis();
+    // Allow bursts of up to a second worth of data, and at least a chunk
+    double maxAllowance = Math.max(bandwidthLimit, size);
+    bandwidthAllowance =
+        Math.min(
+            maxAllowance,
+            bandwidthAllowance + (now - bandwidthAllowanceTime) * bandwidthLimit / 1000.0);
+    bandwidthAllowanceTime = now;
+    if (bandwidthAllowance >= size) {
+      return 0;
+    }
+    return (long) Math.ceil((size - bandwidthAllowance) * 1000 / bandwidthLimit);
   }
 
   /**
@@ -46,21 +107,70 @@ public synchronized void addProducer(AssetProducer producer) {
   }
 
   /**
-   * Get the next chunk from the available producers
+   * Add a new producer to the end of the background queue. Background producers are only sent when
+   * there are no other producers, one at a time in the order they were added, so the first ones
+   * complete first.
+   *
+   * @param producer the new producer
+   */
+  public synchronized void addBackgroundProducer(AssetProducer producer) {
+    backgroundProducerList.add(producer);
+  }
+
+  /**
+   * Check whether the asset is already being sent, and if it is in the background queue, move it
+   * with the other producers so it isn't held up by the rest of the queue.
+   *
+   * @param id the ID of the asset
+   * @return true if a producer for the asset was found
+   */
+  public synchronized boolean prioritizeProducer(Serializable id) {
+    for (AssetProducer producer : producerList) {
+      if (producer.getId().equals(id)) {
+        return true;
+      }
+    }
+    for (Iterator<AssetProducer> it = backgroundProducerList.iterator(); it.hasNext(); ) {
+      AssetProducer producer = it.next();
+      if (producer.getId().equals(id)) {
+        it.remove();
+        producerList.add(producer);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get the next chunk from the available producers, taking turns between them. The data of the
+   * chunk is only valid until the next call.
    *
    * @param size size of the data to retrieve
    * @throws IOException if an I/O error occurs or current position in the file is wrong
    * @return an {@link AssetChunk} with the next size bytes of data
    */
   public synchronized AssetChunk nextChunk(int size) throws IOException {
-    if (producerList.size() == 0) {
+    List<AssetProducer> list = producerList.isEmpty() ? backgroundProducerList : producerList;
+    if (list.isEmpty()) {
       return null;
     }
-    AssetProducer producer = producerList.remove(0);
-    AssetChunk chunk = producer.nextChunk(size);
+    AssetProducer producer = list.remove(0);
+    AssetChunk chunk;
+    try {
+      chunk = producer.nextChunk(size);
+    } catch (IOException e) {
+      // Give up on this producer
+      closeProducer(producer);
+      throw e;
+    }
     if (!producer.isComplete()) {
-      producerList.add(producer);
+      if (list == producerList) {
+        producerList.add(producer);
+      } else {
+        backgroundProducerList.add(0, producer);
+      }
     }
+    bandwidthAllowance -= chunk.getData().length;
     return chunk;
   }
 
@@ -115,6 +225,14 @@ public synchronized List<AssetConsumer> getAssetConsumers() {
     return new ArrayList<AssetConsumer>(consumerMap.values());
   }
 
+  private static void closeProducer(AssetProducer producer) {
+    try {
+      producer.close();
+    } catch (IOException e) {
+      log.warn("Could not close asset producer", e);
+    }
+  }
+
   public void addConsumerListener(ConsumerListener listener) {
     consumerListenerList.add(listener);
   }
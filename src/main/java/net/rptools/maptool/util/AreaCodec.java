@@ -0,0 +1,322 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary form of an {@link Area}, to send and save areas without the internal curve objects
+ * serialization would write out.
+ *
+ * <p>The outline of the area is written as its path segments. When all the coordinates are
+ * multiples of 1/256, as those of areas built from whole zone points are, they are written as fixed
+ * point integers relative to the previous point, in variable length. Otherwise they are written as
+ * raw doubles. Either way the coordinates come back exactly. Large outlines are deflated on top of
+ * that.
+ *
+ * <p>The format is a header byte holding the format version and the deflate flag, then the
+ * (possibly deflated) body: the number of fraction bits of the coordinates, or {@link
+ * #RAW_DOUBLES}, the number of segments, and the segments, each a type byte followed by its
+ * coordinates.
+ */
+public final class AreaCodec {
+
+  /** The version of the format, in the low bits of the header. */
+  private static final int VERSION = 1;
+
+  /** The header flag telling the body is deflated. */
+  private static final int DEFLATED = 0x80;
+
+  /** The most fraction bits of fixed point coordinates. */
+  private static final int MAX_FRACTION_BITS = 8;
+
+  /**
+   * Coordinates from this magnitude up aren't written as fixed point, so that they can't overflow.
+   */
+  private static final double MAX_FIXED_POINT = 0x1p52;
+
+  /** The fraction bits telling that the coordinates are written as raw doubles. */
+  private static final int RAW_DOUBLES = 0xFF;
+
+  /** The smallest body worth deflating. */
+  private static final int DEFLATE_THRESHOLD = 256;
+
+  private AreaCodec() {}
+
+  /**
+   * Encode an area.
+   *
+   * @param area the area
+   * @return the encoded area
+   */
+  public static byte[] encode(Area area) {
+    if (area == null) {
+      return null;
+    }
+    // Find the segments, and the fraction bits needed to keep the coordinates exactly, if any
+    double[] coords = new double[6];
+    byte[] types = new byte[16];
+    double[] points = new double[64];
+    int segmentCount = 0;
+    int pointCount = 0;
+    int fractionBits = 0;
+    boolean fixedPoint = true;
+    for (PathIterator it = area.getPathIterator(null); !it.isDone(); it.next()) {
+      int type = it.currentSegment(coords);
+      if (segmentCount == types.length) {
+        types = Arrays.copyOf(types, types.length * 2);
+      }
+      types[segmentCount++] = (byte) type;
+      int n = 2 * pointsOf(type);
+      if (pointCount + n > points.length) {
+        points = Arrays.copyOf(points, Math.max(points.length * 2, pointCount + n));
+      }
+      for (int i = 0; i < n; i++) {
+        while (fractionBits < MAX_FRACTION_BITS && !isWhole(Math.scalb(coords[i], fractionBits))) {
+          fractionBits++;
+        }
+        if (!isWhole(Math.scalb(coords[i], fractionBits))
+            || Math.abs(coords[i]) >= MAX_FIXED_POINT) {
+          fixedPoint = false;
+        }
+        points[pointCount++] = coords[i];
+      }
+    }
+
+    ByteArrayOutputStream body =
+        new ByteArrayOutputStream(16 + segmentCount + pointCount * (fixedPoint ? 2 : 8));
+    body.write(fixedPoint ? fractionBits : RAW_DOUBLES);
+    writeVarLong(body, segmentCount);
+    long x = 0;
+    long y = 0;
+    int p = 0;
+    for (int s = 0; s < segmentCount; s++) {
+      body.write(types[s]);
+      for (int i = pointsOf(types[s]); i > 0; i--) {
+        if (!fixedPoint) {
+          writeLong(body, Double.doubleToLongBits(points[p++]));
+          writeLong(body, Double.doubleToLongBits(points[p++]));
+          continue;
+        }
+        long px = Math.round(Math.scalb(points[p++], fractionBits));
+        long py = Math.round(Math.scalb(points[p++], fractionBits));
+        writeVarLong(body, zigZag(px - x));
+        writeVarLong(body, zigZag(py - y));
+        x = px;
+        y = py;
+      }
+    }
+
+    byte[] bytes = body.toByteArray();
+    if (bytes.length >= DEFLATE_THRESHOLD) {
+      byte[] deflated = deflate(bytes);
+      if (deflated.length < bytes.length) {
+        return withHeader(VERSION | DEFLATED, deflated);
+      }
+    }
+    return withHeader(VERSION, bytes);
+  }
+
+  /**
+   * Decode an area.
+   *
+   * @param bytes the encoded area
+   * @return the area
+   * @throws IllegalArgumentException if the bytes are not an encoded area
+   */
+  public static Area decode(byte[] bytes) {
+    if (bytes == null) {
+      return null;
+    }
+    if (bytes.length == 0 || (bytes[0] & 0xFF & ~DEFLATED) != VERSION) {
+      throw new IllegalArgumentException("Not an encoded area");
+    }
+    byte[] body = Arrays.copyOfRange(bytes, 1, bytes.length);
+    if ((bytes[0] & DEFLATED) != 0) {
+      body = inflate(body);
+    }
+
+    Reader in = new Reader(body);
+    int fractionBits = in.readByte();
+    long segmentCount = in.readVarLong();
+    Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO);
+    long x = 0;
+    long y = 0;
+    double[] coords = new double[6];
+    for (long s = 0; s < segmentCount; s++) {
+      int type = in.readByte();
+      int n = pointsOf(type);
+      for (int i = 0; i < n; i++) {
+        if (fractionBits == RAW_DOUBLES) {
+          coords[2 * i] = Double.longBitsToDouble(in.readLong());
+          coords[2 * i + 1] = Double.longBitsToDouble(in.readLong());
+          continue;
+        }
+        x += unZigZag(in.readVarLong());
+        y += unZigZag(in.readVarLong());
+        coords[2 * i] = Math.scalb((double) x, -fractionBits);
+        coords[2 * i + 1] = Math.scalb((double) y, -fractionBits);
+      }
+      switch (type) {
+        case PathIterator.SEG_MOVETO:
+          path.moveTo(coords[0], coords[1]);
+          break;
+        case PathIterator.SEG_LINETO:
+          path.lineTo(coords[0], coords[1]);
+          break;
+        case PathIterator.SEG_QUADTO:
+          path.quadTo(coords[0], coords[1], coords[2], coords[3]);
+          break;
+        case PathIterator.SEG_CUBICTO:
+          path.curveTo(coords[0], coords[1], coords[2], coords[3], coords[4], coords[5]);
+          break;
+        case PathIterator.SEG_CLOSE:
+          path.closePath();
+          break;
+      }
+    }
+    return new Area(path);
+  }
+
+  private static int pointsOf(int type) {
+    switch (type) {
+      case PathIterator.SEG_MOVETO:
+      case PathIterator.SEG_LINETO:
+        return 1;
+      case PathIterator.SEG_QUADTO:
+        return 2;
+      case PathIterator.SEG_CUBICTO:
+        return 3;
+      case PathIterator.SEG_CLOSE:
+        return 0;
+      default:
+        throw new IllegalArgumentException("Unknown segment type " + type);
+    }
+  }
+
+  private static boolean isWhole(double d) {
+    return d == Math.rint(d);
+  }
+
+  private static long zigZag(long n) {
+    return (n << 1) ^ (n >> 63);
+  }
+
+  private static long unZigZag(long n) {
+    return (n >>> 1) ^ -(n & 1);
+  }
+
+  private static void writeVarLong(ByteArrayOutputStream out, long n) {
+    while ((n & ~0x7FL) != 0) {
+      out.write((int) (n & 0x7F) | 0x80);
+      n >>>= 7;
+    }
+    out.write((int) n);
+  }
+
+  private static void writeLong(ByteArrayOutputStream out, long n) {
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      out.write((int) (n >>> shift));
+    }
+  }
+
+  private static byte[] withHeader(int header, byte[] body) {
+    byte[] bytes = new byte[body.length + 1];
+    bytes[0] = (byte) header;
+    System.arraycopy(body, 0, bytes, 1, body.length);
+    return bytes;
+  }
+
+  private static byte[] deflate(byte[] bytes) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(bytes);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+      byte[] buffer = new byte[4096];
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflate(byte[] bytes) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(bytes);
+      ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 2);
+      byte[] buffer = new byte[4096];
+      while (!inflater.finished()) {
+        int n = inflater.inflate(buffer);
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IllegalArgumentException("Truncated encoded area");
+        }
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    } catch (DataFormatException e) {
+      throw new IllegalArgumentException("Corrupt encoded area", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /** Reads the body of an encoded area. */
+  private static class Reader {
+    private final byte[] bytes;
+    private int pos;
+
+    private Reader(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    private int readByte() {
+      if (pos >= bytes.length) {
+        throw new IllegalArgumentException("Truncated encoded area");
+      }
+      return bytes[pos++] & 0xFF;
+    }
+
+    private long readLong() {
+      long n = 0;
+      for (int i = 0; i < 8; i++) {
+        n = (n << 8) | readByte();
+      }
+      return n;
+    }
+
+    private long readVarLong() {
+      long n = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        n |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return n;
+        }
+      }
+      throw new IllegalArgumentException("Corrupt encoded area");
+    }
+  }
+}
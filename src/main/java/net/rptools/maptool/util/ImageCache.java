@@ -0,0 +1,247 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import net.rptools.lib.MD5Key;
+import org.apache.commons.collections4.map.AbstractReferenceMap;
+import org.apache.commons.collections4.map.ReferenceMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Least recently used cache of the images loaded by {@link ImageManager}, bounded by the memory
+ * used by their rasters.
+ *
+ * <p>Images evicted to stay within the budget are moved to a second tier of soft references, from
+ * which they are taken back if the garbage collector didn't need the memory. Pinned images, the
+ * ones of the current zone, are never evicted, even if they go over the budget.
+ *
+ * <p>All the methods are thread safe.
+ */
+class ImageCache implements ImageCacheMXBean {
+  private static final Logger log = LogManager.getLogger(ImageCache.class);
+
+  private final Map<MD5Key, BufferedImage> images =
+      new LinkedHashMap<MD5Key, BufferedImage>(64, 0.75f, true);
+
+  private final Map<MD5Key, BufferedImage> softImages =
+      new ReferenceMap<MD5Key, BufferedImage>(
+          AbstractReferenceMap.ReferenceStrength.HARD, AbstractReferenceMap.ReferenceStrength.SOFT);
+
+  private Set<MD5Key> pinned = Collections.emptySet();
+
+  private long maxBytes;
+  private long residentBytes;
+
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /** @param maxBytes the memory, in bytes, the images held by the cache may use */
+  ImageCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Get an image, taking it back from the soft tier if needed.
+   *
+   * @param id the id of the asset of the image
+   * @return the image, or null if it needs to be loaded
+   */
+  synchronized BufferedImage get(MD5Key id) {
+    BufferedImage image = images.get(id);
+    if (image == null) {
+      image = softImages.remove(id);
+      if (image != null) {
+        put(id, image);
+      }
+    }
+    if (image == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return image;
+  }
+
+  /**
+   * Get an image without counting the lookup, or taking it back from the soft tier.
+   *
+   * @param id the id of the asset of the image
+   * @return the image, or null if not held by the cache
+   */
+  synchronized BufferedImage peek(MD5Key id) {
+    return images.get(id);
+  }
+
+  /**
+   * Add an image, evicting the least recently used ones if over the budget.
+   *
+   * @param id the id of the asset of the image
+   * @param image the image
+   */
+  synchronized void put(MD5Key id, BufferedImage image) {
+    BufferedImage old = images.put(id, image);
+    if (old != null) {
+      residentBytes -= getSize(old);
+    }
+    residentBytes += getSize(image);
+    softImages.remove(id);
+    evict();
+  }
+
+  /**
+   * Remove an image from both tiers, so that it is loaded again.
+   *
+   * @param id the id of the asset of the image
+   */
+  synchronized void remove(MD5Key id) {
+    BufferedImage image = images.remove(id);
+    if (image != null) {
+      residentBytes -= getSize(image);
+    }
+    softImages.remove(id);
+  }
+
+  /** Move all the images which are not pinned to the soft tier. */
+  synchronized void clear() {
+    retainAll(pinned);
+  }
+
+  /**
+   * Move all the images which are not in the set to the soft tier.
+   *
+   * @param ids the ids of the assets of the images to keep
+   */
+  synchronized void retainAll(Set<MD5Key> ids) {
+    for (Iterator<Map.Entry<MD5Key, BufferedImage>> it = images.entrySet().iterator();
+        it.hasNext(); ) {
+      Map.Entry<MD5Key, BufferedImage> entry = it.next();
+      if (!ids.contains(entry.getKey())) {
+        it.remove();
+        residentBytes -= getSize(entry.getValue());
+        softImages.put(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Set the images which must stay in the cache, replacing the previously pinned ones.
+   *
+   * @param ids the ids of the assets of the images
+   */
+  synchronized void setPinned(Set<MD5Key> ids) {
+    pinned = new HashSet<MD5Key>(ids);
+    evict();
+  }
+
+  /** @param maxBytes the memory, in bytes, the images held by the cache may use */
+  synchronized void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+    evict();
+  }
+
+  /** Move the least recently used images which are not pinned to the soft tier, until in budget. */
+  private void evict() {
+    for (Iterator<Map.Entry<MD5Key, BufferedImage>> it = images.entrySet().iterator();
+        residentBytes > maxBytes && it.hasNext(); ) {
+      Map.Entry<MD5Key, BufferedImage> entry = it.next();
+      if (pinned.contains(entry.getKey())) {
+        continue;
+      }
+      it.remove();
+      residentBytes -= getSize(entry.getValue());
+      softImages.put(entry.getKey(), entry.getValue());
+      evictions++;
+    }
+  }
+
+  /**
+   * Get the memory used by the raster of an image.
+   *
+   * @param image the image
+   * @return the size in bytes
+   */
+  static long getSize(BufferedImage image) {
+    DataBuffer buffer = image.getRaster().getDataBuffer();
+    return (long) buffer.getSize()
+        * buffer.getNumBanks()
+        * DataBuffer.getDataTypeSize(buffer.getDataType())
+        / 8;
+  }
+
+  @Override
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  @Override
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  @Override
+  public synchronized long getEvictionCount() {
+    return evictions;
+  }
+
+  @Override
+  public synchronized long getResidentBytes() {
+    return residentBytes;
+  }
+
+  @Override
+  public synchronized long getMaxBytes() {
+    return maxBytes;
+  }
+
+  @Override
+  public synchronized int getImageCount() {
+    return images.size();
+  }
+
+  @Override
+  public synchronized int getPinnedCount() {
+    return pinned.size();
+  }
+
+  /** Log the statistics of the cache. */
+  synchronized void logStatistics() {
+    if (log.isDebugEnabled()) {
+      log.debug(
+          "Image cache: "
+              + hits
+              + " hits, "
+              + misses
+              + " misses, "
+              + evictions
+              + " evictions, "
+              + images.size()
+              + " images, "
+              + residentBytes
+              + " of "
+              + maxBytes
+              + " bytes");
+    }
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+/** Statistics of the image cache of {@link ImageManager}, published through JMX. */
+public interface ImageCacheMXBean {
+
+  /** @return the number of lookups which found their image in the cache */
+  long getHitCount();
+
+  /** @return the number of lookups which had to load their image */
+  long getMissCount();
+
+  /** @return the number of images moved to the soft tier to stay within the memory budget */
+  long getEvictionCount();
+
+  /** @return the memory, in bytes, used by the images held by the cache */
+  long getResidentBytes();
+
+  /** @return the memory, in bytes, the images held by the cache may use */
+  long getMaxBytes();
+
+  /** @return the number of images held by the cache */
+  int getImageCount();
+
+  /** @return the number of assets whose images are pinned in the cache */
+  int getPinnedCount();
+}
@@ -18,41 +18,63 @@
 import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import net.rptools.lib.MD5Key;
 import net.rptools.lib.image.ImageUtil;
+import net.rptools.maptool.client.AppPreferences;
 import net.rptools.maptool.model.Asset;
 import net.rptools.maptool.model.AssetAvailableListener;
 import net.rptools.maptool.model.AssetManager;
-import org.apache.commons.collections4.map.AbstractReferenceMap;
-import org.apache.commons.collections4.map.ReferenceMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * The ImageManager class keeps a cache of loaded images. This class can be used to load the raw
  * image data from an asset. The loading of the raw image data into a usable class is done in the
- * background by one of two threads. The ImageManager will return a "?" (UNKNOWN_IMAGE) if the asset
+ * background by a pool of threads. The ImageManager will return a "?" (UNKNOWN_IMAGE) if the asset
  * is still downloading or the asset image is still being loaded, and a "X" (BROKEN_IMAGE) if the
- * asset or image is invalid. Small images are loaded using a different thread pool from large
- * images, and allows small images to load quicker.
+ * asset or image is invalid. Images are decoded by order of {@link Priority}, and smaller images
+ * first, which allows small images to load quicker.
  *
  * @author RPTools Team.
  */
 public class ImageManager {
   private static final Logger log = LogManager.getLogger(ImageManager.class);
 
-  /** Cache of images loaded for assets. */
-  private static final Map<MD5Key, BufferedImage> imageMap = new HashMap<MD5Key, BufferedImage>();
+  /** Cache of images loaded for assets, bounded by the image cache size preference. */
+  private static final ImageCache imageCache = new ImageCache(getCacheBudget());
+
+  /** How soon an image is needed, used to order the images waiting to be decoded. */
+  public enum Priority {
+    /** Needed to paint what is on screen. */
+    VISIBLE,
+    /** Used by the current zone. */
+    ZONE,
+    /** Anything else. */
+    BACKGROUND
+  }
+
+  /**
+   * The assets whose image is being loaded, for which TRANSFERING_IMAGE is returned, with the
+   * highest priority they were requested with. Each image is only loaded once, however many times
+   * it is requested while loading.
+   */
+  private static final Map<MD5Key, Priority> loadingImages = new HashMap<MD5Key, Priority>();
 
-  /** Additional Soft-reference Cache of images that allows best . */
-  private static final Map<MD5Key, BufferedImage> backupImageMap =
-      new ReferenceMap(
-          AbstractReferenceMap.ReferenceStrength.HARD, AbstractReferenceMap.ReferenceStrength.SOFT);
+  /** The images waiting to be decoded, so that they can be moved up when needed sooner. */
+  private static final Map<MD5Key, BackgroundImageLoader> pendingImageLoaders =
+      new HashMap<MD5Key, BackgroundImageLoader>();
+
+  /** Orders the images waiting to be decoded. */
+  private static long imageLoaderSequence;
 
   /**
    * The unknown image, a "?" is used for all situations where the image will eventually appear e.g.
@@ -68,10 +90,18 @@ public class ImageManager {
 
   public static BufferedImage BROKEN_IMAGE;
 
-  /** Small and large thread pools for background processing of asset raw image data. */
-  private static ExecutorService smallImageLoader = Executors.newFixedThreadPool(1);
+  /**
+   * Thread pool for background processing of asset raw image data, leaving a core for the event
+   * dispatch thread. The queue runs the {@link BackgroundImageLoader}s by priority.
+   */
+  private static final ThreadPoolExecutor imageLoader;
 
-  private static ExecutorService largeImageLoader = Executors.newFixedThreadPool(1);
+  static {
+    int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    imageLoader =
+        new ThreadPoolExecutor(
+            threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>());
+  }
 
   private static Object imageLoaderMutex = new Object();
 
@@ -96,15 +126,50 @@ public class ImageManager {
       log.error("static for 'broken.png':  not resolved; IOException", ioe);
       BROKEN_IMAGE = ImageUtil.createCompatibleImage(10, 10, 0);
     }
+
+    try {
+      ManagementFactory.getPlatformMBeanServer()
+          .registerMBean(imageCache, new ObjectName("net.rptools.maptool:type=ImageCache"));
+    } catch (JMException | SecurityException e) {
+      log.warn("Could not publish the image cache statistics", e);
+    }
+  }
+
+  /** @return the memory, in bytes, the cached images may use */
+  private static long getCacheBudget() {
+    // Leave room for everything else, whatever the preference says
+    return Math.min(
+        AppPreferences.getImageCacheSize() * 1024L * 1024L, Runtime.getRuntime().maxMemory() / 2);
   }
 
   /**
-   * Remove all images from the image cache. The observers and image load hints are not flushed. The
-   * same observers will be notified when the image is reloaded, and the same hints will be used for
+   * Remove all images which are not pinned from the image cache. They are kept with soft references
+   * until the memory is needed. The images being loaded are forgotten, so that an image whose asset
+   * never arrived is requested again. The observers and image load hints are not flushed. The same
+   * observers will be notified when the image is reloaded, and the same hints will be used for
    * loading.
    */
   public static void flush() {
-    imageMap.clear();
+    synchronized (imageLoaderMutex) {
+      for (BackgroundImageLoader loader : pendingImageLoaders.values()) {
+        imageLoader.remove(loader);
+      }
+      pendingImageLoaders.clear();
+      loadingImages.clear();
+    }
+    imageCache.clear();
+    imageCache.logStatistics();
+  }
+
+  /**
+   * Set the images which must stay in the cache, typically the ones of the current zone. The other
+   * images are evicted, least recently used first, when the cache goes over its memory budget.
+   *
+   * @param assetIds the assets of the images, replacing the previously pinned ones
+   */
+  public static void setPinnedImages(Set<MD5Key> assetIds) {
+    imageCache.setPinned(assetIds);
+    imageCache.logStatistics();
   }
 
   /**
@@ -124,13 +189,7 @@ public static BufferedImage getImageAndWait(MD5Key assetId) {
    * @param exceptionSet a set of images not to be flushed
    */
   public static void flush(Set<MD5Key> exceptionSet) {
-    synchronized (imageLoaderMutex) {
-      for (MD5Key id : new HashSet<MD5Key>(imageMap.keySet())) {
-        if (!exceptionSet.contains(id)) {
-          imageMap.remove(id);
-        }
-      }
-    }
+    imageCache.retainAll(exceptionSet);
   }
 
   /**
@@ -191,7 +250,7 @@ public static BufferedImage getImage(MD5Key assetId, ImageObserver... observers)
    * Return the image corresponding to the assetId.
    *
    * @param assetId Load image data from this asset.
-   * @param hints hints used when loading image data, if it isn't in the imageMap already.
+   * @param hints hints used when loading image data, if it isn't in the cache already.
    * @param observers the observers to be notified when the image loads, if it hasn't already.
    * @return the image, or BROKEN_IMAGE if assetId null, or TRANSFERING_IMAGE if loading.
    */
@@ -201,31 +260,66 @@ public static BufferedImage getImage(
       return BROKEN_IMAGE;
     }
     synchronized (imageLoaderMutex) {
-      BufferedImage image = imageMap.get(assetId);
-      if (image != null && image != TRANSFERING_IMAGE) {
-        return image;
+      BufferedImage image = requestImage(assetId, hints, Priority.VISIBLE);
+      if (image == TRANSFERING_IMAGE) {
+        // Make sure we are informed when it's done loading
+        addObservers(assetId, observers);
       }
+      return image;
+    }
+  }
 
-      // check if the soft reference still resolves image
-      image = backupImageMap.get(assetId);
+  /**
+   * Start loading the images which are not in the cache yet, so that they are ready when needed.
+   * Images requested by {@link #getImage} meanwhile are still loaded first.
+   *
+   * @param assetIds the assets of the images
+   * @param priority the priority of the images
+   */
+  public static void prefetchImages(Collection<MD5Key> assetIds, Priority priority) {
+    synchronized (imageLoaderMutex) {
+      for (MD5Key assetId : assetIds) {
+        if (assetId != null) {
+          requestImage(assetId, null, priority);
+        }
+      }
+    }
+  }
+
+  /**
+   * Return the cached image, or start loading it. If the image is already loading with a lower
+   * priority, it is moved up. Must be called with the imageLoaderMutex held.
+   *
+   * @param assetId Load image data from this asset.
+   * @param hints hints used when loading image data, if it isn't in the cache already.
+   * @param priority how soon the image is needed.
+   * @return the image, or TRANSFERING_IMAGE if loading.
+   */
+  private static BufferedImage requestImage(
+      MD5Key assetId, Map<String, Object> hints, Priority priority) {
+    Priority loadingPriority = loadingImages.get(assetId);
+    if (loadingPriority == null) {
+      BufferedImage image = imageCache.get(assetId);
       if (image != null) {
-        imageMap.put(assetId, image);
         return image;
       }
 
       // Make note that we're currently processing it
-      imageMap.put(assetId, TRANSFERING_IMAGE);
-
-      // Make sure we are informed when it's done loading
-      addObservers(assetId, observers);
+      loadingImages.put(assetId, priority);
 
       // Force a load of the asset, this will trigger a transfer if the
       // asset is not available locally
-      if (image == null) {
-        AssetManager.getAssetAsynchronously(assetId, new AssetListener(assetId, hints));
+      AssetManager.getAssetAsynchronously(assetId, new AssetListener(assetId, hints));
+    } else if (priority.compareTo(loadingPriority) < 0) {
+      loadingImages.put(assetId, priority);
+      // Requeue it if it is waiting to be decoded, otherwise it will be queued with this priority
+      BackgroundImageLoader loader = pendingImageLoaders.get(assetId);
+      if (loader != null && imageLoader.remove(loader)) {
+        pendingImageLoaders.put(assetId, loader.withPriority(priority));
+        imageLoader.execute(pendingImageLoaders.get(assetId));
       }
-      return TRANSFERING_IMAGE;
     }
+    return TRANSFERING_IMAGE;
   }
 
   /**
@@ -244,7 +338,7 @@ public static void flushImage(Asset asset) {
    */
   public static void flushImage(MD5Key assetId) {
     // LATER: investigate how this effects images that are already in progress
-    imageMap.remove(assetId);
+    imageCache.remove(assetId);
   }
 
   /**
@@ -273,29 +367,63 @@ public static void addObservers(MD5Key assetId, ImageObserver... observers) {
    *
    * @author RPTools Team.
    */
-  private static class BackgroundImageLoader implements Runnable {
+  private static class BackgroundImageLoader
+      implements Runnable, Comparable<BackgroundImageLoader> {
     private final Asset asset;
     private final Map<String, Object> hints;
+    private final Priority priority;
+    private final long sequence;
 
     /**
      * Create a background image loader to load the asset image using the hints provided.
      *
      * @param asset Asset to load
      * @param hints Hints to use for image loading
+     * @param priority the priority of the image
+     * @param sequence orders the loaders of the same priority and size
      */
-    public BackgroundImageLoader(Asset asset, Map<String, Object> hints) {
+    public BackgroundImageLoader(
+        Asset asset, Map<String, Object> hints, Priority priority, long sequence) {
       this.asset = asset;
       this.hints = hints;
+      this.priority = priority;
+      this.sequence = sequence;
+    }
+
+    /**
+     * @param priority the new priority of the image
+     * @return a loader for the same image, with the new priority
+     */
+    BackgroundImageLoader withPriority(Priority priority) {
+      return new BackgroundImageLoader(asset, hints, priority, sequence);
+    }
+
+    @Override
+    public int compareTo(BackgroundImageLoader other) {
+      int result = priority.compareTo(other.priority);
+      if (result == 0) {
+        result = Integer.compare(asset.getImage().length, other.asset.getImage().length);
+      }
+      if (result == 0) {
+        result = Long.compare(sequence, other.sequence);
+      }
+      return result;
     }
 
     /** Load the asset raw image data and notify observers that the image is loaded. */
     public void run() {
+      synchronized (imageLoaderMutex) {
+        pendingImageLoaders.remove(asset.getId(), this);
+      }
       log.debug("Loading asset: " + asset.getId());
-      BufferedImage image = imageMap.get(asset.getId());
+      BufferedImage image = imageCache.peek(asset.getId());
 
-      if (image != null && image != TRANSFERING_IMAGE) {
+      if (image != null) {
         // We've somehow already loaded this image
         log.debug("Image wasn't in transit: " + asset.getId());
+        synchronized (imageLoaderMutex) {
+          loadingImages.remove(asset.getId());
+        }
         return;
       }
 
@@ -332,8 +460,8 @@ public void run() {
 
       synchronized (imageLoaderMutex) {
         // Replace placeholder with actual image
-        imageMap.put(asset.getId(), image);
-        backupImageMap.put(asset.getId(), image);
+        loadingImages.remove(asset.getId());
+        imageCache.put(asset.getId(), image);
         notifyObservers(asset, image);
       }
     }
@@ -364,11 +492,16 @@ private static void notifyObservers(Asset asset, BufferedImage image) {
    * @param hints Hints used when loading image data
    */
   private static void backgroundLoadImage(Asset asset, Map<String, Object> hints) {
-    // Use large image loader if the image is larger than 128kb.
-    if (asset.getImage().length > 128 * 1024) {
-      largeImageLoader.execute(new BackgroundImageLoader(asset, hints));
-    } else {
-      smallImageLoader.execute(new BackgroundImageLoader(asset, hints));
+    synchronized (imageLoaderMutex) {
+      Priority priority = loadingImages.get(asset.getId());
+      BackgroundImageLoader loader =
+          new BackgroundImageLoader(
+              asset,
+              hints,
+              priority != null ? priority : Priority.BACKGROUND,
+              imageLoaderSequence++);
+      pendingImageLoaders.put(asset.getId(), loader);
+      imageLoader.execute(loader);
     }
   }
 
@@ -388,9 +521,19 @@ public void assetAvailable(MD5Key key) {
       // No longer need to be notified when this asset is available
       AssetManager.removeAssetListener(id, this);
 
+      Asset asset = AssetManager.getAsset(id);
+      if (asset == null) {
+        // The fetch failed, so let the next request fetch it again
+        log.warn("Asset announced but not available: " + id);
+        synchronized (imageLoaderMutex) {
+          loadingImages.remove(id);
+        }
+        return;
+      }
+
       // Image is now available for loading
       log.debug("Asset available: " + id);
-      backgroundLoadImage(AssetManager.getAsset(id), hints);
+      backgroundLoadImage(asset, hints);
     }
 
     @Override
@@ -0,0 +1,177 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from primitive long keys to objects, without the boxing of the keys and the entry
+ * objects of a {@link java.util.HashMap}. Used by the path finding, which looks up cells by their
+ * coordinates packed in a long, see {@link #key(int, int)}.
+ *
+ * <p>The map uses open addressing with linear probing. Entries can't be removed one by one, only
+ * all at once, and null values are not allowed.
+ *
+ * @param <V> the type of the values
+ */
+public final class LongMap<V> {
+
+  private static final int MIN_CAPACITY = 16;
+
+  private long[] keys;
+  private Object[] values;
+  private int size;
+
+  /** The number of entries over which the table is grown. */
+  private int threshold;
+
+  public LongMap() {
+    this(MIN_CAPACITY);
+  }
+
+  /**
+   * @param expectedSize the number of entries expected, so that the table isn't grown until then
+   */
+  public LongMap(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity * 3 / 4 < expectedSize) {
+      capacity *= 2;
+    }
+    allocate(capacity);
+  }
+
+  /**
+   * Pack two ints in a long, to be used as a key.
+   *
+   * @param x the first int, in the high half
+   * @param y the second int, in the low half
+   * @return the key
+   */
+  public static long key(int x, int y) {
+    return ((long) x << 32) | (y & 0xFFFFFFFFL);
+  }
+
+  /**
+   * @param key a key made by {@link #key(int, int)}
+   * @return the first int of the key
+   */
+  public static int keyX(long key) {
+    return (int) (key >> 32);
+  }
+
+  /**
+   * @param key a key made by {@link #key(int, int)}
+   * @return the second int of the key
+   */
+  public static int keyY(long key) {
+    return (int) key;
+  }
+
+  /**
+   * @param key the key
+   * @return the value of the key, or null if none
+   */
+  @SuppressWarnings("unchecked")
+  public V get(long key) {
+    int mask = keys.length - 1;
+    for (int i = index(key, mask); values[i] != null; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        return (V) values[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param key the key
+   * @return true if the key has a value
+   */
+  public boolean containsKey(long key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Set the value of a key.
+   *
+   * @param key the key
+   * @param value the value, not null
+   * @return the previous value of the key, or null if none
+   */
+  @SuppressWarnings("unchecked")
+  public V put(long key, V value) {
+    if (value == null) {
+      throw new NullPointerException("value");
+    }
+    int mask = keys.length - 1;
+    int i = index(key, mask);
+    for (; values[i] != null; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        V previous = (V) values[i];
+        values[i] = value;
+        return previous;
+      }
+    }
+    keys[i] = key;
+    values[i] = value;
+    if (++size > threshold) {
+      rehash(keys.length * 2);
+    }
+    return null;
+  }
+
+  /** @return the number of entries */
+  public int size() {
+    return size;
+  }
+
+  /** @return true if there is no entry */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Remove all the entries, keeping the table allocated. */
+  public void clear() {
+    Arrays.fill(values, null);
+    size = 0;
+  }
+
+  private static int index(long key, int mask) {
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new Object[capacity];
+    threshold = capacity * 3 / 4;
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    allocate(capacity);
+    int mask = capacity - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      if (oldValues[j] != null) {
+        int i = index(oldKeys[j], mask);
+        while (values[i] != null) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = oldKeys[j];
+        values[i] = oldValues[j];
+      }
+    }
+  }
+}
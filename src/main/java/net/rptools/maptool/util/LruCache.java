@@ -0,0 +1,106 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache holding a fixed number of entries, evicting the least recently used ones first, which
+ * counts its hits and misses.
+ *
+ * <p>All the methods are thread safe.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class LruCache<K, V> {
+
+  private final int maxSize;
+
+  private final Map<K, V> entries;
+
+  private long hits;
+  private long misses;
+
+  /** @param maxSize the maximum number of entries held */
+  public LruCache(int maxSize) {
+    this.maxSize = maxSize;
+    entries =
+        new LinkedHashMap<K, V>(16, 0.75f, true) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > LruCache.this.maxSize;
+          }
+        };
+  }
+
+  /**
+   * @param key the key
+   * @return the value, or null if not in the cache
+   */
+  public synchronized V get(K key) {
+    V value = entries.get(key);
+    if (value == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return value;
+  }
+
+  /**
+   * Add a value, evicting the least recently used entry if full.
+   *
+   * @param key the key
+   * @param value the value
+   */
+  public synchronized void put(K key, V value) {
+    entries.put(key, value);
+  }
+
+  /** Remove all the entries. The counters are kept. */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  /** @return the number of entries held */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** @return the maximum number of entries held */
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /** @return the number of lookups which found their value */
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  /** @return the number of lookups which didn't find their value */
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  /** @return the ratio of lookups which found their value, 0 if there was no lookup */
+  public synchronized double getHitRate() {
+    long lookups = hits + misses;
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+}
@@ -15,6 +15,7 @@
 package net.rptools.maptool.util;
 
 import com.caucho.hessian.io.HessianInput;
+import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.converters.ConversionException;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
@@ -66,6 +67,7 @@
 import net.rptools.maptool.model.transform.campaign.ExportInfoTransform;
 import net.rptools.maptool.model.transform.campaign.PCVisionTransform;
 import net.rptools.maptool.model.transform.campaign.TokenPropertyMapTransform;
+import net.rptools.maptool.util.converter.AreaConverter;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
@@ -80,7 +82,7 @@ public class PersistenceUtil {
   private static final String ASSET_DIR = "assets/"; // $NON-NLS-1$
   public static final String HERO_LAB = "herolab"; // $NON-NLS-1$
 
-  private static final String CAMPAIGN_VERSION = "1.4.1";
+  private static final String CAMPAIGN_VERSION = "1.7.0";
 
   // Please add a single note regarding why the campaign version number has been updated:
   // 1.3.70 ownerOnly added to model.Light (not backward compatible)
@@ -91,6 +93,8 @@ public class PersistenceUtil {
   // how to implement?)
   // 1.4.0 Added lumens to LightSource class, old versions will not load unless saved as b89
   // compatible
+  // 1.7.0 Areas saved in the compact form of AreaCodec (not backward compatible, exports to older
+  // versions keep the old form)
 
   private static final ModelVersionManager campaignVersionManager = new ModelVersionManager();
   private static final ModelVersionManager assetnameVersionManager = new ModelVersionManager();
@@ -172,7 +176,7 @@ public static void saveMap(Zone z, File mapFile) throws IOException {
       pMap.assetMap.put(key, null);
     }
 
-    try (PackedFile pakFile = new PackedFile(mapFile)) {
+    try (PackedFile pakFile = openPackedFile(mapFile)) {
       saveAssets(z.getAllAssetIds(), pakFile);
       pakFile.setContent(pMap);
       pakFile.setProperty(PROP_VERSION, MapTool.getVersion());
@@ -185,7 +189,7 @@ public static PersistedMap loadMap(File mapFile) throws IOException {
     PersistedMap persistedMap = null;
 
     // TODO: split in a try with resources and a try/catch
-    try (PackedFile pakFile = new PackedFile(mapFile)) {
+    try (PackedFile pakFile = openPackedFile(mapFile)) {
 
       // Sanity check
       String progVersion = (String) pakFile.getProperty(PROP_VERSION);
@@ -227,6 +231,24 @@ public static PersistedMap loadMap(File mapFile) throws IOException {
     return persistedMap;
   }
 
+  /**
+   * Open a packed file whose XStream saves areas in the compact form of {@link AreaCodec}, and
+   * reads them in either form.
+   *
+   * @param file the file
+   * @return the packed file
+   */
+  private static PackedFile openPackedFile(File file) {
+    PackedFile pakFile = new PackedFile(file);
+    registerAreaConverter(pakFile.getXStream());
+    return pakFile;
+  }
+
+  private static void registerAreaConverter(XStream xStream) {
+    xStream.registerConverter(
+        new AreaConverter(xStream.getMapper(), xStream.getReflectionProvider()));
+  }
+
   /**
    * Determines whether the incoming map name is unique. If it is, it's returned as-is. If it's not
    * unique, a newly generated name is returned.
@@ -301,6 +323,7 @@ public static void saveCampaign(Campaign campaign, File campaignFile, String cam
         if (campaignVersion != null) {
           pakFile = CampaignExport.stripContent(pakFile, persistedCampaign, campaignVersion);
         } else {
+          registerAreaConverter(pakFile.getXStream());
           pakFile.setContent(persistedCampaign);
           pakFile.setProperty(PROP_CAMPAIGN_VERSION, CAMPAIGN_VERSION);
           pakFile.setProperty(PROP_VERSION, MapTool.getVersion());
@@ -414,7 +437,7 @@ public static PersistedCampaign loadCampaign(File campaignFile) throws IOExcepti
     // Try the new way first
     PackedFile pakFile = null;
     try {
-      pakFile = new PackedFile(campaignFile);
+      pakFile = openPackedFile(campaignFile);
       pakFile.setModelVersionManager(campaignVersionManager);
 
       // Sanity check
@@ -523,7 +546,7 @@ private static String getThumbFilename(PackedFile pakFile) throws IOException {
 
   public static BufferedImage getTokenThumbnail(File file) throws Exception {
     BufferedImage thumb;
-    try (PackedFile pakFile = new PackedFile(file); ) {
+    try (PackedFile pakFile = openPackedFile(file); ) {
       // Jamz: Lets use the Large thumbnail if needed
       String thumbFileName = getThumbFilename(pakFile);
 
@@ -572,7 +595,7 @@ public static void saveToken(Token token, File file, boolean doWait) throws IOEx
     g.drawImage(image, 0, 0, sz.width, sz.height, null);
     g.dispose();
 
-    try (PackedFile pakFile = new PackedFile(file)) {
+    try (PackedFile pakFile = openPackedFile(file)) {
       saveAssets(token.getAllImageAssets(), pakFile);
       pakFile.putFile(Token.FILE_THUMBNAIL, ImageUtil.imageToBytes(thumb, "png"));
       pakFile.putFile(Token.FILE_THUMBNAIL_LARGE, ImageUtil.imageToBytes(thumbLarge, "png"));
@@ -585,7 +608,7 @@ public static void saveToken(Token token, File file, boolean doWait) throws IOEx
 
   public static Token loadToken(File file) throws IOException {
     Token token = null;
-    try (PackedFile pakFile = new PackedFile(file)) {
+    try (PackedFile pakFile = openPackedFile(file)) {
       pakFile.setModelVersionManager(tokenVersionManager);
 
       // Sanity check
@@ -778,7 +801,7 @@ private static boolean versionCheck(String progVersion) {
   public static CampaignProperties loadCampaignProperties(File file) {
     PackedFile pakFile = null;
     try {
-      pakFile = new PackedFile(file);
+      pakFile = openPackedFile(file);
       String progVersion = (String) pakFile.getProperty(PROP_VERSION);
       if (!versionCheck(progVersion)) return null;
       CampaignProperties props = null;
@@ -815,7 +838,7 @@ public static void saveCampaignProperties(Campaign campaign, File file) throws I
     if (!file.getName().contains(".")) {
       file = new File(file.getAbsolutePath() + AppConstants.CAMPAIGN_PROPERTIES_FILE_EXTENSION);
     }
-    try (PackedFile pakFile = new PackedFile(file)) {
+    try (PackedFile pakFile = openPackedFile(file)) {
       clearAssets(pakFile);
       saveAssets(campaign.getCampaignProperties().getAllImageAssets(), pakFile);
       pakFile.setContent(campaign.getCampaignProperties());
@@ -848,7 +871,7 @@ public static MacroButtonProperties loadMacro(InputStream in) {
   }
 
   public static MacroButtonProperties loadMacro(File file) throws IOException {
-    try (PackedFile pakFile = new PackedFile(file)) {
+    try (PackedFile pakFile = openPackedFile(file)) {
       // Sanity check
       String progVersion = (String) pakFile.getProperty(PROP_VERSION);
       if (!versionCheck(progVersion)) return null;
@@ -867,7 +890,7 @@ public static MacroButtonProperties loadMacro(File file) throws IOException {
    * @throws IOException if the file can't be saved
    */
   public static void saveMacro(MacroButtonProperties macroButton, File file) throws IOException {
-    try (PackedFile pakFile = new PackedFile(file)) {
+    try (PackedFile pakFile = openPackedFile(file)) {
       pakFile.setContent(macroButton);
       pakFile.setProperty(PROP_VERSION, MapTool.getVersion());
       pakFile.save();
@@ -944,7 +967,7 @@ public static List<MacroButtonProperties> loadMacroSet(InputStream in) {
   public static List<MacroButtonProperties> loadMacroSet(File file) throws IOException {
     List<MacroButtonProperties> macroButtonSet = null;
     try {
-      try (PackedFile pakFile = new PackedFile(file)) {
+      try (PackedFile pakFile = openPackedFile(file)) {
         // Sanity check
         String progVersion = (String) pakFile.getProperty(PROP_VERSION);
         if (!versionCheck(progVersion)) return null;
@@ -966,7 +989,7 @@ public static void saveMacroSet(List<MacroButtonProperties> macroButtonSet, File
       file = new File(file.getAbsolutePath() + AppConstants.MACROSET_FILE_EXTENSION);
     }
 
-    try (PackedFile pakFile = new PackedFile(file)) {
+    try (PackedFile pakFile = openPackedFile(file)) {
       pakFile.setContent(macroButtonSet);
       pakFile.setProperty(PROP_VERSION, MapTool.getVersion());
       pakFile.save();
@@ -1000,7 +1023,7 @@ public static LookupTable loadTable(InputStream in) {
   public static LookupTable loadTable(File file) throws IOException {
 
     try {
-      try (PackedFile pakFile = new PackedFile(file)) {
+      try (PackedFile pakFile = openPackedFile(file)) {
         // Sanity check
         String progVersion = (String) pakFile.getProperty(PROP_VERSION);
         if (!versionCheck(progVersion)) return null;
@@ -1027,7 +1050,7 @@ public static void saveTable(LookupTable lookupTable, File file) throws IOExcept
       file = new File(file.getAbsolutePath() + AppConstants.TABLE_FILE_EXTENSION);
     }
 
-    try (PackedFile pakFile = new PackedFile(file)) {
+    try (PackedFile pakFile = openPackedFile(file)) {
       pakFile.setContent(lookupTable);
       saveAssets(lookupTable.getAllAssetIds(), pakFile);
       pakFile.setProperty(PROP_VERSION, MapTool.getVersion());
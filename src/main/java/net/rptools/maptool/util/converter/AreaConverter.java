@@ -0,0 +1,59 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util.converter;
+
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.converters.reflection.ReflectionConverter;
+import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.mapper.Mapper;
+import java.awt.geom.Area;
+import java.util.Base64;
+import net.rptools.maptool.util.AreaCodec;
+
+/**
+ * Writes areas in the compact form of {@link AreaCodec}, as base 64 text. Areas saved field by
+ * field, as they were before, are still read.
+ */
+public class AreaConverter implements Converter {
+  /** Reads the areas saved field by field. */
+  private final ReflectionConverter fieldConverter;
+
+  public AreaConverter(Mapper mapper, ReflectionProvider reflectionProvider) {
+    fieldConverter = new ReflectionConverter(mapper, reflectionProvider, Area.class);
+  }
+
+  @Override
+  public void marshal(Object value, HierarchicalStreamWriter writer, MarshallingContext context) {
+    writer.setValue(Base64.getEncoder().encodeToString(AreaCodec.encode((Area) value)));
+  }
+
+  @Override
+  public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+    if (reader.hasMoreChildren()) {
+      return fieldConverter.unmarshal(reader, context);
+    }
+    return AreaCodec.decode(Base64.getDecoder().decode(reader.getValue().trim()));
+  }
+
+  @SuppressWarnings("rawtypes")
+  @Override
+  public boolean canConvert(Class clazz) {
+    return clazz.equals(Area.class);
+  }
+}
@@ -59,9 +59,25 @@ private void addTokenChangeListeners() {
               public void modelChanged(ModelChangeEvent event) {
                 System.out.println("DEBUG: Event " + event.eventType);
                 if (event.eventType == Zone.Event.TOKEN_CHANGED) {
-                  tokenChanged((Token) event.getArg());
+                  if (event.getArg() instanceof List<?>) {
+                    @SuppressWarnings("unchecked")
+                    List<Token> list = (List<Token>) (event.getArg());
+                    for (Token token : list) {
+                      tokenChanged(token);
+                    }
+                  } else {
+                    tokenChanged((Token) event.getArg());
+                  }
                 } else if (event.eventType == Zone.Event.TOKEN_ADDED) {
-                  tokenAdded((Token) event.getArg());
+                  if (event.getArg() instanceof List<?>) {
+                    @SuppressWarnings("unchecked")
+                    List<Token> list = (List<Token>) (event.getArg());
+                    for (Token token : list) {
+                      tokenAdded(token);
+                    }
+                  } else {
+                    tokenAdded((Token) event.getArg());
+                  }
                 } else if (event.eventType == Zone.Event.TOKEN_REMOVED) {
                   if (event.getArg() instanceof List<?>) {
                     @SuppressWarnings("unchecked")
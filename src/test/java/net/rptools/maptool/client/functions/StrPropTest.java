@@ -0,0 +1,172 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.functions;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class StrPropTest {
+
+  private static final Pattern keyValueParser = Pattern.compile("\\s*([\\w .]+)\\s*=\\s*(.*)");
+
+  /** The regular expression based parser StrProp replaces, as the reference. */
+  private static void parseWithRegex(
+      String props, Map<String, String> map, List<String> oldKeys, String delim) {
+    String delimPatt;
+    if (delim.equals("")) {
+      delimPatt = ";";
+    } else {
+      delimPatt = StrPropFunctionsQuoting.fullyQuoteString(delim);
+    }
+    final String entryPatt = "\\s*([\\w .]+\\s*=.*?)" + delimPatt + "|([\\w.]+\\s*=.*)";
+    final Pattern entryParser = Pattern.compile(entryPatt);
+
+    boolean lastEntry = false;
+    Matcher entryMatcher = entryParser.matcher(props);
+    while (entryMatcher.find()) {
+      if (!lastEntry) {
+        String entry = entryMatcher.group(1);
+        if (entry == null) {
+          entry = entryMatcher.group(2);
+          lastEntry = true;
+        }
+        Matcher keyValueMatcher = keyValueParser.matcher(entry);
+        if (keyValueMatcher.find()) {
+          String propKey = keyValueMatcher.group(1).trim();
+          String propValue = keyValueMatcher.group(2).trim();
+          map.put(propKey.toUpperCase(), propValue);
+          oldKeys.add(propKey);
+        }
+      }
+    }
+  }
+
+  /** Copy of StrPropFunctions.fullyQuoteString, which can't be loaded without the parser. */
+  private static class StrPropFunctionsQuoting {
+    static String fullyQuoteString(String s) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < s.length(); i++) {
+        if (!Character.isLetterOrDigit(s.charAt(i))) {
+          sb.append("\\");
+        }
+        sb.append(s.charAt(i));
+      }
+      return sb.toString();
+    }
+  }
+
+  private static void assertSameAsRegex(String props, String delim) {
+    Map<String, String> map = new HashMap<String, String>();
+    List<String> keys = new ArrayList<String>();
+    parseWithRegex(props, map, keys, delim);
+
+    StrProp strProp = StrProp.tokenize(props, delim.isEmpty() ? ";" : delim);
+    String message = "\"" + props.replace("\n", "\\n") + "\" with \"" + delim + "\"";
+    assertEquals(keys, strProp.getKeys(), message);
+    assertEquals(map, strProp.getValues(), message);
+    for (int i = 0; i < keys.size(); i++) {
+      assertEquals(keys.get(i).toUpperCase(), strProp.getNormalizedKeys().get(i), message);
+    }
+  }
+
+  @Test
+  @DisplayName("Usual property strings are parsed as before.")
+  void testUsual() {
+    assertSameAsRegex("a=1;b=2;c=3", ";");
+    assertSameAsRegex("a=1 ; b = 2 ; c=3 ;", ";");
+    assertSameAsRegex(" Key With Spaces = some value ; x.y = 3", ";");
+    assertSameAsRegex("a=1, b=2, c=3", ",");
+    assertSameAsRegex("a=1##b=2##c=3##", "##");
+    assertSameAsRegex("a=1;b=2", "");
+    assertSameAsRegex("a=1;A=2;a=3", ";");
+    assertSameAsRegex("", ";");
+    assertSameAsRegex("no properties here", ";");
+  }
+
+  @Test
+  @DisplayName("Corner cases are parsed as before.")
+  void testCornerCases() {
+    assertSameAsRegex("a=1\nb=2;c=3", ";");
+    assertSameAsRegex("a\tb=1;c=2", ";");
+    assertSameAsRegex(" \t =1;c=2", ";");
+    assertSameAsRegex("=1;=2;a=", ";");
+    assertSameAsRegex("a=b=c;d==e", ";");
+    assertSameAsRegex("a b\n=1;c d=2", ";");
+    assertSameAsRegex("x;;a=1;;b=2", ";");
+    assertSameAsRegex("a=1 b=2", ";");
+    assertSameAsRegex("a=1\nb=2\nc=3", "\n");
+    assertSameAsRegex("a=1 b=2 c=3", " ");
+    assertSameAsRegex("a=1=b=2", "=");
+    assertSameAsRegex("{a=1}[b=2]", "]");
+  }
+
+  @Test
+  @DisplayName("Random strings are parsed as before.")
+  void testRandom() {
+    String[] pieces = {
+      "a", "B", "_", "7", ".", " ", "  ", "\t", "\n", "\r", "=", "=", ";", ";", ",", "##", "#",
+      "key", "x.y", " ", "\u0085", "é", "(", "\"", "\\"
+    };
+    String[] delims = {";", "", ",", "##", "\n", " ", "=", "a", "\\", "x.y", ";;"};
+    Random random = new Random(42);
+    for (int i = 0; i < 20000; i++) {
+      StringBuilder sb = new StringBuilder();
+      int length = random.nextInt(20);
+      for (int j = 0; j < length; j++) {
+        sb.append(pieces[random.nextInt(pieces.length)]);
+      }
+      assertSameAsRegex(sb.toString(), delims[random.nextInt(delims.length)]);
+    }
+  }
+
+  @Test
+  @DisplayName("The same string is only parsed once.")
+  void testCache() {
+    String props = "a=1 ; b=2";
+    StrProp first = StrProp.parse(props, ";");
+    assertSame(first, StrProp.parse(new String(props), ";"));
+    assertSame(first, StrProp.parse(props, ""));
+    assertNotSame(first, StrProp.parse(props, ","));
+    assertEquals("2", first.get("B"));
+  }
+
+  @Test
+  @DisplayName("Long property strings are parsed in linear time.")
+  void testScaling() {
+    for (String separator : new String[] {" ; ", ";\n"}) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 20000; i++) {
+        sb.append("key").append(i).append(" = value").append(i).append(separator);
+      }
+      String props = sb.toString();
+      // A parse quadratic in the length takes several seconds
+      StrProp strProp =
+          assertTimeoutPreemptively(Duration.ofSeconds(2), () -> StrProp.tokenize(props, ";"));
+      assertEquals(20000, strProp.getKeys().size());
+      assertEquals("value19999", strProp.get("KEY19999"));
+    }
+    assertSameAsRegex("a=1;b=2;c=3\nd=4;e=5", ";");
+  }
+}
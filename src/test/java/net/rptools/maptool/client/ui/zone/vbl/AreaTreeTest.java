@@ -0,0 +1,206 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class AreaTreeTest {
+
+  /** A row of square rooms sharing their walls, each with a pillar in the middle. */
+  private static Area createRooms(int count) {
+    Area area = new Area();
+    for (int i = 0; i < count; i++) {
+      int x = i * 200;
+      Area room = new Area(new Rectangle(x, 0, 210, 210));
+      room.subtract(new Area(new Rectangle(x + 10, 10, 190, 190)));
+      room.add(new Area(new Rectangle(x + 90, 90, 30, 30)));
+      area.add(room);
+    }
+    return area;
+  }
+
+  /** @return a description of the tree, independent of the order of the islands and oceans */
+  private static String describe(AreaTree tree) {
+    return describe(tree.getOcean());
+  }
+
+  private static String describe(AreaOcean ocean) {
+    List<String> islands = new ArrayList<String>();
+    for (AreaIsland island : ocean.getIslands()) {
+      islands.add(describe(island));
+    }
+    Collections.sort(islands);
+    String bounds = ocean.getBounds() == null ? "global" : ocean.getBounds().getBounds().toString();
+    return "ocean " + bounds + " " + islands;
+  }
+
+  private static String describe(AreaIsland island) {
+    List<String> oceans = new ArrayList<String>();
+    for (AreaOcean ocean : island.getOceans()) {
+      oceans.add(describe(ocean));
+    }
+    Collections.sort(oceans);
+    return "island " + island.getBounds().getBounds() + " " + oceans;
+  }
+
+  /** @return the surface of the area */
+  private static double getSurface(Area area) {
+    double surface = 0;
+    double pathSurface = 0;
+    double[] coords = new double[6];
+    double startX = 0;
+    double startY = 0;
+    double lastX = 0;
+    double lastY = 0;
+    for (PathIterator it = area.getPathIterator(null, 0.1); !it.isDone(); it.next()) {
+      switch (it.currentSegment(coords)) {
+        case PathIterator.SEG_MOVETO:
+          startX = lastX = coords[0];
+          startY = lastY = coords[1];
+          pathSurface = 0;
+          break;
+        case PathIterator.SEG_LINETO:
+          pathSurface += lastX * coords[1] - coords[0] * lastY;
+          lastX = coords[0];
+          lastY = coords[1];
+          break;
+        case PathIterator.SEG_CLOSE:
+          pathSurface += lastX * startY - startX * lastY;
+          surface += Math.abs(pathSurface) / 2;
+          break;
+      }
+    }
+    return surface;
+  }
+
+  /** @return the tiles of the area, each one digested again in a new tree */
+  private static AreaTree createTiledTree(Area area) {
+    return new AreaTree(AreaTree.splitIntoTiles(area));
+  }
+
+  /** @return the new part of the area in the tiles touching the bounds */
+  private static Map<Point, Area> getChangedTiles(Area area, Rectangle bounds) {
+    Map<Point, Area> tiles = new HashMap<Point, Area>();
+    for (Point tile : AreaTree.getTiles(bounds)) {
+      tiles.put(tile, AreaTree.clipToTile(area, tile));
+    }
+    return tiles;
+  }
+
+  @Test
+  @DisplayName("Splitting an area into tiles keeps all of it, each part inside its tile.")
+  void testSplitIntoTiles() {
+    Area area = createRooms(12);
+    area.add(new Area(new Rectangle(-1500, 3000, 50, 50)));
+    Map<Point, Area> tiles = AreaTree.splitIntoTiles(area);
+
+    Area joined = new Area();
+    for (Map.Entry<Point, Area> entry : tiles.entrySet()) {
+      Point tile = entry.getKey();
+      Rectangle tileBounds =
+          new Rectangle(
+              tile.x * AreaTree.TILE_SIZE,
+              tile.y * AreaTree.TILE_SIZE,
+              AreaTree.TILE_SIZE,
+              AreaTree.TILE_SIZE);
+      assertFalse(entry.getValue().isEmpty());
+      assertTrue(tileBounds.contains(entry.getValue().getBounds2D()));
+      joined.add(entry.getValue());
+    }
+    assertTrue(area.equals(joined));
+    assertEquals(4, tiles.size());
+  }
+
+  @Test
+  @DisplayName("The islands cut by the tiles block the sight as the whole islands do.")
+  void testTiledVisibility() {
+    Area area = createRooms(12);
+    AreaTree tree = new AreaTree(area);
+    AreaTree tiledTree = createTiledTree(area);
+    Area vision = new Area(new Ellipse2D.Double(-600, -600, 1200, 1200));
+
+    for (int x = 50; x < 2400; x += 200) {
+      Area expected = VisibilitySweep.calculateVisibility(x, 50, vision, tree);
+      Area visible = VisibilitySweep.calculateVisibility(x, 50, vision, tiledTree);
+      Area difference = new Area(expected);
+      difference.exclusiveOr(visible);
+      assertTrue(getSurface(difference) < 1, "Sight differs from " + x);
+    }
+  }
+
+  @Test
+  @DisplayName("Updating the tree after opening a door gives the same tree as digesting it again.")
+  void testUpdateOpenDoor() {
+    Rectangle door = new Rectangle(995, 80, 20, 50);
+    Area area = createRooms(12);
+    AreaTree tree = createTiledTree(area);
+
+    Area newArea = new Area(area);
+    newArea.subtract(new Area(door));
+    AreaTree updated = tree.update(getChangedTiles(newArea, door));
+    assertNotEquals(describe(tree), describe(updated));
+    assertEquals(describe(createTiledTree(newArea)), describe(updated));
+
+    // Close it again
+    AreaTree closed = updated.update(getChangedTiles(area, door));
+    assertEquals(describe(tree), describe(closed));
+  }
+
+  @Test
+  @DisplayName("Updating the tree only digests the tiles changed, even along a connected wall.")
+  void testUpdateKeepsTiles() {
+    Area area = createRooms(12);
+    area.add(new Area(new Rectangle(5000, 5000, 50, 50)));
+    AreaTree tree = createTiledTree(area);
+
+    Rectangle pillar = new Rectangle(50, 50, 10, 10);
+    Area newArea = new Area(area);
+    newArea.add(new Area(pillar));
+    AreaTree updated = tree.update(getChangedTiles(newArea, pillar));
+
+    // The walls of the rooms are connected, but they are cut into one island in each tile
+    int kept = 0;
+    for (AreaIsland island : tree.getOcean().getIslands()) {
+      if (island.getBounds().getBounds().x >= AreaTree.TILE_SIZE) {
+        assertTrue(updated.getOcean().getIslands().contains(island));
+        kept++;
+      } else {
+        assertFalse(updated.getOcean().getIslands().contains(island));
+      }
+    }
+    assertTrue(kept > 0);
+    assertEquals(describe(createTiledTree(newArea)), describe(updated));
+  }
+
+  @Test
+  @DisplayName("Only a tree built from tiles can be updated.")
+  void testUpdateUntiled() {
+    AreaTree tree = new AreaTree(createRooms(1));
+    assertThrows(IllegalStateException.class, () -> tree.update(new HashMap<Point, Area>()));
+  }
+}
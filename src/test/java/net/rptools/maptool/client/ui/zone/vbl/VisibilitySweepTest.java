@@ -0,0 +1,115 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.PathIterator;
+import net.rptools.maptool.client.ui.zone.FogUtil;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class VisibilitySweepTest {
+
+  /** A grid of rooms with doorways, pillars, and a diagonal wall. */
+  private static Area createMap() {
+    Area area = new Area();
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 3; j++) {
+        int x = i * 300;
+        int y = j * 300;
+        Area room = new Area(new Rectangle(x, y, 310, 310));
+        room.subtract(new Area(new Rectangle(x + 10, y + 10, 290, 290)));
+        // Doorways to the next rooms
+        room.subtract(new Area(new Rectangle(x + 290, y + 120, 30, 60)));
+        room.subtract(new Area(new Rectangle(x + 120, y + 290, 60, 30)));
+        room.add(new Area(new Rectangle(x + 70, y + 200, 20, 20)));
+        area.add(room);
+      }
+    }
+    area.add(
+        new Area(new Polygon(new int[] {400, 420, 560, 540}, new int[] {400, 380, 520, 540}, 4)));
+    return area;
+  }
+
+  /** @return the surface of the area, from its flattened outline */
+  private static double getSurface(Area area) {
+    double surface = 0;
+    double[] coords = new double[6];
+    double startX = 0, startY = 0, lastX = 0, lastY = 0;
+    for (PathIterator it = area.getPathIterator(null, 0.5); !it.isDone(); it.next()) {
+      switch (it.currentSegment(coords)) {
+        case PathIterator.SEG_MOVETO:
+          startX = lastX = coords[0];
+          startY = lastY = coords[1];
+          break;
+        case PathIterator.SEG_LINETO:
+          surface += lastX * coords[1] - coords[0] * lastY;
+          lastX = coords[0];
+          lastY = coords[1];
+          break;
+        case PathIterator.SEG_CLOSE:
+          surface += lastX * startY - startX * lastY;
+          break;
+      }
+    }
+    return Math.abs(surface / 2);
+  }
+
+  @Test
+  @DisplayName("The sweep sees the same area as subtracting the shadows of the VBL.")
+  void testSameAsArea() {
+    AreaTree topology = new AreaTree(createMap());
+    Area vision = new Area(new Ellipse2D.Double(-350, -350, 700, 700));
+
+    int[][] origins = {{150, 150}, {50, 60}, {450, 150}, {610, 455}, {1000, 750}, {480, 520}};
+    for (int[] origin : origins) {
+      Area expected = FogUtil.calculateVisibilityByArea(origin[0], origin[1], vision, topology);
+      Area actual = VisibilitySweep.calculateVisibility(origin[0], origin[1], vision, topology);
+      assertNotNull(expected);
+      assertNotNull(actual);
+
+      Area difference = new Area(expected);
+      difference.exclusiveOr(actual);
+      double expectedSurface = getSurface(expected);
+      assertTrue(expectedSurface > 0);
+      assertTrue(
+          getSurface(difference) < expectedSurface * 0.01,
+          "Visibility differs from " + origin[0] + "," + origin[1]);
+    }
+  }
+
+  @Test
+  @DisplayName("Nothing is visible from inside the VBL.")
+  void testInsideVBL() {
+    AreaTree topology = new AreaTree(createMap());
+    Area vision = new Area(new Ellipse2D.Double(-100, -100, 200, 200));
+    assertNull(VisibilitySweep.calculateVisibility(5, 150, vision, topology));
+  }
+
+  @Test
+  @DisplayName("Without VBL, the whole vision is visible.")
+  void testNoVBL() {
+    AreaTree topology = new AreaTree(new Area());
+    Area vision = new Area(new Ellipse2D.Double(-100, -100, 200, 200));
+    Area actual = VisibilitySweep.calculateVisibility(500, 500, vision, topology);
+    Area expected = new Area(new Ellipse2D.Double(400, 400, 200, 200));
+    assertEquals(getSurface(expected), getSurface(actual), 1);
+  }
+}
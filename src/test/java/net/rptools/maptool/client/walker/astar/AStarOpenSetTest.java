@@ -0,0 +1,101 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class AStarOpenSetTest {
+
+  private static AStarCellPoint node(int x, double g, double h) {
+    AStarCellPoint node = new AStarCellPoint(x, 0);
+    node.g = g;
+    node.h = h;
+    return node;
+  }
+
+  @Test
+  @DisplayName("Nodes come out by F cost, the last added first on ties.")
+  void testOrder() {
+    AStarOpenSet openSet = new AStarOpenSet();
+    Random random = new Random(42);
+    List<AStarCellPoint> added = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      AStarCellPoint node = node(i, random.nextInt(50), random.nextInt(50));
+      added.add(node);
+      openSet.add(node);
+    }
+    AStarCellPoint previous = null;
+    while (!openSet.isEmpty()) {
+      AStarCellPoint node = openSet.poll();
+      assertFalse(openSet.contains(node));
+      if (previous != null) {
+        assertTrue(previous.fCost() <= node.fCost());
+        if (previous.fCost() == node.fCost()) {
+          assertTrue(added.indexOf(previous) > added.indexOf(node));
+        }
+      }
+      previous = node;
+    }
+  }
+
+  @Test
+  @DisplayName("A node whose cost is lowered moves ahead of the others.")
+  void testDecreaseKey() {
+    AStarOpenSet openSet = new AStarOpenSet();
+    AStarCellPoint a = node(0, 5, 1);
+    AStarCellPoint b = node(1, 4, 1);
+    AStarCellPoint c = node(2, 9, 1);
+    openSet.add(a);
+    openSet.add(b);
+    openSet.add(c);
+    assertTrue(openSet.contains(c));
+    c.g = 1;
+    openSet.decreaseKey(c);
+    assertSame(c, openSet.poll());
+    assertSame(b, openSet.poll());
+    assertSame(a, openSet.poll());
+    assertTrue(openSet.isEmpty());
+  }
+
+  @Test
+  @DisplayName("Nodes given new H costs come out in their new order.")
+  void testRescore() {
+    AStarOpenSet openSet = new AStarOpenSet();
+    Random random = new Random(7);
+    for (int i = 0; i < 200; i++) {
+      openSet.add(node(i, random.nextInt(50), random.nextInt(50)));
+    }
+    for (int i = 0; i < 50; i++) {
+      openSet.poll();
+    }
+    openSet.rescore(node -> 200 - node.x);
+    assertEquals(150, openSet.size());
+    AStarCellPoint previous = null;
+    while (!openSet.isEmpty()) {
+      AStarCellPoint node = openSet.poll();
+      assertEquals(200 - node.x, node.h);
+      if (previous != null) {
+        assertTrue(previous.fCost() <= node.fCost());
+      }
+      previous = node;
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Random;
+import net.rptools.maptool.client.walker.WalkerMetric;
+import net.rptools.maptool.model.CellPoint;
+import net.rptools.maptool.model.SquareGrid;
+import net.rptools.maptool.model.Zone;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class AStarSearchContinuationTest {
+
+  private static AStarSquareEuclideanWalker walker(Zone zone, WalkerMetric metric) {
+    return new AStarSquareEuclideanWalker(zone, metric) {
+      @Override
+      protected double getSearchTimeout() {
+        return 60000;
+      }
+    };
+  }
+
+  @Test
+  @DisplayName("A search carried on to a moved goal costs the same as a new search.")
+  void testSameCost() {
+    Zone zone = new Zone();
+    zone.setGrid(new SquareGrid(true, true));
+    CellPoint start = new CellPoint(0, 0);
+    Random random = new Random(1);
+    for (WalkerMetric metric : WalkerMetric.values()) {
+      for (int drag = 0; drag < 20; drag++) {
+        // The goal moves a cell at a time, as when a token is dragged
+        AStarSquareEuclideanWalker continued = walker(zone, metric);
+        int x = random.nextInt(10);
+        int y = random.nextInt(10);
+        for (int i = 0; i < 30; i++) {
+          x += random.nextInt(3) - 1;
+          y += random.nextInt(3) - 1;
+          CellPoint goal = new CellPoint(x, y);
+          List<CellPoint> path = continued.calculatePath(start, goal);
+          AStarSquareEuclideanWalker fresh = walker(zone, metric);
+          fresh.calculatePath(start, goal);
+
+          assertEquals(goal, path.get(path.size() - 1));
+          assertEquals(fresh.getDistance(), continued.getDistance(), metric + " to " + goal);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class PassabilityGridTest {
+
+  /** A wall between the columns of cells 1 and 2, from the row 0 to the row 5. */
+  private static Area wall() {
+    return new Area(new Rectangle(100, 0, 10, 300));
+  }
+
+  private static PassabilityGrid passability(Area topology) {
+    SquareGrid grid = new SquareGrid(true, true);
+    grid.setSize(50);
+    return new PassabilityGrid(grid, 0, topology, 0);
+  }
+
+  @Test
+  @DisplayName("Moves across the wall are blocked.")
+  void testBlocked() {
+    PassabilityGrid passability = passability(wall());
+    assertFalse(passability.isEmpty());
+    assertTrue(passability.isBlocked(1, 1, 2, 1));
+    assertTrue(passability.isBlocked(2, 1, 1, 1));
+    assertTrue(passability.isBlocked(1, 2, 2, 3));
+    assertTrue(passability.isBlocked(new CellPoint(0, 4), new CellPoint(4, 4)));
+    // Checked again from the cache
+    assertTrue(passability.isBlocked(1, 1, 2, 1));
+    assertTrue(passability.isBlocked(new CellPoint(0, 4), new CellPoint(4, 4)));
+  }
+
+  @Test
+  @DisplayName("Moves beside or around the wall are passable.")
+  void testPassable() {
+    PassabilityGrid passability = passability(wall());
+    assertFalse(passability.isBlocked(0, 1, 1, 1));
+    assertFalse(passability.isBlocked(1, 1, 1, 2));
+    assertFalse(passability.isBlocked(2, 5, 3, 6));
+    assertFalse(passability.isBlocked(1, 6, 2, 6));
+    assertFalse(passability.isBlocked(new CellPoint(-3, 7), new CellPoint(4, 7)));
+  }
+
+  @Test
+  @DisplayName("No move is blocked without topology.")
+  void testEmpty() {
+    PassabilityGrid passability = passability(new Area());
+    assertTrue(passability.isEmpty());
+    assertFalse(passability.isBlocked(1, 1, 2, 1));
+  }
+
+  @Test
+  @DisplayName("The topology is read when the grid is created.")
+  void testTopologyRead() {
+    Area topology = wall();
+    PassabilityGrid passability = passability(topology);
+    topology.reset();
+    assertTrue(passability.isBlocked(1, 1, 2, 1));
+    assertTrue(passability.isFor(0, 0));
+    assertFalse(passability.isFor(0, 1));
+  }
+}
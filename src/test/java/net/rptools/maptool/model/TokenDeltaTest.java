@@ -0,0 +1,109 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TokenDeltaTest {
+
+  private static Token createToken() {
+    Token token = new Token("Hero", null);
+    token.setX(100);
+    token.setY(200);
+    token.setProperty("HP", "10");
+    token.setState("Dead", Boolean.FALSE);
+    token.setSpeech("hello", "Hi there");
+    return token;
+  }
+
+  @Test
+  @DisplayName("A token never sent whole has no delta, and an unchanged one an empty delta.")
+  void testDiffNeedsSentToken() {
+    Token token = createToken();
+    assertNull(TokenDelta.diff(token));
+
+    TokenDelta.setSent(token);
+    TokenDelta delta = TokenDelta.diff(token);
+    assertNotNull(delta);
+    assertTrue(delta.isEmpty());
+    assertEquals(token.getId(), delta.getTokenId());
+  }
+
+  @Test
+  @DisplayName("The fields changed are applied to a copy of the token as sent.")
+  void testRoundTrip() {
+    Token token = createToken();
+    Token received = new Token(token, true);
+    TokenDelta.setSent(token);
+    TokenDelta.setSent(received);
+
+    token.setX(150);
+    token.setProperty("HP", "7");
+    TokenDelta delta = TokenDelta.diff(token);
+    assertFalse(delta.isEmpty());
+    delta.apply(received);
+
+    assertEquals(150, received.getX());
+    assertEquals(200, received.getY());
+    assertEquals("7", received.getProperty("HP"));
+    assertEquals("Hi there", received.getSpeech("hello"));
+    assertTrue(TokenDelta.diff(token).isEmpty(), "The token is taken as sent after a diff");
+  }
+
+  @Test
+  @DisplayName("Changes made in place to the maps of the token are found.")
+  void testChangeInPlace() {
+    Token token = createToken();
+    Token received = new Token(token, true);
+    TokenDelta.setSent(token);
+
+    token.setState("Dead", Boolean.TRUE);
+    token.setState("Wounds", BigDecimal.ONE);
+    token.setSpeech("hello", "Hello");
+    TokenDelta.diff(token).apply(received);
+
+    assertEquals(Boolean.TRUE, received.getState("Dead"));
+    assertEquals(BigDecimal.ONE, received.getState("Wounds"));
+    assertEquals("Hello", received.getSpeech("hello"));
+  }
+
+  @Test
+  @DisplayName("A moved token starts its next move from its new position.")
+  void testOriginFollowsPosition() {
+    Token token = createToken();
+    Token received = new Token(token, true);
+    assertEquals(new ZonePoint(100, 200), received.getOriginPoint());
+    TokenDelta.setSent(token);
+
+    token.setX(300);
+    token.setY(400);
+    TokenDelta.diff(token).apply(received);
+
+    assertEquals(new ZonePoint(300, 400), received.getOriginPoint());
+  }
+
+  @Test
+  @DisplayName("A token whose sent state was forgotten is sent whole.")
+  void testClearSent() {
+    Token token = createToken();
+    TokenDelta.setSent(token);
+    TokenDelta.clearSent(token);
+    assertNull(TokenDelta.diff(token));
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TokenSpatialIndexTest {
+
+  private static final int SIZE = TokenSpatialIndex.BUCKET_SIZE;
+
+  @Test
+  @DisplayName("Tokens are found by the areas overlapping their bounds, and only those.")
+  void testInsertAndQuery() {
+    TokenSpatialIndex index = new TokenSpatialIndex();
+    Token near = new Token();
+    Token far = new Token();
+    index.put(near, new Rectangle(10, 10, 50, 50));
+    index.put(far, new Rectangle(10 * SIZE, 10 * SIZE, 50, 50));
+
+    assertEquals(2, index.size());
+    Set<Token> found = index.query(new Rectangle(0, 0, 100, 100));
+    assertTrue(found.contains(near));
+    assertFalse(found.contains(far));
+    found = index.query(new Rectangle(10 * SIZE + 20, 10 * SIZE + 20, 1, 1));
+    assertTrue(found.contains(far));
+    assertFalse(found.contains(near));
+    assertTrue(index.query(new Rectangle(5 * SIZE, 5 * SIZE, 10, 10)).isEmpty());
+  }
+
+  @Test
+  @DisplayName("A token put again is found at its new bounds only.")
+  void testMove() {
+    TokenSpatialIndex index = new TokenSpatialIndex();
+    Token token = new Token();
+    index.put(token, new Rectangle(10, 10, 50, 50));
+    index.put(token, new Rectangle(-3 * SIZE, 4 * SIZE, 50, 50));
+
+    assertEquals(1, index.size());
+    assertFalse(index.query(new Rectangle(0, 0, 100, 100)).contains(token));
+    assertTrue(index.query(new Rectangle(-3 * SIZE, 4 * SIZE, 10, 10)).contains(token));
+  }
+
+  @Test
+  @DisplayName("A removed token is not found anymore.")
+  void testRemove() {
+    TokenSpatialIndex index = new TokenSpatialIndex();
+    Token token = new Token();
+    Token other = new Token();
+    index.put(token, new Rectangle(10, 10, 2 * SIZE, 50));
+    index.put(other, new Rectangle(20, 20, 50, 50));
+    index.remove(token.getId());
+
+    assertEquals(1, index.size());
+    Set<Token> found = index.query(new Rectangle(0, 0, 3 * SIZE, 100));
+    assertFalse(found.contains(token));
+    assertTrue(found.contains(other));
+    index.remove(token.getId()); // Removing twice does nothing
+    assertEquals(1, index.size());
+  }
+
+  @Test
+  @DisplayName("Tokens without bounds or too large for the buckets are always found.")
+  void testOversized() {
+    TokenSpatialIndex index = new TokenSpatialIndex();
+    Token unknown = new Token();
+    Token huge = new Token();
+    index.put(unknown, null);
+    index.put(huge, new Rectangle(0, 0, 100 * SIZE, 100 * SIZE));
+
+    Set<Token> found = new HashSet<>();
+    index.query(new Rectangle(-50 * SIZE, -50 * SIZE, 1, 1), found);
+    assertTrue(found.contains(unknown));
+    assertTrue(found.contains(huge));
+
+    index.remove(huge.getId());
+    assertFalse(index.query(new Rectangle(10, 10, 1, 1)).contains(huge));
+  }
+
+  @Test
+  @DisplayName("A query larger than the occupied buckets finds the same tokens.")
+  void testLargeQuery() {
+    TokenSpatialIndex index = new TokenSpatialIndex();
+    Token inside = new Token();
+    Token outside = new Token();
+    index.put(inside, new Rectangle(SIZE, SIZE, 10, 10));
+    index.put(outside, new Rectangle(1000 * SIZE, 1000 * SIZE, 10, 10));
+
+    Set<Token> found = index.query(new Rectangle(0, 0, 500 * SIZE, 500 * SIZE));
+    assertTrue(found.contains(inside));
+    assertFalse(found.contains(outside));
+  }
+}
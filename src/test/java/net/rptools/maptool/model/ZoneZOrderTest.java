@@ -0,0 +1,83 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ZoneZOrderTest {
+
+  private static Token token(int z) {
+    Token token = new Token();
+    token.setZOrder(z);
+    return token;
+  }
+
+  private static List<Token> sorted(List<Token> tokens) {
+    List<Token> sorted = new ArrayList<>(tokens);
+    sorted.sort(Zone.TOKEN_Z_ORDER_COMPARATOR);
+    return sorted;
+  }
+
+  @Test
+  @DisplayName("Tokens of the same z-order are ordered by id, whatever order they are put in.")
+  void testTieBreaking() {
+    List<Token> tokens = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      tokens.add(token(i % 3));
+    }
+    Collections.shuffle(tokens, new Random(3));
+    Zone zone = new Zone();
+    for (Token token : tokens) {
+      zone.putToken(token);
+    }
+    assertEquals(sorted(tokens), zone.getAllTokens());
+
+    Collections.shuffle(tokens, new Random(5));
+    Zone other = new Zone();
+    other.putTokens(tokens);
+    assertEquals(zone.getAllTokens(), other.getAllTokens());
+  }
+
+  @Test
+  @DisplayName("Tokens whose z-order changed are moved, by putToken or sortZOrder.")
+  void testReorder() {
+    List<Token> tokens = new ArrayList<>();
+    Zone zone = new Zone();
+    for (int i = 0; i < 10; i++) {
+      Token token = token(i);
+      tokens.add(token);
+      zone.putToken(token);
+    }
+    tokens.get(0).setZOrder(5);
+    zone.putToken(tokens.get(0));
+    assertEquals(sorted(tokens), zone.getAllTokens());
+
+    tokens.get(9).setZOrder(5);
+    tokens.get(3).setZOrder(-1);
+    zone.sortZOrder();
+    assertEquals(sorted(tokens), zone.getAllTokens());
+
+    zone.removeToken(tokens.get(5).getId());
+    tokens.remove(5);
+    assertEquals(sorted(tokens), zone.getAllTokens());
+  }
+}
@@ -76,6 +76,37 @@ void testBasicTransfer() throws Exception {
     consumer.getFilename().delete();
   }
 
+  @Test
+  @DisplayName("Background producers are sent in order, after the other producers.")
+  void testBackgroundProducers() throws Exception {
+
+    File tmpFile = createTempFile(new byte[25]);
+
+    AssetTransferManager manager = new AssetTransferManager();
+    manager.addBackgroundProducer(new AssetProducer("first", "first", tmpFile));
+    manager.addBackgroundProducer(new AssetProducer("second", "second", tmpFile));
+    manager.addBackgroundProducer(new AssetProducer("third", "third", tmpFile));
+    manager.addProducer(new AssetProducer("requested", "requested", tmpFile));
+
+    // Asked for while queued, sent along with the requested one
+    assertTrue(manager.prioritizeProducer("third"));
+    assertFalse(manager.prioritizeProducer("unknown"));
+
+    StringBuilder order = new StringBuilder();
+    AssetChunk chunk;
+    while ((chunk = manager.nextChunk(10)) != null) {
+      order.append(chunk.getId()).append(' ');
+    }
+    assertEquals(
+        "requested third requested third requested third "
+            + "first first first second second second ",
+        order.toString());
+    assertFalse(manager.hasProducers());
+
+    // CLEANUP
+    tmpFile.delete();
+  }
+
   @Test
   @DisplayName("Test Create Temporary File.")
   File createTempFile(byte[] data) throws IOException {
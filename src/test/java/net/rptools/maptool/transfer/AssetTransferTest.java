@@ -76,6 +76,56 @@ void testBasicTransfer() throws Exception {
     consumer.getFilename().delete();
   }
 
+  @Test
+  @DisplayName("Test resuming an interrupted transfer.")
+  void testResumeTransfer() throws Exception {
+
+    byte[] data = new byte[1024];
+    for (int i = 0; i < 1024; i++) {
+      data[i] = (byte) i;
+    }
+
+    File tmpFile = createTempFile(data);
+
+    // Interrupted after 3 chunks, with a fourth chunk partially written
+    AssetProducer producer = new AssetProducer("Resuming", "onetwo", tmpFile);
+    AssetConsumer consumer = new AssetConsumer(new File("."), producer.getHeader());
+    for (int i = 0; i < 3; i++) {
+      consumer.update(producer.nextChunk(100));
+    }
+    producer.close();
+    FileOutputStream partial = new FileOutputStream(consumer.getFilename(), true);
+    partial.write(new byte[] {1, 2, 3});
+    partial.close();
+
+    assertEquals(303, AssetConsumer.getPartialSize(new File("."), "Resuming"));
+
+    // Resume from what was received in full
+    producer = new AssetProducer("Resuming", "onetwo", tmpFile);
+    assertTrue(producer.resumeFrom(300));
+    AssetHeader header = producer.getHeader();
+    assertEquals(300, header.getOffset());
+
+    consumer = new AssetConsumer(new File("."), header);
+    assertFalse(consumer.isComplete());
+    while (!producer.isComplete()) {
+      consumer.update(producer.nextChunk(100));
+    }
+
+    assertTrue(consumer.isComplete());
+    FileInputStream in = new FileInputStream(consumer.getFilename());
+    byte[] received = new byte[data.length + 1];
+    assertEquals(data.length, in.read(received));
+    in.close();
+    for (int i = 0; i < data.length; i++) {
+      assertEquals(data[i], received[i]);
+    }
+
+    // CLEANUP
+    tmpFile.delete();
+    consumer.getFilename().delete();
+  }
+
   @Test
   @DisplayName("Test Creating a temporary file.")
   File createTempFile(byte[] data) throws IOException {
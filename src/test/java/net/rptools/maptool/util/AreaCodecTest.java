@@ -0,0 +1,100 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class AreaCodecTest {
+
+  @Test
+  @DisplayName("Areas on whole coordinates come back exactly, in a few bytes per point.")
+  void testExact() {
+    // Cells exposed here and there, as a fog of war is
+    Random random = new Random(42);
+    Area area = new Area();
+    for (int i = 0; i < 500; i++) {
+      area.add(new Area(new Rectangle(random.nextInt(200) * 50, random.nextInt(200) * 50, 50, 50)));
+    }
+    area.subtract(new Area(new Rectangle(2000, 2000, 3000, 3000)));
+
+    byte[] bytes = AreaCodec.encode(area);
+    assertTrue(area.equals(AreaCodec.decode(bytes)));
+    assertTrue(bytes.length < 3 * countPoints(area), "size " + bytes.length);
+  }
+
+  @Test
+  @DisplayName("Other coordinates come back exactly too.")
+  void testOffGrid() {
+    Area area = new Area(new Ellipse2D.Double(10.123, 20.456, 300.789, 150.1));
+    area.add(new Area(new Rectangle2D.Double(0.5, 0.25, 40, 40)));
+    assertArrayEquals(
+        getCoordinates(area), getCoordinates(AreaCodec.decode(AreaCodec.encode(area))));
+
+    Area far = new Area(new Rectangle2D.Double(1e17, -1e17, 1e16, 1e16));
+    assertArrayEquals(getCoordinates(far), getCoordinates(AreaCodec.decode(AreaCodec.encode(far))));
+  }
+
+  @Test
+  @DisplayName("Empty and null areas are kept.")
+  void testEmpty() {
+    assertTrue(AreaCodec.decode(AreaCodec.encode(new Area())).isEmpty());
+    assertNull(AreaCodec.encode(null));
+    assertNull(AreaCodec.decode(null));
+  }
+
+  @Test
+  @DisplayName("Bytes which are not an encoded area are rejected.")
+  void testCorrupt() {
+    byte[] bytes = AreaCodec.encode(new Area(new Rectangle(0, 0, 10, 10)));
+    byte[] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+    assertThrows(IllegalArgumentException.class, () -> AreaCodec.decode(truncated));
+    assertThrows(IllegalArgumentException.class, () -> AreaCodec.decode(new byte[] {42}));
+  }
+
+  private static double[] getCoordinates(Area area) {
+    double[] result = new double[0];
+    double[] coords = new double[6];
+    for (PathIterator it = area.getPathIterator(null); !it.isDone(); it.next()) {
+      int type = it.currentSegment(coords);
+      int n = result.length;
+      result = Arrays.copyOf(result, n + 7);
+      result[n] = type;
+      System.arraycopy(coords, 0, result, n + 1, 6);
+      Arrays.fill(coords, 0);
+    }
+    return result;
+  }
+
+  private static int countPoints(Area area) {
+    int points = 0;
+    double[] coords = new double[6];
+    for (PathIterator it = area.getPathIterator(null); !it.isDone(); it.next()) {
+      if (it.currentSegment(coords) != PathIterator.SEG_CLOSE) {
+        points++;
+      }
+    }
+    return points;
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import net.rptools.lib.MD5Key;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ImageCacheTest {
+
+  /** 100x100 ARGB images, 40000 bytes each. */
+  private static BufferedImage createImage() {
+    return new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB);
+  }
+
+  @Test
+  @DisplayName("The size of an image is the size of its raster.")
+  void testGetSize() {
+    assertEquals(40000, ImageCache.getSize(createImage()));
+    assertEquals(
+        30000, ImageCache.getSize(new BufferedImage(100, 100, BufferedImage.TYPE_3BYTE_BGR)));
+  }
+
+  @Test
+  @DisplayName("The least recently used images are evicted to stay within the budget.")
+  void testEviction() {
+    ImageCache cache = new ImageCache(100000);
+    MD5Key first = new MD5Key("first");
+    MD5Key second = new MD5Key("second");
+    MD5Key third = new MD5Key("third");
+    BufferedImage firstImage = createImage();
+    cache.put(first, firstImage);
+    cache.put(second, createImage());
+    assertSame(firstImage, cache.get(first));
+
+    cache.put(third, createImage());
+    assertEquals(1, cache.getEvictionCount());
+    assertEquals(80000, cache.getResidentBytes());
+    assertNull(cache.peek(second));
+    assertNotNull(cache.peek(first));
+    assertNotNull(cache.peek(third));
+    assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  @DisplayName("Pinned images are never evicted.")
+  void testPinned() {
+    ImageCache cache = new ImageCache(50000);
+    MD5Key pinned = new MD5Key("pinned");
+    MD5Key other = new MD5Key("other");
+    cache.setPinned(Collections.singleton(pinned));
+    cache.put(pinned, createImage());
+    cache.put(other, createImage());
+
+    assertNotNull(cache.peek(pinned));
+    assertNull(cache.peek(other));
+
+    cache.clear();
+    assertNotNull(cache.peek(pinned));
+    assertEquals(40000, cache.getResidentBytes());
+  }
+
+  @Test
+  @DisplayName("Evicted images are taken back from the soft tier.")
+  void testSoftTier() {
+    ImageCache cache = new ImageCache(50000);
+    MD5Key first = new MD5Key("first");
+    BufferedImage firstImage = createImage();
+    cache.put(first, firstImage);
+    cache.put(new MD5Key("second"), createImage());
+    assertNull(cache.peek(first));
+
+    // Still strongly referenced here, so the soft reference can't have been cleared
+    assertSame(firstImage, cache.get(first));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(0, cache.getMissCount());
+    assertNotNull(cache.peek(first));
+
+    cache.remove(first);
+    assertNull(cache.get(first));
+    assertEquals(1, cache.getMissCount());
+  }
+}
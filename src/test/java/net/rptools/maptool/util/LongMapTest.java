@@ -0,0 +1,57 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class LongMapTest {
+
+  @Test
+  @DisplayName("Keys pack two ints, negative ones included.")
+  void testKeys() {
+    long key = LongMap.key(-3, 7);
+    assertEquals(-3, LongMap.keyX(key));
+    assertEquals(7, LongMap.keyY(key));
+    assertNotEquals(LongMap.key(7, -3), key);
+    assertEquals(-1, LongMap.keyY(LongMap.key(0, -1)));
+  }
+
+  @Test
+  @DisplayName("The map holds the same entries as a HashMap as it grows.")
+  void testPutGet() {
+    LongMap<Integer> map = new LongMap<>();
+    Map<Long, Integer> expected = new HashMap<>();
+    Random random = new Random(1);
+    for (int i = 0; i < 10000; i++) {
+      long key = LongMap.key(random.nextInt(200) - 100, random.nextInt(200) - 100);
+      assertEquals(expected.put(key, i), map.put(key, i));
+    }
+    assertEquals(expected.size(), map.size());
+    for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), map.get(entry.getKey()));
+    }
+    assertNull(map.get(LongMap.key(1000, 1000)));
+
+    map.clear();
+    assertTrue(map.isEmpty());
+    assertFalse(map.containsKey(expected.keySet().iterator().next()));
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class LruCacheTest {
+
+  @Test
+  @DisplayName("The least recently used entry is evicted first.")
+  void testEviction() {
+    LruCache<String, Integer> cache = new LruCache<String, Integer>(2);
+    cache.put("a", 1);
+    cache.put("b", 2);
+    assertEquals(1, cache.get("a"));
+    cache.put("c", 3);
+    assertEquals(2, cache.size());
+    assertNull(cache.get("b"));
+    assertEquals(1, cache.get("a"));
+    assertEquals(3, cache.get("c"));
+  }
+
+  @Test
+  @DisplayName("Hits and misses are counted.")
+  void testCounters() {
+    LruCache<String, Integer> cache = new LruCache<String, Integer>(2);
+    assertEquals(0, cache.getHitRate());
+    assertNull(cache.get("a"));
+    cache.put("a", 1);
+    cache.get("a");
+    cache.get("a");
+    cache.get("a");
+    assertEquals(3, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(0.75, cache.getHitRate());
+  }
+}